@@ -0,0 +1,26 @@
+package storm.redditsentiment;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar. Accepts the usual JMH command line options, but always
+ * attaches the GC profiler so that allocation per operation is reported with every result.
+ * 
+ * Example - run only the scoring benchmarks:
+ *		$ java -jar benchmarks/target/benchmarks.jar SentimentScoring
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws Exception {
+		Options opts = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build();
+		
+		new Runner(opts).run();
+	}
+}
@@ -0,0 +1,45 @@
+package storm.redditsentiment;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jsoup.Jsoup;
+import org.jsoup.safety.Whitelist;
+
+/**
+ * Comment fixtures for the benchmarks. Each corpus file under "corpus/" holds one comment per line:
+ * 
+ * - short: one-liners, which make up most of reddit's comment feeds.
+ * - long: multi-sentence paragraphs.
+ * - html: comment bodies as they arrive in the RSS entry content, with markup, links and entities.
+ */
+class Corpus {
+	
+	public static List<String> load(String name) throws Exception {
+		BufferedReader reader = null;
+		List<String> comments = new ArrayList<String>();
+		try {
+			reader = new BufferedReader(new InputStreamReader(
+				Corpus.class.getClassLoader().getResourceAsStream("corpus/" + name + "-comments.txt"), "UTF-8"));
+			
+			String line = "";
+			while ((line = reader.readLine()) != null) {
+				if (!line.isEmpty()) {
+					comments.add(line);
+				}
+			}
+		} finally {
+			if (reader != null) reader.close();
+		}
+		
+		return comments;
+	}
+	
+	// The cleanup SubredditCommentsSpout did before HtmlNormalizer, as a baseline.
+	public static String clean(String comment) {
+		comment = Jsoup.clean(comment, Whitelist.none());
+		return comment.replaceAll("\\p{Punct}", "");
+	}
+}
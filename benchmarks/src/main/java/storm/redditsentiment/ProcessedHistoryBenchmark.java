@@ -0,0 +1,78 @@
+package storm.redditsentiment;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of the spout's duplicate detection, per feed entry.
+ * 
+ * Each invocation replays one fetch of a 25 entry comments feed the way SubredditCommentsSpout does:
+ * isNew() for every entry. Fetches are 30 secs apart.
+ * duplicatePercent is the share of each page that was already seen in the previous fetch -
+ * high for quiet subreddits, low for busy ones.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ProcessedHistoryBenchmark {
+
+	private static final int ENTRIES_PER_FETCH = 25;
+	private static final int FETCHES = 1024;
+	
+	@Param({"0", "50", "90"})
+	public int duplicatePercent;
+	
+	private String[][] fetches;
+	private ProcessedHistory history;
+	private int next;
+	private long now;
+	
+	@Setup
+	public void setup() {
+		int dupes = ENTRIES_PER_FETCH * duplicatePercent / 100;
+		
+		// Comment URIs look like "t1_d5xg0k2" - the base36 comment id with its reddit type prefix.
+		long commentId = 28000000000L;
+		this.fetches = new String[FETCHES][ENTRIES_PER_FETCH];
+		for (int f = 0; f < FETCHES; f++) {
+			int e = 0;
+			// Like the real feed, newest comments come first, followed by the ones seen last time.
+			for (; e < ENTRIES_PER_FETCH - dupes; e++) {
+				fetches[f][e] = "t1_" + Long.toString(commentId++, 36);
+			}
+			for (int d = 0; e < ENTRIES_PER_FETCH; e++, d++) {
+				fetches[f][e] = f > 0 ? fetches[f - 1][d] : "t1_" + Long.toString(commentId++, 36);
+			}
+		}
+		
+		this.history = new ProcessedHistory();
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(ENTRIES_PER_FETCH)
+	public void fetch(Blackhole bh) {
+		String[] entries = fetches[next];
+		next = (next + 1) % FETCHES;
+		
+		now += 30000;
+		for (String commentId : entries) {
+			bh.consume(history.isNew(commentId, now));
+		}
+	}
+}
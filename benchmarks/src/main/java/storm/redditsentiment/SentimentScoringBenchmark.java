@@ -0,0 +1,106 @@
+package storm.redditsentiment;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per comment cost of the spout's cleanup and of SentimentCalculatorBolt's scoring.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SentimentScoringBenchmark {
+
+	@Param({"short", "long", "html"})
+	public String corpus;
+	
+	private Map<String, Long> sentimentData;
+	private LexiconMatcher lexicon;
+	private HtmlNormalizer normalizer = new HtmlNormalizer();
+	private String[] rawComments;
+	private String[] cleanedComments;
+	private int next;
+	
+	@Setup
+	public void setup() throws Exception {
+		// The calculator bolt receives the AFINN map with Long values after Storm's
+		// deserialization, so benchmark against the same boxed type.
+		this.sentimentData = new HashMap<String, Long>();
+		for (Map.Entry<String, Integer> e : SentimentData.getSentimentData().entrySet()) {
+			this.sentimentData.put(e.getKey(), e.getValue().longValue());
+		}
+		this.lexicon = LexiconMatcher.compile(sentimentData);
+		
+		List<String> comments = Corpus.load(corpus);
+		this.rawComments = comments.toArray(new String[comments.size()]);
+		this.cleanedComments = new String[rawComments.length];
+		for (int i = 0; i < rawComments.length; i++) {
+			this.cleanedComments[i] = Corpus.clean(rawComments[i]);
+		}
+	}
+	
+	/**
+	 * The original cleanup - Jsoup.clean() and a regex - kept as a baseline.
+	 */
+	@Benchmark
+	public String cleanComment() {
+		String comment = rawComments[nextIndex()];
+		return Corpus.clean(comment);
+	}
+	
+	@Benchmark
+	public String normalizeComment() {
+		String comment = rawComments[nextIndex()];
+		return normalizer.normalize(comment);
+	}
+	
+	@Benchmark
+	public int scoreComment() {
+		String comment = cleanedComments[nextIndex()];
+		return lexicon.score(comment);
+	}
+	
+	/**
+	 * The original scoring - regex split and a boxed map lookup per word - kept as a baseline.
+	 */
+	@Benchmark
+	public int scoreCommentSplit() {
+		String comment = cleanedComments[nextIndex()];
+		
+		String[] tokens = comment.split("\\s+");
+		int sentimentScore = 0;
+		for (String t  : tokens) {
+			if (t == null || t.isEmpty()) {
+				continue;
+			}
+			Long value = sentimentData.get(t);
+			if (value != null) {
+				sentimentScore += value;
+			}
+		}
+		return sentimentScore;
+	}
+	
+	private int nextIndex() {
+		int i = next;
+		next = (i + 1 == rawComments.length) ? 0 : i + 1;
+		return i;
+	}
+}
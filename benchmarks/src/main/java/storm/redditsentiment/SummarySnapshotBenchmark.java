@@ -0,0 +1,76 @@
+package storm.redditsentiment;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time a summarizer spends on snapshots of its Summary: encoding one on its own thread, and restoring
+ * one from the memory mapped file in prepare(). Writing the file happens on a background thread, 
+ * so it's not measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SummarySnapshotBenchmark {
+
+	@Param({"10000", "100000"})
+	public int stories;
+	
+	private Summary summary;
+	
+	private File dir;
+	private SummarySnapshots snapshots;
+	
+	@Setup
+	public void setup() throws IOException {
+		this.summary = SummaryUpdateBenchmark.populate(stories, new Random(42));
+		
+		this.dir = File.createTempFile("snapshots", "");
+		dir.delete();
+		dir.mkdirs();
+		this.snapshots = new SummarySnapshots(dir, "summarizer", Long.MAX_VALUE);
+		snapshots.write(summary);
+		snapshots.close();
+		this.snapshots = new SummarySnapshots(dir, "summarizer", Long.MAX_VALUE);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		for (File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+	
+	@Benchmark
+	public ByteBuffer encode() {
+		return SummarySnapshots.encode(summary);
+	}
+	
+	@Benchmark
+	public Summary restore() {
+		Summary restored = new Summary();
+		snapshots.restore(restored);
+		return restored;
+	}
+}
@@ -0,0 +1,99 @@
+package storm.redditsentiment;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of one scored comment arriving at SummarizerBolt, with a given number of stories
+ * already live in the Summary.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SummaryUpdateBenchmark {
+
+	private static final String[] SUBREDDITS = {"worldnews", "technology", "science", "politics", "askreddit"};
+	private static final int UPDATES = 1 << 16;
+	
+	@Param({"10000", "100000", "1000000"})
+	public int stories;
+	
+	private Summary summary;
+	
+	// Tuple fields of the comments to feed, prepared upfront so that only Summary's own
+	// allocations show up in the GC profile.
+	private String[] subreddits;
+	private String[] storyIds;
+	private int[] scores;
+	private int next;
+	
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		this.summary = populate(stories, random);
+		
+		// Comment activity is heavily skewed towards a few hot stories, roughly like reddit's.
+		this.subreddits = new String[UPDATES];
+		this.storyIds = new String[UPDATES];
+		this.scores = new int[UPDATES];
+		for (int i = 0; i < UPDATES; i++) {
+			double skewed = Math.pow(random.nextDouble(), 4);
+			int story = (int) (skewed * stories);
+			subreddits[i] = subreddit(story);
+			storyIds[i] = storyId(story);
+			scores[i] = random.nextInt(11) - 5;
+		}
+	}
+	
+	@Benchmark
+	public Summary update() {
+		int i = next;
+		next = (i + 1) & (UPDATES - 1);
+		
+		summary.update(subreddits[i], storyIds[i], scores[i], System.currentTimeMillis());
+		return summary;
+	}
+	
+	/**
+	 * Builds a Summary holding the given number of live stories. Every story has 1 comment,
+	 * and 1 in 100 stories have up to 50 more, so that rankings have something to sort.
+	 */
+	static Summary populate(int stories, Random random) {
+		Summary summary = new Summary();
+		long now = System.currentTimeMillis();
+		for (int s = 0; s < stories; s++) {
+			int comments = (s % 100 == 0) ? 1 + random.nextInt(50) : 1;
+			for (int c = 0; c < comments; c++) {
+				summary.update(subreddit(s), storyId(s), random.nextInt(11) - 5, now);
+			}
+		}
+		return summary;
+	}
+	
+	static String subreddit(int story) {
+		return SUBREDDITS[story % SUBREDDITS.length];
+	}
+	
+	static String storyId(int story) {
+		return Long.toString(1000000L + story, 36);
+	}
+	
+	static String storyURL(int story) {
+		return "/r/" + subreddit(story) + "/comments/" + storyId(story) + "/story_" + story;
+	}
+}
@@ -0,0 +1,131 @@
+package storm.redditsentiment;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import backtype.storm.Config;
+import backtype.storm.serialization.KryoValuesDeserializer;
+import backtype.storm.serialization.KryoValuesSerializer;
+import backtype.storm.tuple.Values;
+import backtype.storm.utils.Utils;
+
+/**
+ * Cost of sending a comment tuple between workers, through Storm's own tuple value serialization: 
+ * the fields as a Values list of Strings and boxed numbers, as the topology used to send them, 
+ * against a single CommentEvent with its registered serializer. 
+ *
+ * "comment" is the spout to calculator hop, with the comment text, and "scored" the calculator 
+ * to summarizer hop. Bytes per tuple of each are printed at setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TupleSerializationBenchmark {
+
+	private static final List<String> SUBREDDITS = Arrays.asList(
+			"news", "worldnews", "politics", "technology", "science", "askreddit", "funny", "gaming");
+	
+	private static final int TUPLES = 1024;
+	
+	@Param({"comment", "scored"})
+	public String hop;
+	
+	private KryoValuesSerializer valuesSerializer;
+	private KryoValuesDeserializer valuesDeserializer;
+	private KryoValuesSerializer eventSerializer;
+	private KryoValuesDeserializer eventDeserializer;
+	
+	private Values[] values = new Values[TUPLES];
+	private Values[] events = new Values[TUPLES];
+	private byte[][] serializedValues = new byte[TUPLES][];
+	private byte[][] serializedEvents = new byte[TUPLES][];
+	private int next;
+	
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setup() throws Exception {
+		Config defaultConf = new Config();
+		defaultConf.putAll(Utils.readDefaultConfig());
+		this.valuesSerializer = new KryoValuesSerializer(defaultConf);
+		this.valuesDeserializer = new KryoValuesDeserializer(defaultConf);
+		
+		// As set up by RedditSentimentTopology.
+		Config topologyConf = new Config();
+		topologyConf.putAll(Utils.readDefaultConfig());
+		topologyConf.put(RedditSentimentTopology.SUBREDDITS, SUBREDDITS);
+		topologyConf.setKryoFactory(TopologyKryoFactory.class);
+		topologyConf.setFallBackOnJavaSerialization(false);
+		this.eventSerializer = new KryoValuesSerializer(topologyConf);
+		this.eventDeserializer = new KryoValuesDeserializer(topologyConf);
+		
+		List<String> comments = Corpus.load("short");
+		Random random = new Random(42);
+		long timestamp = System.currentTimeMillis();
+		long valuesBytes = 0;
+		long eventBytes = 0;
+		for (int i = 0; i < TUPLES; i++) {
+			String subreddit = SUBREDDITS.get(random.nextInt(SUBREDDITS.size()));
+			String storyId = Long.toString(10000000000L + random.nextInt(1000000), 36);
+			String commentId = "t1_" + Long.toString(20000000000L + i, 36);
+			String comment = Corpus.clean(comments.get(i % comments.size()));
+			int score = random.nextInt(11) - 5;
+			
+			if (hop.equals("comment")) {
+				values[i] = new Values(subreddit, storyId, commentId, comment, timestamp);
+				events[i] = new Values(CommentEvent.unscored(subreddit, storyId, comment, timestamp));
+			} else {
+				values[i] = new Values(subreddit, storyId, score, timestamp);
+				events[i] = new Values(new CommentEvent(subreddit, storyId, null, score, timestamp));
+			}
+			serializedValues[i] = valuesSerializer.serialize(values[i]);
+			serializedEvents[i] = eventSerializer.serialize(events[i]);
+			valuesBytes += serializedValues[i].length;
+			eventBytes += serializedEvents[i].length;
+		}
+		System.out.println("Bytes per " + hop + " tuple: Values " + (valuesBytes / TUPLES) 
+				+ ", CommentEvent " + (eventBytes / TUPLES));
+	}
+	
+	@Benchmark
+	public byte[] serializeValues() {
+		return valuesSerializer.serialize(values[nextIndex()]);
+	}
+	
+	@Benchmark
+	public byte[] serializeEvent() {
+		return eventSerializer.serialize(events[nextIndex()]);
+	}
+	
+	@Benchmark
+	public List<Object> deserializeValues() {
+		return valuesDeserializer.deserialize(serializedValues[nextIndex()]);
+	}
+	
+	@Benchmark
+	public List<Object> deserializeEvent() {
+		return eventDeserializer.deserialize(serializedEvents[nextIndex()]);
+	}
+	
+	private int nextIndex() {
+		int i = next;
+		next = (i + 1 == TUPLES) ? 0 : i + 1;
+		return i;
+	}
+}
@@ -0,0 +1,77 @@
+package storm.redditsentiment;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of encoding the payload of one ZkPublisher.publish(), excluding the Zookeeper round trip: taking
+ * the 3 top 5 rankings of a Summary, filling in their titles, and encoding them as a full snapshot or as a delta.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ZkPublisherBenchmark {
+
+	@Param({"10000", "100000", "1000000"})
+	public int stories;
+	
+	private Summary summary;
+	private StoryDirectory storyDirectory;
+	private Rankings fullSnapshot;
+	
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		this.summary = SummaryUpdateBenchmark.populate(stories, random);
+		
+		// Like the ranker's, which knows all the stories that are live.
+		this.storyDirectory = new StoryDirectory();
+		for (int story = 0; story < Math.min(stories, 100000); story++) {
+			storyDirectory.put(SummaryUpdateBenchmark.storyId(story), SummaryUpdateBenchmark.storyURL(story), 
+					"Story " + story);
+		}
+		
+		this.fullSnapshot = rankings();
+		
+		// Move a few stories up the rankings, so that deltas have something in them.
+		int[] risingStories = {random.nextInt(stories), random.nextInt(stories), random.nextInt(stories)};
+		for (int i = 0; i < 3000; i++) {
+			int story = risingStories[i % risingStories.length];
+			summary.update(SummaryUpdateBenchmark.subreddit(story), SummaryUpdateBenchmark.storyId(story), 1, 
+					System.currentTimeMillis());
+		}
+	}
+	
+	@Benchmark
+	public byte[] publishFull() {
+		Rankings rankings = rankings();
+		return SummaryPayload.encodeFull(rankings, 1);
+	}
+	
+	@Benchmark
+	public byte[] publishDelta() {
+		Rankings rankings = rankings();
+		return SummaryPayload.encodeDelta(rankings, fullSnapshot, 1, 2);
+	}
+	
+	private Rankings rankings() {
+		Rankings rankings = summary.getRankings(SummarizerBolt.TOP_N, System.currentTimeMillis());
+		storyDirectory.describe(rankings);
+		return rankings;
+	}
+}
@@ -0,0 +1,41 @@
+package storm.redditsentiment;
+
+/**
+ * A comment on its way from the spout to the summarizers. The spout emits it with the comment's text, 
+ * and the calculator emits a new one with its sentiment score instead.
+ *
+ * Tuples carry it as their only field, and it's serialized by CommentEventSerializer.
+ */
+public class CommentEvent {
+
+	public final String subreddit;
+	public final String storyId;
+	
+	// Null once scored.
+	public final String comment;
+	public final int sentimentScore;
+	
+	// When the comment was fetched.
+	public final long timestamp;
+
+	public CommentEvent(String subreddit, String storyId, String comment, int sentimentScore, long timestamp) {
+		this.subreddit = subreddit;
+		this.storyId = storyId;
+		this.comment = comment;
+		this.sentimentScore = sentimentScore;
+		this.timestamp = timestamp;
+	}
+	
+	public static CommentEvent unscored(String subreddit, String storyId, String comment, long timestamp) {
+		return new CommentEvent(subreddit, storyId, comment, 0, timestamp);
+	}
+	
+	public CommentEvent scored(int sentimentScore) {
+		return new CommentEvent(subreddit, storyId, null, sentimentScore, timestamp);
+	}
+	
+	@Override
+	public String toString() {
+		return subreddit + ":" + storyId + ":" + sentimentScore + (comment != null ? ":[" + comment + "]" : "");
+	}
+}
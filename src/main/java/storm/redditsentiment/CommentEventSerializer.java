@@ -0,0 +1,103 @@
+package storm.redditsentiment;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Kryo serializer of CommentEvents. Every field is written without a class tag or field header:
+ *
+ * - The subreddit as a varint code: its index + 1 in the topology's "subreddits" list. Every
+ *   worker has the same list, so no names go over the wire. 0 is followed by the name itself, for any
+ *   subreddit not in the list.
+ * - The story ID, which is base36 (like "4xyzab"), as a varint of its value + 1. 0 is followed by the 
+ *   ID itself, for anything that doesn't decode back to the same string.
+ * - The comment, or null.
+ * - The score as a zigzag varint, usually 1 byte.
+ * - The timestamp as a varint, 6 bytes for now's millis.
+ *
+ * TupleSerializationBenchmark compares it with sending the same fields as a Values list.
+ */
+public class CommentEventSerializer extends Serializer<CommentEvent> {
+
+	// Longest base36 string that always fits in a long, with room for the + 1.
+	private static final int MAX_ID_LENGTH = 12;
+	
+	private final String[] subreddits;
+	private final Map<String, Integer> subredditCodes = new HashMap<String, Integer>();
+
+	public CommentEventSerializer(List<String> subreddits) {
+		// Not null, and never the same object twice.
+		super(false, true);
+		this.subreddits = subreddits.toArray(new String[subreddits.size()]);
+		for (int i = 0; i < this.subreddits.length; i++) {
+			subredditCodes.put(this.subreddits[i], i + 1);
+		}
+	}
+
+	@Override
+	public void write(Kryo kryo, Output output, CommentEvent event) {
+		Integer code = subredditCodes.get(event.subreddit);
+		if (code != null) {
+			output.writeVarInt(code, true);
+		} else {
+			output.writeVarInt(0, true);
+			output.writeString(event.subreddit);
+		}
+		
+		long storyId = decodeId(event.storyId);
+		if (storyId >= 0) {
+			output.writeVarLong(storyId + 1, true);
+		} else {
+			output.writeVarLong(0, true);
+			output.writeString(event.storyId);
+		}
+		
+		output.writeString(event.comment);
+		output.writeVarInt(event.sentimentScore, false);
+		output.writeVarLong(event.timestamp, true);
+	}
+
+	@Override
+	public CommentEvent read(Kryo kryo, Input input, Class<CommentEvent> type) {
+		int code = input.readVarInt(true);
+		String subreddit = (code > 0) ? subreddits[code - 1] : input.readString();
+		
+		long storyId = input.readVarLong(true);
+		String storyIdString = (storyId > 0) ? Long.toString(storyId - 1, 36) : input.readString();
+		
+		String comment = input.readString();
+		int sentimentScore = input.readVarInt(false);
+		long timestamp = input.readVarLong(true);
+		return new CommentEvent(subreddit, storyIdString, comment, sentimentScore, timestamp);
+	}
+
+	/**
+	 * The value of a base36 ID, or -1 if Long.toString(value, 36) would not give back the same string.
+	 */
+	static long decodeId(String id) {
+		int length = id.length();
+		if (length == 0 || length > MAX_ID_LENGTH || (id.charAt(0) == '0' && length > 1)) {
+			return -1;
+		}
+		long value = 0;
+		for (int i = 0; i < length; i++) {
+			char c = id.charAt(i);
+			int digit;
+			if (c >= '0' && c <= '9') {
+				digit = c - '0';
+			} else if (c >= 'a' && c <= 'z') {
+				digit = c - 'a' + 10;
+			} else {
+				return -1;
+			}
+			value = value * 36 + digit;
+		}
+		return value;
+	}
+}
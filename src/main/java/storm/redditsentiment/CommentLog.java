@@ -0,0 +1,266 @@
+package storm.redditsentiment;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A file of comments as emitted by SubredditCommentsSpout, for replaying them later with 
+ * ReplayCommentsSpout.
+ *
+ * The file is a 4 byte magic number and a byte of flags, followed by records, each of them:
+ *	int		length of the rest of the record
+ *	long	fetch timestamp
+ *	string	subreddit, story ID, comment ID, story URL, story title, comment
+ * where each string is an unsigned short length followed by that many bytes of UTF-8.
+ * The only flag is HTML: whether comments are recorded as HTML, because the spout left them to 
+ * NormalizerBolts, rather than as normalized text. 
+ * 
+ * A record cut short at the end of the file, as when the recording topology was killed, is ignored by
+ * the Reader, and cut off by a Writer that appends to the file.
+ * Files of the first version, without flags, are read as normalized text.
+ */
+class CommentLog {
+
+	private static final Logger LOG = LoggerFactory.getLogger(CommentLog.class);
+	
+	private static final int MAGIC_V1 = 0x52444331; // "RDC1"
+	private static final int MAGIC = 0x52444332; // "RDC2"
+	
+	private static final int HTML = 1;
+	
+	private static final int HEADER_BYTES = 5;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	// Longest string a record can hold. Longer ones are cut.
+	private static final int MAX_STRING_BYTES = 65535;
+	
+	// Longest record, besides its length.
+	private static final int MAX_RECORD_BYTES = 8 + 6 * (2 + MAX_STRING_BYTES);
+	
+	public static class Entry {
+		public long timestamp;
+		public String subreddit;
+		public String storyId;
+		public String commentId;
+		public String storyURL;
+		public String storyTitle;
+		public String comment;
+	}
+	
+	/**
+	 * Appends records to a log file, creating it if needed.
+	 */
+	public static class Writer {
+		
+		private final DataOutputStream out;
+		
+		/**
+		 * @param html whether comments are HTML. A file that already has records of the other kind is refused.
+		 */
+		public Writer(File file, boolean html) throws IOException {
+			boolean isNew = !file.exists() || file.length() < HEADER_BYTES;
+			if (!isNew) {
+				long complete;
+				Reader reader = new Reader(file);
+				try {
+					if (reader.version() != MAGIC || reader.isHtml() != html) {
+						throw new IOException(file + " holds comments of another kind. Record to another directory");
+					}
+					complete = reader.completeLength();
+				} finally {
+					reader.close();
+				}
+				if (complete < file.length()) {
+					LOG.warn("Cutting off {} bytes of a partial record at the end of {}", file.length() - complete, file);
+					try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+						raf.setLength(complete);
+					}
+				}
+			}
+			this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, !isNew), 65536));
+			if (isNew) {
+				out.writeInt(MAGIC);
+				out.writeByte(html ? HTML : 0);
+			}
+		}
+		
+		public void append(Entry e) throws IOException {
+			byte[][] strings = {
+				bytes(e.subreddit), bytes(e.storyId), bytes(e.commentId), 
+				bytes(e.storyURL), bytes(e.storyTitle), bytes(e.comment)
+			};
+			int length = 8;
+			for (byte[] s : strings) {
+				length += 2 + s.length;
+			}
+			out.writeInt(length);
+			out.writeLong(e.timestamp);
+			for (byte[] s : strings) {
+				out.writeShort(s.length);
+				out.write(s);
+			}
+		}
+		
+		public void flush() throws IOException {
+			out.flush();
+		}
+		
+		public void close() throws IOException {
+			out.close();
+		}
+		
+		private static byte[] bytes(String s) {
+			byte[] b = (s != null ? s : "").getBytes(UTF8);
+			if (b.length > MAX_STRING_BYTES) {
+				// Cut at a character boundary.
+				int end = MAX_STRING_BYTES;
+				while ((b[end] & 0xC0) == 0x80) {
+					end--;
+				}
+				byte[] cut = new byte[end];
+				System.arraycopy(b, 0, cut, 0, end);
+				return cut;
+			}
+			return b;
+		}
+	}
+	
+	/**
+	 * Reads a log file from start to end through memory mapped windows of the file, so records are 
+	 * decoded straight from the page cache without read() calls.
+	 */
+	public static class Reader {
+		
+		// Size of each mapped window. A mapping can't be larger than 2GB, and the file may be.
+		private static final long WINDOW_BYTES = 64L * 1024 * 1024;
+		
+		private final RandomAccessFile file;
+		private final FileChannel channel;
+		private final long fileLength;
+		
+		private final int version;
+		private final boolean html;
+		
+		private MappedByteBuffer window;
+		// File position of the start of window.
+		private long windowStart;
+		
+		public Reader(File f) throws IOException {
+			this.file = new RandomAccessFile(f, "r");
+			this.channel = file.getChannel();
+			this.fileLength = channel.size();
+			map(0);
+			this.version = (window.remaining() >= 4) ? window.getInt() : 0;
+			if (version == MAGIC && window.remaining() >= 1) {
+				this.html = (window.get() & HTML) != 0;
+			} else if (version == MAGIC_V1) {
+				this.html = false;
+			} else {
+				close();
+				throw new IOException(f + " is not a comment log");
+			}
+		}
+		
+		/**
+		 * Whether comments are HTML rather than normalized text.
+		 */
+		public boolean isHtml() {
+			return html;
+		}
+		
+		/**
+		 * The next record, or null at the end of the file.
+		 */
+		public Entry next() throws IOException {
+			int length = nextLength();
+			if (length < 0) {
+				return null;
+			}
+			window.getInt();
+			
+			Entry e = new Entry();
+			e.timestamp = window.getLong();
+			e.subreddit = string();
+			e.storyId = string();
+			e.commentId = string();
+			e.storyURL = string();
+			e.storyTitle = string();
+			e.comment = string();
+			return e;
+		}
+		
+		public void close() throws IOException {
+			channel.close();
+			file.close();
+		}
+		
+		int version() {
+			return version;
+		}
+		
+		// Skips the remaining records, and returns the length of the file up to the end of the last complete one.
+		long completeLength() throws IOException {
+			int length;
+			while ((length = nextLength()) >= 0) {
+				window.position(window.position() + 4 + length);
+			}
+			return windowStart + window.position();
+		}
+		
+		// Length of the next record, or -1 if there's no complete record next. Leaves it in the window.
+		private int nextLength() throws IOException {
+			if (!ensure(4)) {
+				return -1;
+			}
+			int length = window.getInt(window.position());
+			if (length < 8 || length > MAX_RECORD_BYTES) {
+				LOG.warn("Bad record length {} at {} of {} bytes. Ignoring the rest", length, 
+						windowStart + window.position(), fileLength);
+				return -1;
+			}
+			if (!ensure(4 + length)) {
+				return -1;
+			}
+			return length;
+		}
+		
+		// Makes sure the next bytes are in the window, moving it if needed. False if the file ends first.
+		private boolean ensure(int bytes) throws IOException {
+			if (window.remaining() >= bytes) {
+				return true;
+			}
+			long position = windowStart + window.position();
+			if (fileLength - position < bytes) {
+				return false;
+			}
+			map(position);
+			return true;
+		}
+		
+		private void map(long position) throws IOException {
+			windowStart = position;
+			long size = Math.max(Math.min(WINDOW_BYTES, fileLength - position), 0);
+			window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+		}
+		
+		private String string() {
+			int length = window.getShort() & 0xFFFF;
+			ByteBuffer bytes = window.slice();
+			bytes.limit(length);
+			window.position(window.position() + length);
+			return UTF8.decode(bytes).toString();
+		}
+	}
+}
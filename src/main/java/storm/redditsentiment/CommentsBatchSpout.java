@@ -0,0 +1,201 @@
+package storm.redditsentiment;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rometools.rome.feed.synd.SyndContent;
+import com.rometools.rome.feed.synd.SyndEntry;
+
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Values;
+import storm.trident.operation.TridentCollector;
+import storm.trident.spout.IBatchSpout;
+
+/**
+ * The Trident counterpart of SubredditCommentsSpout: polls its task's share of the subreddits the
+ * same way, and emits all new comments of the fetches completed since the last batch as one batch.
+ *
+ * A story's URL and title go with its first comment, and again every 10 minutes like the stories 
+ * stream of SubredditCommentsSpout, and are null in other comments.
+ *
+ * A batch is kept until acked, and emitted again as it was if Trident replays it, so that the 
+ * summary state can tell the replay from new comments. High water marks are checkpointed once
+ * the batch that moved them is acked.
+ */
+public class CommentsBatchSpout implements IBatchSpout {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger LOG = LoggerFactory.getLogger(CommentsBatchSpout.class);
+	
+	private static final long CHECKPOINT_INTERVAL_MILLIS = 30000;
+	
+	private static final int DEFAULT_REQUESTS_PER_MINUTE = 600;
+	
+	private transient List<FeedFetcher> fetchers;
+	private transient Map<String, ProcessedHistory> histories;
+	private transient BlockingQueue<FeedFetcher.Fetch> fetches;
+	private transient PollScheduler scheduler;
+	private transient HtmlNormalizer normalizer;
+	
+	private transient SpoutCheckpoints checkpoints;
+	private transient long lastCheckpointTimestamp;
+	
+	private transient LinkedHashMap<String, Long> announcedStories;
+	
+	// Batches emitted but not yet acked.
+	private transient Map<Long, Batch> batches;
+	
+	private static class Batch {
+		List<List<Object>> comments = new ArrayList<List<Object>>();
+		// High water marks of the subreddits whose fetches are in this batch.
+		Map<String, Long> highWaterMarks = new HashMap<String, Long>();
+	}
+	
+	public void open(Map conf, TopologyContext ctx) {
+		List<String> subreddits = (List<String>) conf.get(RedditSentimentTopology.SUBREDDITS);
+		int taskCount = ctx.getComponentTasks(ctx.getThisComponentId()).size();
+		List<String> mySubreddits = SubredditCommentsSpout.taskShare(subreddits, ctx);
+		LOG.info("Batch spout task {} of {} subreddits:{}", ctx.getThisTaskIndex(), taskCount, mySubreddits);
+		
+		Number requestsPerMinute = (Number) conf.get("feedRequestsPerMinute");
+		this.scheduler = new PollScheduler(
+				(requestsPerMinute != null ? requestsPerMinute.doubleValue() : DEFAULT_REQUESTS_PER_MINUTE) / taskCount);
+		
+		this.normalizer = new HtmlNormalizer();
+		this.batches = new HashMap<Long, Batch>();
+		this.announcedStories = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+				return size() > SubredditCommentsSpout.MAX_ANNOUNCED_STORIES;
+			}
+		};
+		
+		this.checkpoints = new SpoutCheckpoints();
+		try {
+			this.checkpoints.init(conf);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		
+		this.fetches = new ArrayBlockingQueue<FeedFetcher.Fetch>(Math.max(4, 2 * mySubreddits.size()));
+		this.fetchers = new ArrayList<FeedFetcher>();
+		this.histories = new HashMap<String, ProcessedHistory>();
+		for (int i = 0; i < mySubreddits.size(); i++) {
+			String subreddit = mySubreddits.get(i);
+			FeedFetcher fetcher;
+			try {
+				fetcher = new FeedFetcher(subreddit, new URL(SubredditCommentsSpout.feedURL(subreddit)), 
+						PollScheduler.INITIAL_INTERVAL_MILLIS, fetches, scheduler);
+			} catch (MalformedURLException e) {
+				throw new RuntimeException(e);
+			}
+			fetchers.add(fetcher);
+			
+			ProcessedHistory history = new ProcessedHistory();
+			try {
+				history.restore(checkpoints.load(subreddit));
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+			histories.put(subreddit, history);
+			
+			scheduler.add(subreddit, fetcher, i * PollScheduler.INITIAL_INTERVAL_MILLIS / mySubreddits.size());
+		}
+	}
+
+	public void emitBatch(long batchId, TridentCollector collector) {
+		Batch batch = batches.get(batchId);
+		if (batch == null) {
+			batch = nextBatch();
+			batches.put(batchId, batch);
+		}
+		for (List<Object> comment : batch.comments) {
+			collector.emit(comment);
+		}
+	}
+	
+	public void ack(long batchId) {
+		Batch batch = batches.remove(batchId);
+		if (batch == null) {
+			return;
+		}
+		for (Map.Entry<String, Long> e : batch.highWaterMarks.entrySet()) {
+			checkpoints.mark(e.getKey(), e.getValue());
+		}
+		long now = System.currentTimeMillis();
+		if (now - lastCheckpointTimestamp >= CHECKPOINT_INTERVAL_MILLIS) {
+			checkpoints.flush();
+			lastCheckpointTimestamp = now;
+		}
+	}
+	
+	public void close() {
+		for (FeedFetcher fetcher : fetchers) {
+			fetcher.stop();
+		}
+		checkpoints.flush();
+		checkpoints.close();
+	}
+
+	public Map getComponentConfiguration() {
+		return null;
+	}
+
+	public Fields getOutputFields() {
+		return new Fields("subreddit", "storyid", "storyurl", "storytitle", "comment", "timestamp");
+	}
+	
+	// New comments of all the fetches completed since the last batch.
+	private Batch nextBatch() {
+		Batch batch = new Batch();
+		long now = System.currentTimeMillis();
+		
+		FeedFetcher.Fetch fetch;
+		while ((fetch = fetches.poll()) != null) {
+			String subreddit = fetch.name;
+			ProcessedHistory history = histories.get(subreddit);
+			
+			int newEntries = 0;
+			for (SyndEntry s : fetch.entries) {
+				if (!history.isNew(s.getUri(), fetch.timestamp)) {
+					continue;
+				}
+				newEntries++;
+				
+				List<SyndContent> contents = s.getContents();
+				if (contents != null && contents.size() > 0) {
+					String storyURL = SubredditCommentsSpout.storyURL(s);
+					String storyId = SubredditCommentsSpout.storyId(storyURL);
+					String storyTitle = null;
+					
+					Long lastAnnounced = announcedStories.get(storyId);
+					if (lastAnnounced == null || now - lastAnnounced >= SubredditCommentsSpout.REANNOUNCE_INTERVAL_MILLIS) {
+						announcedStories.put(storyId, now);
+						storyTitle = SubredditCommentsSpout.storyTitle(s);
+					} else {
+						storyURL = null;
+					}
+					
+					String comment = normalizer.normalize(contents.get(0).getValue());
+					batch.comments.add(new Values(subreddit, storyId, storyURL, storyTitle, comment, fetch.timestamp));
+				}
+			}
+			batch.highWaterMarks.put(subreddit, history.highWaterMark());
+			
+			scheduler.fetched(subreddit, newEntries, fetch.entries.size());
+		}
+		return batch;
+	}
+}
@@ -0,0 +1,272 @@
+package storm.redditsentiment;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rometools.rome.feed.synd.SyndEntry;
+import com.rometools.rome.feed.synd.SyndFeed;
+import com.rometools.rome.io.SyndFeedInput;
+import com.rometools.rome.io.XmlReader;
+
+/**
+ * Polls a feed URL in the background, every so often or when a PollScheduler says, and hands the parsed entries of each fetch to the
+ * consumer through a small bounded queue, so that slow or unresponsive feed servers never block
+ * the consumer (a spout's executor thread).
+ * 
+ * All fetchers of a worker poll in one shared pool of FETCH_THREADS threads, however many feeds there are.
+ * Several fetchers can also share a queue, for a consumer of many feeds.
+ *
+ * Requests are conditional on the ETag and Last-Modified of the previous response, so an unchanged
+ * feed costs just a 304 response, and no fetch is queued for it. Connections are kept alive and reused
+ * between requests by HttpURLConnection, since every response is read fully and closed.
+ *
+ * If the consumer falls behind and the queue is full, polls are skipped until there's room again.
+ */
+public class FeedFetcher {
+
+	private static final Logger LOG = LoggerFactory.getLogger(FeedFetcher.class);
+
+	public static final int CONNECT_TIMEOUT_MILLIS = 10000;
+	public static final int READ_TIMEOUT_MILLIS = 20000;
+
+	private static final int QUEUE_CAPACITY = 4;
+	
+	// Threads of the shared pool. Fetching is mostly waiting on the network, so a few threads are
+	// enough for hundreds of feeds polled every few secs.
+	private static final int FETCH_THREADS = 8;
+	
+	private static ScheduledExecutorService sharedExecutor;
+
+	private static final String USER_AGENT = "java:storm.redditsentiment:v0.0.1";
+
+	private final String name;
+	private final URL feedURL;
+	private final long pollIntervalMillis;
+
+	private final BlockingQueue<Fetch> fetches;
+
+	private final PollScheduler scheduler;
+
+	private ScheduledFuture<?> schedule;
+	private boolean stopped;
+
+	// Validators of the last successful response. Polls of a feed never overlap, so these are
+	// accessed by only one pool thread at a time.
+	private String etag;
+	private String lastModified;
+
+	/**
+	 * Entries of one fetch of the feed.
+	 */
+	public static class Fetch {
+		// Name of the fetcher.
+		public final String name;
+		public final List<SyndEntry> entries;
+		public final long timestamp;
+		// How long the request took.
+		public final long latencyMillis;
+
+		Fetch(String name, List<SyndEntry> entries, long timestamp, long latencyMillis) {
+			this.name = name;
+			this.entries = entries;
+			this.timestamp = timestamp;
+			this.latencyMillis = latencyMillis;
+		}
+	}
+
+	public FeedFetcher(String name, URL feedURL, long pollIntervalMillis) {
+		this(name, feedURL, pollIntervalMillis, new ArrayBlockingQueue<Fetch>(QUEUE_CAPACITY), null);
+	}
+
+	/**
+	 * A fetcher that hands its fetches to a queue shared with other fetchers. If there's a scheduler,
+	 * it decides when to poll next, instead of polling every pollIntervalMillis. The consumer must then
+	 * tell the scheduler about every fetch it takes.
+	 */
+	public FeedFetcher(String name, URL feedURL, long pollIntervalMillis, BlockingQueue<Fetch> fetches,
+			PollScheduler scheduler) {
+		this.name = name;
+		this.feedURL = feedURL;
+		this.pollIntervalMillis = pollIntervalMillis;
+		this.fetches = fetches;
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Starts polling the feed in the shared pool, the first time after the given delay.
+	 */
+	public void start(long initialDelayMillis) {
+		pollAfter(initialDelayMillis);
+	}
+
+	public void start() {
+		start(0);
+	}
+
+	/**
+	 * Schedules the next poll.
+	 */
+	public synchronized void pollAfter(long delayMillis) {
+		if (stopped) {
+			return;
+		}
+		schedule = sharedExecutor().schedule(new Runnable() {
+			public void run() {
+				pollFeed();
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void stop() {
+		stopped = true;
+		if (schedule != null) {
+			schedule.cancel(true);
+		}
+	}
+	
+	private static synchronized ScheduledExecutorService sharedExecutor() {
+		if (sharedExecutor == null) {
+			sharedExecutor = Executors.newScheduledThreadPool(FETCH_THREADS, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+				
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "feed-fetcher-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return sharedExecutor;
+	}
+
+	/**
+	 * The oldest fetch not yet taken, or null if there's none. Never blocks.
+	 */
+	public Fetch poll() {
+		return fetches.poll();
+	}
+
+	/**
+	 * Number of fetches waiting to be taken.
+	 */
+	public int queued() {
+		return fetches.size();
+	}
+
+	// Fetches the feed once and queues its entries. Runs in a pool thread.
+	private void pollFeed() {
+		Fetch fetch = null;
+		// Whether this poll told nothing about the feed: skipped, dropped or failed.
+		boolean missed = false;
+		if (fetches.remainingCapacity() == 0) {
+			LOG.warn("{} fetches not yet taken. Skipping this poll of {}", fetches.size(), name);
+			missed = true;
+
+		} else {
+			try {
+				fetch = fetch();
+				if (fetch != null && !fetches.offer(fetch)) {
+					// Other fetchers filled the queue meanwhile. Forget the validators, so the
+					// next poll gets these entries again instead of a 304.
+					LOG.warn("Queue full. Dropped fetch of {}", name);
+					etag = null;
+					lastModified = null;
+					fetch = null;
+					missed = true;
+				}
+			} catch (Exception e) {
+				// Next poll will try again.
+				LOG.warn("Fetching " + feedURL + " failed", e);
+				missed = true;
+			}
+		}
+
+		if (scheduler == null) {
+			pollAfter(pollIntervalMillis);
+
+		} else if (missed) {
+			// Not a sign of a quiet feed. Skipped polls are more likely of the hot feeds that fill the queue.
+			scheduler.retry(name);
+
+		} else if (fetch == null) {
+			scheduler.nothingNew(name);
+		}
+		// else the scheduler schedules the next poll once the consumer tells it how much was new.
+	}
+
+	/**
+	 * Fetches and parses the feed, or returns null if it has not changed since the last fetch.
+	 */
+	Fetch fetch() throws Exception {
+		long start = System.currentTimeMillis();
+		HttpURLConnection conn = (HttpURLConnection) feedURL.openConnection();
+		conn.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+		conn.setReadTimeout(READ_TIMEOUT_MILLIS);
+		conn.setRequestProperty("User-Agent", USER_AGENT);
+		if (etag != null) {
+			conn.setRequestProperty("If-None-Match", etag);
+		}
+		if (lastModified != null) {
+			conn.setRequestProperty("If-Modified-Since", lastModified);
+		}
+
+		int status = conn.getResponseCode();
+		if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+			drain(conn.getInputStream());
+			LOG.debug("{} not modified since last fetch", name);
+			return null;
+
+		} else if (status != HttpURLConnection.HTTP_OK) {
+			// Read the error response too, or the connection is not reused.
+			drain(conn.getErrorStream());
+			throw new IOException("HTTP " + status + " fetching " + feedURL);
+		}
+		byte[] body = readFully(conn.getInputStream());
+
+		SyndFeed feed = new SyndFeedInput().build(new XmlReader(new ByteArrayInputStream(body), conn.getContentType()));
+
+		// Remember validators only once the feed is known to be good.
+		etag = conn.getHeaderField("ETag");
+		lastModified = conn.getHeaderField("Last-Modified");
+
+		long timestamp = System.currentTimeMillis();
+		LOG.debug("Fetched {} comments for {} in {} ms", feed.getEntries().size(), name, timestamp - start);
+		return new Fetch(name, feed.getEntries(), timestamp, timestamp - start);
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+			byte[] buf = new byte[8192];
+			int n;
+			while ((n = in.read(buf)) != -1) {
+				out.write(buf, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void drain(InputStream in) throws IOException {
+		if (in != null) {
+			readFully(in);
+		}
+	}
+}
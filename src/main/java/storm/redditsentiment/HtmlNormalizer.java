@@ -0,0 +1,277 @@
+package storm.redditsentiment;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Turns the HTML of a comment's feed entry into the plain text that gets scored, in a single pass
+ * over its chars: tags, comments, and script and style contents are dropped, entities are decoded, 
+ * ASCII punctuation is stripped, whitespace runs become single spaces, and letters are lowercased.
+ *
+ * That's the text of Jsoup.clean(html, Whitelist.none()).replaceAll("\\p{Punct}", ""), which this
+ * replaces, without building a DOM or running a regex. The differences are:
+ * - Jsoup re-escapes &, < and > in its output, which the punctuation stripping then turned into the 
+ *   words "amp", "lt" and "gt". Here they're just punctuation.
+ * - Only the Latin-1 and the most common typographic named entities are decoded. Others are left
+ *   as they are, and so end up as their names.
+ *
+ * Not thread safe. Its buffer is reused from one comment to the next.
+ */
+class HtmlNormalizer {
+
+	// Latin-1 entities, from U+00A0 on.
+	private static final String[] LATIN1_ENTITIES = {
+		"nbsp", "iexcl", "cent", "pound", "curren", "yen", "brvbar", "sect", "uml", "copy", "ordf", "laquo", 
+		"not", "shy", "reg", "macr", "deg", "plusmn", "sup2", "sup3", "acute", "micro", "para", "middot", 
+		"cedil", "sup1", "ordm", "raquo", "frac14", "frac12", "frac34", "iquest", "Agrave", "Aacute", "Acirc", 
+		"Atilde", "Auml", "Aring", "AElig", "Ccedil", "Egrave", "Eacute", "Ecirc", "Euml", "Igrave", "Iacute", 
+		"Icirc", "Iuml", "ETH", "Ntilde", "Ograve", "Oacute", "Ocirc", "Otilde", "Ouml", "times", "Oslash", 
+		"Ugrave", "Uacute", "Ucirc", "Uuml", "Yacute", "THORN", "szlig", "agrave", "aacute", "acirc", "atilde", 
+		"auml", "aring", "aelig", "ccedil", "egrave", "eacute", "ecirc", "euml", "igrave", "iacute", "icirc", 
+		"iuml", "eth", "ntilde", "ograve", "oacute", "ocirc", "otilde", "ouml", "divide", "oslash", "ugrave", 
+		"uacute", "ucirc", "uuml", "yacute", "thorn", "yuml"
+	};
+	
+	private static final Map<String, Character> ENTITIES = new HashMap<String, Character>();
+	
+	// Entities that are decoded even without their ';', as browsers and Jsoup do.
+	private static final Map<String, Character> BASE_ENTITIES = new HashMap<String, Character>();
+	
+	static {
+		for (int i = 0; i < LATIN1_ENTITIES.length; i++) {
+			BASE_ENTITIES.put(LATIN1_ENTITIES[i], (char) (0xA0 + i));
+		}
+		BASE_ENTITIES.put("amp", '&');
+		BASE_ENTITIES.put("lt", '<');
+		BASE_ENTITIES.put("gt", '>');
+		BASE_ENTITIES.put("quot", '"');
+		// Also valid in upper case.
+		BASE_ENTITIES.put("AMP", '&');
+		BASE_ENTITIES.put("LT", '<');
+		BASE_ENTITIES.put("GT", '>');
+		BASE_ENTITIES.put("QUOT", '"');
+		BASE_ENTITIES.put("COPY", '\u00a9');
+		BASE_ENTITIES.put("REG", '\u00ae');
+		ENTITIES.putAll(BASE_ENTITIES);
+		
+		ENTITIES.put("apos", '\'');
+		ENTITIES.put("ndash", '\u2013');
+		ENTITIES.put("mdash", '\u2014');
+		ENTITIES.put("lsquo", '\u2018');
+		ENTITIES.put("rsquo", '\u2019');
+		ENTITIES.put("sbquo", '\u201a');
+		ENTITIES.put("ldquo", '\u201c');
+		ENTITIES.put("rdquo", '\u201d');
+		ENTITIES.put("bdquo", '\u201e');
+		ENTITIES.put("bull", '\u2022');
+		ENTITIES.put("hellip", '\u2026');
+		ENTITIES.put("euro", '\u20ac');
+		ENTITIES.put("trade", '\u2122');
+		ENTITIES.put("larr", '\u2190');
+		ENTITIES.put("rarr", '\u2192');
+		ENTITIES.put("hearts", '\u2665');
+	}
+	
+	// Longest entity name looked up.
+	private static final int MAX_ENTITY_NAME = 8;
+	
+	private char[] out = new char[256];
+	private int length;
+	// Whether whitespace was seen since the last char written.
+	private boolean space;
+	
+	private String html;
+	private int pos;
+
+	public String normalize(String html) {
+		this.html = html;
+		this.pos = 0;
+		this.length = 0;
+		this.space = false;
+		
+		int end = html.length();
+		while (pos < end) {
+			char c = html.charAt(pos);
+			if (c == '<') {
+				tag();
+			} else if (c == '&') {
+				entity();
+			} else {
+				pos++;
+				text(c);
+			}
+		}
+		
+		this.html = null;
+		return new String(out, 0, length);
+	}
+
+	// Writes a char of text.
+	private void text(char c) {
+		if (c < 128) {
+			if (c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f') {
+				space = true;
+				return;
+			}
+			if (isPunct(c)) {
+				return;
+			}
+		} else if (c == '\u00a0' || Character.isWhitespace(c)) {
+			space = true;
+			return;
+		}
+		
+		if (length + 2 > out.length) {
+			char[] grown = new char[out.length * 2];
+			System.arraycopy(out, 0, grown, 0, length);
+			out = grown;
+		}
+		if (space) {
+			if (length > 0) {
+				out[length++] = ' ';
+			}
+			space = false;
+		}
+		out[length++] = Character.toLowerCase(c);
+	}
+	
+	// Same as regex \p{Punct}.
+	private static boolean isPunct(char c) {
+		return (c >= '!' && c <= '/') || (c >= ':' && c <= '@') || (c >= '[' && c <= '`') || (c >= '{' && c <= '~');
+	}
+	
+	// Skips a tag, comment or the like at pos, which is a '<'. A '<' that starts none of them is text.
+	private void tag() {
+		int end = html.length();
+		char next = (pos + 1 < end) ? html.charAt(pos + 1) : 0;
+		
+		if (isLetter(next)) {
+			int nameStart = pos + 1;
+			int nameEnd = nameStart;
+			while (nameEnd < end && isLetterOrDigit(html.charAt(nameEnd))) {
+				nameEnd++;
+			}
+			pos = skipTag(nameEnd);
+			
+			// Script and style contents are not text either.
+			String name = html.substring(nameStart, nameEnd);
+			if (name.equalsIgnoreCase("script") || name.equalsIgnoreCase("style")) {
+				int close = indexOfIgnoreCase("</" + name, pos);
+				pos = (close < 0) ? end : skipTag(close + 2 + name.length());
+			}
+			
+		} else if (next == '/') {
+			// An end tag, or anything else up to the next '>'.
+			pos = skipTag(pos + 2);
+			
+		} else if (next == '!' && html.startsWith("<!--", pos)) {
+			int close = html.indexOf("-->", pos + 4);
+			pos = (close < 0) ? end : close + 3;
+			
+		} else if (next == '!' || next == '?') {
+			int close = html.indexOf('>', pos);
+			pos = (close < 0) ? end : close + 1;
+			
+		} else {
+			pos++;
+			text('<');
+		}
+	}
+	
+	// Skips the attributes of a tag from i, up to and including its '>'. Quoted values may contain '>'.
+	private int skipTag(int i) {
+		int end = html.length();
+		while (i < end) {
+			char c = html.charAt(i++);
+			if (c == '>') {
+				return i;
+			}
+			if (c == '=') {
+				while (i < end && html.charAt(i) <= ' ') {
+					i++;
+				}
+				if (i < end && (html.charAt(i) == '"' || html.charAt(i) == '\'')) {
+					int close = html.indexOf(html.charAt(i), i + 1);
+					if (close < 0) {
+						return end;
+					}
+					i = close + 1;
+				}
+			}
+		}
+		return end;
+	}
+	
+	// Decodes an entity at pos, which is a '&'. If it's not one, the '&' is text.
+	private void entity() {
+		int end = html.length();
+		int i = pos + 1;
+		
+		if (i < end && html.charAt(i) == '#') {
+			i++;
+			int radix = 10;
+			if (i < end && (html.charAt(i) == 'x' || html.charAt(i) == 'X')) {
+				radix = 16;
+				i++;
+			}
+			int digitsStart = i;
+			int codePoint = 0;
+			while (i < end && Character.digit(html.charAt(i), radix) >= 0) {
+				codePoint = Math.min(codePoint * radix + Character.digit(html.charAt(i), radix), 0x110000);
+				i++;
+			}
+			if (i > digitsStart) {
+				if (i < end && html.charAt(i) == ';') {
+					i++;
+				}
+				pos = i;
+				if (codePoint == 0 || codePoint > Character.MAX_CODE_POINT 
+						|| (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+					codePoint = 0xFFFD;
+				}
+				if (Character.isBmpCodePoint(codePoint)) {
+					text((char) codePoint);
+				} else {
+					text(Character.highSurrogate(codePoint));
+					text(Character.lowSurrogate(codePoint));
+				}
+				return;
+			}
+			
+		} else {
+			while (i < end && i - pos <= MAX_ENTITY_NAME && isLetterOrDigit(html.charAt(i))) {
+				i++;
+			}
+			if (i > pos + 1) {
+				String name = html.substring(pos + 1, i);
+				boolean terminated = i < end && html.charAt(i) == ';';
+				Character decoded = terminated ? ENTITIES.get(name) : BASE_ENTITIES.get(name);
+				if (decoded != null) {
+					pos = terminated ? i + 1 : i;
+					text(decoded);
+					return;
+				}
+			}
+		}
+		
+		pos++;
+		text('&');
+	}
+	
+	private int indexOfIgnoreCase(String s, int from) {
+		for (int i = from; i + s.length() <= html.length(); i++) {
+			if (html.regionMatches(true, i, s, 0, s.length())) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	private static boolean isLetter(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+	
+	private static boolean isLetterOrDigit(char c) {
+		return isLetter(c) || (c >= '0' && c <= '9');
+	}
+}
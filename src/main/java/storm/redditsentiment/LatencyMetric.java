@@ -0,0 +1,61 @@
+package storm.redditsentiment;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import backtype.storm.metric.api.IMetric;
+
+/**
+ * Count, mean, max and percentiles of latencies recorded in a metrics interval, in whatever unit 
+ * they're recorded in.
+ *
+ * Percentiles come from a histogram of power of 2 buckets, so each is reported as the upper bound of 
+ * its bucket: within a factor of 2 of the real value, and never more than max.
+ *
+ * Unlike Storm's own metrics, this can be recorded from a thread other than the executor's,
+ * such as a Zookeeper callback thread.
+ */
+public class LatencyMetric implements IMetric {
+
+	private long count;
+	private long total;
+	private long max;
+	
+	// Bucket i counts latencies below 2^i, and at least 2^(i-1).
+	private final long[] buckets = new long[64];
+
+	public synchronized void record(long latency) {
+		count++;
+		total += latency;
+		max = Math.max(max, latency);
+		buckets[64 - Long.numberOfLeadingZeros(Math.max(0, latency))]++;
+	}
+
+	public synchronized Object getValueAndReset() {
+		Map<String, Object> value = new HashMap<String, Object>();
+		value.put("count", count);
+		value.put("mean", count > 0 ? (double) total / count : 0.0);
+		value.put("max", max);
+		value.put("p50", percentile(0.5));
+		value.put("p99", percentile(0.99));
+
+		count = 0;
+		total = 0;
+		max = 0;
+		Arrays.fill(buckets, 0);
+		return value;
+	}
+	
+	private long percentile(double p) {
+		long rank = (long) Math.ceil(p * count);
+		long seen = 0;
+		for (int i = 0; i < buckets.length; i++) {
+			seen += buckets[i];
+			if (seen >= rank && seen > 0) {
+				return Math.min(max, (1L << i) - 1);
+			}
+		}
+		return 0;
+	}
+}
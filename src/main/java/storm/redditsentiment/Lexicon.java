@@ -0,0 +1,205 @@
+package storm.redditsentiment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * An immutable, versioned sentiment lexicon and its compact binary file format.
+ *
+ * The AFINN text file is compiled into "afinn.lex" at build time (see the exec plugin in pom.xml),
+ * and workers load that instead of receiving the lexicon as a Map through topology configuration.
+ * Newer versions can be published to the LEXICON_ZNODE at runtime, see SharedLexicon.
+ *
+ * Binary format, all numbers big endian:
+ *
+ *		int		MAGIC
+ *		long	version
+ *		int		entry count N
+ *		int[N+1]	offsets of each entry's text in the text bytes, plus the end offset
+ *		byte[N]	scores
+ *		byte[]	UTF-8 text bytes of all entries, sorted and concatenated
+ *
+ * Cmdline for compiling an AFINN formatted file:
+ *		$ java -cp redditsentiment-local-all.jar storm.redditsentiment.Lexicon compile <AFINN-file> <lex-file>
+ *
+ * Cmdline for publishing an AFINN formatted file as a new lexicon version to a running topology:
+ *		$ java -cp redditsentiment-local-all.jar storm.redditsentiment.Lexicon publish <zk-host:port> <AFINN-file>
+ */
+public class Lexicon {
+
+	public static final String RESOURCE_NAME = "afinn.lex";
+
+	public static final String LEXICON_ZNODE = ZkPublisher.ROOT_ZNODE + "/lexicon";
+
+	// "LEX1"
+	private static final int MAGIC = 0x4C455831;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final long version;
+	private final LexiconMatcher matcher;
+
+	private Lexicon(long version, LexiconMatcher matcher) {
+		this.version = version;
+		this.matcher = matcher;
+	}
+
+	/**
+	 * Version of the lexicon. The one bundled in the topology JAR is version 0,
+	 * published ones are stamped with their publishing time.
+	 */
+	public long version() {
+		return version;
+	}
+
+	public int size() {
+		return matcher.size();
+	}
+
+	/**
+	 * Sentiment score of a comment. See LexiconMatcher for the matching rules.
+	 */
+	public int score(CharSequence comment) {
+		return matcher.score(comment);
+	}
+
+	/**
+	 * Encodes a lexicon into the binary format.
+	 */
+	public static byte[] encode(Map<String, ? extends Number> lexicon, long version) throws IOException {
+		String[] entries = lexicon.keySet().toArray(new String[lexicon.size()]);
+		Arrays.sort(entries);
+
+		ByteArrayOutputStream text = new ByteArrayOutputStream();
+		int[] offsets = new int[entries.length + 1];
+		byte[] scores = new byte[entries.length];
+		for (int i = 0; i < entries.length; i++) {
+			int score = lexicon.get(entries[i]).intValue();
+			if (score < Byte.MIN_VALUE || score > Byte.MAX_VALUE) {
+				throw new IllegalArgumentException("Score of '" + entries[i] + "' out of range: " + score);
+			}
+			scores[i] = (byte) score;
+			offsets[i] = text.size();
+			text.write(entries[i].getBytes(UTF8));
+		}
+		offsets[entries.length] = text.size();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(text.size() + 5 * entries.length + 32);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeLong(version);
+		out.writeInt(entries.length);
+		for (int offset : offsets) {
+			out.writeInt(offset);
+		}
+		out.write(scores);
+		text.writeTo(out);
+		out.flush();
+
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes a lexicon from the binary format, starting at the buffer's position.
+	 */
+	public static Lexicon decode(ByteBuffer buf) {
+		if (buf.getInt() != MAGIC) {
+			throw new IllegalArgumentException("Not a lexicon");
+		}
+		long version = buf.getLong();
+		int count = buf.getInt();
+
+		int[] offsets = new int[count + 1];
+		for (int i = 0; i <= count; i++) {
+			offsets[i] = buf.getInt();
+		}
+		int[] scores = new int[count];
+		for (int i = 0; i < count; i++) {
+			scores[i] = buf.get();
+		}
+		byte[] text = new byte[offsets[count]];
+		buf.get(text);
+
+		String[] entries = new String[count];
+		for (int i = 0; i < count; i++) {
+			entries[i] = new String(text, offsets[i], offsets[i + 1] - offsets[i], UTF8);
+		}
+
+		return new Lexicon(version, LexiconMatcher.compile(entries, scores));
+	}
+
+	/**
+	 * Loads a lexicon file by memory mapping it.
+	 */
+	public static Lexicon load(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Loads the lexicon bundled in the topology JAR.
+	 */
+	public static Lexicon loadBundled() throws IOException {
+		InputStream in = Lexicon.class.getClassLoader().getResourceAsStream(RESOURCE_NAME);
+		if (in == null) {
+			throw new IOException(RESOURCE_NAME + " not found in classpath");
+		}
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+			byte[] chunk = new byte[8192];
+			int n;
+			while ((n = in.read(chunk)) != -1) {
+				bytes.write(chunk, 0, n);
+			}
+			return decode(ByteBuffer.wrap(bytes.toByteArray()));
+		} finally {
+			in.close();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args == null || args.length < 3) {
+			System.out.println("Usage: Lexicon compile <AFINN-file> <lex-file>");
+			System.out.println("       Lexicon publish <zk-host:port> <AFINN-file>");
+			System.exit(-1);
+		}
+
+		if (args[0].equals("compile")) {
+			byte[] encoded = encode(SentimentData.getSentimentData(new FileInputStream(args[1])), 0);
+			OutputStream out = new FileOutputStream(args[2]);
+			try {
+				out.write(encoded);
+			} finally {
+				out.close();
+			}
+			System.out.println("Compiled " + args[1] + " into " + args[2] + " (" + encoded.length + " bytes)");
+
+		} else if (args[0].equals("publish")) {
+			long version = System.currentTimeMillis();
+			byte[] encoded = encode(SentimentData.getSentimentData(new FileInputStream(args[2])), version);
+			SharedLexicon.publish(args[1], encoded);
+			System.out.println("Published lexicon version " + version + " (" + encoded.length + " bytes)");
+
+		} else {
+			System.out.println("Unknown command: " + args[0]);
+			System.exit(-1);
+		}
+	}
+}
@@ -0,0 +1,249 @@
+package storm.redditsentiment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * AFINN lexicon compiled into a character trie, for scoring a comment in a single left to right scan
+ * without splitting it into token strings or boxing any values.
+ *
+ * Matching rules:
+ *
+ * - Case insensitive. Entries are lowercased at compile time, and comment characters as they are scanned.
+ *
+ * - Whole words only. A match must start at the beginning of a word and end at the end of one,
+ *   so "hate" does not match inside "whatever".
+ *
+ * - Multi-word entries such as "does not work" or "cool stuff" are matched across any run of whitespace.
+ *   At each word, the longest entry is taken and scanning resumes after it, so "does not work" scores -3
+ *   rather than adding up whatever its individual words score.
+ *
+ * Whitespace means the same characters as regex "\s", which is how comments were split before.
+ *
+ * Instances are immutable and safe to share between threads.
+ */
+public class LexiconMatcher {
+
+	// Value of nodes where no lexicon entry ends.
+	private static final int NO_MATCH = Integer.MIN_VALUE;
+
+	private static final int ROOT = 0;
+
+	// The trie is flattened into arrays with nodes numbered in breadth first order.
+	// Edges of node n are at indexes [edgeStart[n], edgeStart[n+1]) of edgeChars and edgeTargets,
+	// sorted by character so that they can be binary searched.
+	private final int[] edgeStart;
+	private final char[] edgeChars;
+	private final int[] edgeTargets;
+
+	// Score of the entry ending at each node, or NO_MATCH.
+	private final int[] values;
+
+	private final int entryCount;
+
+	private LexiconMatcher(int[] edgeStart, char[] edgeChars, int[] edgeTargets, int[] values, int entryCount) {
+		this.edgeStart = edgeStart;
+		this.edgeChars = edgeChars;
+		this.edgeTargets = edgeTargets;
+		this.values = values;
+		this.entryCount = entryCount;
+	}
+
+	/**
+	 * Compiles a map of words and phrases to their scores, such as the one returned by
+	 * SentimentData.getSentimentData(). Values may be of any Number type since Storm hands
+	 * maps to components with Long values.
+	 */
+	public static LexiconMatcher compile(Map<String, ? extends Number> lexicon) {
+		String[] entries = new String[lexicon.size()];
+		int[] scores = new int[lexicon.size()];
+		int i = 0;
+		for (Map.Entry<String, ? extends Number> e : lexicon.entrySet()) {
+			entries[i] = e.getKey();
+			scores[i] = e.getValue().intValue();
+			i++;
+		}
+		return compile(entries, scores);
+	}
+
+	/**
+	 * Compiles words and phrases with their scores given at the same indexes of both arrays.
+	 */
+	public static LexiconMatcher compile(String[] entries, int[] scores) {
+
+		BuildNode root = new BuildNode();
+		int entryCount = 0;
+		for (int e = 0; e < entries.length; e++) {
+			String key = normalize(entries[e]);
+			if (key.isEmpty()) {
+				continue;
+			}
+
+			BuildNode node = root;
+			for (int i = 0; i < key.length(); i++) {
+				char c = key.charAt(i);
+				BuildNode child = node.children.get(c);
+				if (child == null) {
+					child = new BuildNode();
+					node.children.put(c, child);
+				}
+				node = child;
+			}
+			if (node.value == NO_MATCH) {
+				entryCount++;
+			}
+			node.value = scores[e];
+		}
+
+		// Number the nodes breadth first, so that the children of every node get consecutive numbers
+		// and its edges can be stored as one contiguous range.
+		List<BuildNode> nodes = new ArrayList<BuildNode>();
+		nodes.add(root);
+		for (int i = 0; i < nodes.size(); i++) {
+			nodes.addAll(nodes.get(i).children.values());
+		}
+
+		int[] edgeStart = new int[nodes.size() + 1];
+		char[] edgeChars = new char[nodes.size() - 1];
+		int[] edgeTargets = new int[nodes.size() - 1];
+		int[] values = new int[nodes.size()];
+
+		int edge = 0;
+		int nextChild = 1;
+		for (int n = 0; n < nodes.size(); n++) {
+			BuildNode node = nodes.get(n);
+			values[n] = node.value;
+			edgeStart[n] = edge;
+			for (Map.Entry<Character, BuildNode> child : node.children.entrySet()) {
+				edgeChars[edge] = child.getKey();
+				edgeTargets[edge] = nextChild++;
+				edge++;
+			}
+		}
+		edgeStart[nodes.size()] = edge;
+
+		return new LexiconMatcher(edgeStart, edgeChars, edgeTargets, values, entryCount);
+	}
+
+	/**
+	 * Sums up the scores of all lexicon words and phrases found in the text.
+	 */
+	public int score(CharSequence text) {
+		int score = 0;
+		int len = text.length();
+		int i = 0;
+
+		while (i < len) {
+			// Skip to the start of the next word.
+			while (i < len && isWhitespace(text.charAt(i))) {
+				i++;
+			}
+			if (i == len) {
+				break;
+			}
+
+			// Walk the trie from this word for as long as the text matches some entry, remembering
+			// the longest entry that ends at a word boundary.
+			int node = ROOT;
+			int j = i;
+			int matchEnd = -1;
+			int matchValue = 0;
+			while (j < len) {
+				char c = text.charAt(j);
+				if (isWhitespace(c)) {
+					if (values[node] != NO_MATCH) {
+						matchEnd = j;
+						matchValue = values[node];
+					}
+
+					// A run of whitespace between words matches the single space in a phrase entry.
+					while (j < len && isWhitespace(text.charAt(j))) {
+						j++;
+					}
+					node = (j < len) ? child(node, ' ') : -1;
+
+				} else {
+					node = child(node, Character.toLowerCase(c));
+					j++;
+				}
+
+				if (node < 0) {
+					break;
+				}
+			}
+			if (node >= 0 && values[node] != NO_MATCH) {
+				// Text ended right at the end of an entry.
+				matchEnd = len;
+				matchValue = values[node];
+			}
+
+			if (matchEnd >= 0) {
+				score += matchValue;
+				i = matchEnd;
+			} else {
+				// No entry starts at this word. Skip it.
+				while (i < len && !isWhitespace(text.charAt(i))) {
+					i++;
+				}
+			}
+		}
+
+		return score;
+	}
+
+	/**
+	 * Number of words and phrases in the lexicon.
+	 */
+	public int size() {
+		return entryCount;
+	}
+
+	private int child(int node, char c) {
+		int lo = edgeStart[node];
+		int hi = edgeStart[node + 1] - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			char midChar = edgeChars[mid];
+			if (midChar < c) {
+				lo = mid + 1;
+			} else if (midChar > c) {
+				hi = mid - 1;
+			} else {
+				return edgeTargets[mid];
+			}
+		}
+		return -1;
+	}
+
+	// Same characters as regex "\s".
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	// Lowercases an entry the same way score() lowercases text, and reduces the whitespace
+	// between the words of a phrase to single spaces.
+	private static String normalize(String entry) {
+		StringBuilder s = new StringBuilder(entry.length());
+		boolean pendingSpace = false;
+		for (int i = 0; i < entry.length(); i++) {
+			char c = entry.charAt(i);
+			if (isWhitespace(c)) {
+				pendingSpace = s.length() > 0;
+				continue;
+			}
+			if (pendingSpace) {
+				s.append(' ');
+				pendingSpace = false;
+			}
+			s.append(Character.toLowerCase(c));
+		}
+		return s.toString();
+	}
+
+	private static class BuildNode {
+		int value = NO_MATCH;
+		TreeMap<Character, BuildNode> children = new TreeMap<Character, BuildNode>();
+	}
+}
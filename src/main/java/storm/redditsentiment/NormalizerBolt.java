@@ -0,0 +1,39 @@
+package storm.redditsentiment;
+
+import java.util.Map;
+
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.topology.base.BaseRichBolt;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.tuple.Values;
+
+/**
+ * Turns comments emitted as HTML by the spout into plain text for the calculators, 
+ * when the topology runs with normalizer bolts. Then the spout only fetches and dedupes, and the 
+ * normalizing is spread over as many executors as needed.
+ */
+public class NormalizerBolt extends BaseRichBolt {
+
+	private OutputCollector collector;
+	
+	private HtmlNormalizer normalizer;
+	
+	public void execute(Tuple tuple) {
+		CommentEvent event = (CommentEvent) tuple.getValueByField("event");
+		String comment = normalizer.normalize(event.comment);
+		collector.emit(tuple, new Values(CommentEvent.unscored(event.subreddit, event.storyId, comment, event.timestamp)));
+		collector.ack(tuple);
+	}
+
+	public void prepare(Map conf, TopologyContext ctx, OutputCollector collector) {
+		this.collector = collector;
+		this.normalizer = new HtmlNormalizer();
+	}
+
+	public void declareOutputFields(OutputFieldsDeclarer declarer) {
+		declarer.declare(new Fields("event"));
+	}
+}
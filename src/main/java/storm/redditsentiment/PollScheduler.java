@@ -0,0 +1,129 @@
+package storm.redditsentiment;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides when each feed of a spout task is polled next, from how many of the entries of its last
+ * fetch were new.
+ *
+ * A feed page holds only the latest 25 comments, so when all of a fetch's entries are new, comments
+ * were probably missed between the polls, and the interval is halved. When none are new, the interval
+ * grows by half. Otherwise it's set so that about half the page would be new next time.
+ * Intervals stay between MIN_INTERVAL_MILLIS and MAX_INTERVAL_MILLIS.
+ *
+ * All the feeds together are polled at most requestsPerMinute times a minute. When the intervals
+ * ask for more, all of them are stretched in proportion, so hot feeds still get polled most often.
+ */
+public class PollScheduler {
+
+	private static final Logger LOG = LoggerFactory.getLogger(PollScheduler.class);
+
+	public static final long MIN_INTERVAL_MILLIS = 5000;
+	public static final long MAX_INTERVAL_MILLIS = 300000;
+	public static final long INITIAL_INTERVAL_MILLIS = 30000;
+
+	// Fraction of a fetch's entries that should be new.
+	private static final double TARGET_NEW_FRACTION = 0.5;
+
+	private static final double BACKOFF = 1.5;
+
+	private final double requestsPerMinute;
+
+	private final Map<String, Feed> feeds = new HashMap<String, Feed>();
+
+	// Sum of all feeds' (unstretched) polls per minute.
+	private double totalPerMinute;
+
+	private static class Feed {
+		FeedFetcher fetcher;
+		long intervalMillis = INITIAL_INTERVAL_MILLIS;
+		long lastFetchTimestamp;
+	}
+
+	public PollScheduler(double requestsPerMinute) {
+		this.requestsPerMinute = requestsPerMinute;
+	}
+
+	/**
+	 * Starts polling a feed, the first time after the given delay.
+	 */
+	public synchronized void add(String name, FeedFetcher fetcher, long initialDelayMillis) {
+		Feed feed = new Feed();
+		feed.fetcher = fetcher;
+		feeds.put(name, feed);
+		totalPerMinute += perMinute(feed.intervalMillis);
+
+		fetcher.pollAfter(initialDelayMillis);
+	}
+
+	/**
+	 * Schedules the next poll of a feed whose last fetch had so many new entries.
+	 */
+	public synchronized void fetched(String name, int newEntries, int entries) {
+		Feed feed = feeds.get(name);
+		long now = System.currentTimeMillis();
+		long elapsed = (feed.lastFetchTimestamp > 0) ? now - feed.lastFetchTimestamp : feed.intervalMillis;
+		feed.lastFetchTimestamp = now;
+
+		long interval;
+		if (entries == 0 || newEntries == 0) {
+			interval = (long) (feed.intervalMillis * BACKOFF);
+
+		} else if (newEntries >= entries) {
+			// Probably missed some.
+			interval = Math.min(feed.intervalMillis, elapsed) / 2;
+
+		} else {
+			double newFraction = (double) newEntries / entries;
+			interval = (long) (elapsed * TARGET_NEW_FRACTION / newFraction);
+			// Move gradually, one fetch is a noisy sample.
+			interval = Math.max(feed.intervalMillis / 2, Math.min(interval, feed.intervalMillis * 2));
+		}
+		schedule(name, feed, interval);
+	}
+
+	/**
+	 * Schedules the next poll of a feed whose last poll found it unchanged.
+	 */
+	public synchronized void nothingNew(String name) {
+		Feed feed = feeds.get(name);
+		schedule(name, feed, (long) (feed.intervalMillis * BACKOFF));
+	}
+	
+	/**
+	 * Schedules the next poll of a feed whose last poll was skipped, dropped or failed, at the same interval.
+	 */
+	public synchronized void retry(String name) {
+		Feed feed = feeds.get(name);
+		schedule(name, feed, feed.intervalMillis);
+	}
+
+	/**
+	 * Current poll interval of a feed, before stretching to the budget.
+	 */
+	public synchronized long interval(String name) {
+		return feeds.get(name).intervalMillis;
+	}
+
+	private void schedule(String name, Feed feed, long interval) {
+		interval = Math.max(MIN_INTERVAL_MILLIS, Math.min(interval, MAX_INTERVAL_MILLIS));
+
+		totalPerMinute += perMinute(interval) - perMinute(feed.intervalMillis);
+		feed.intervalMillis = interval;
+
+		long delay = interval;
+		if (totalPerMinute > requestsPerMinute) {
+			delay = (long) (interval * totalPerMinute / requestsPerMinute);
+		}
+		LOG.debug("Next poll of {} in {} ms", name, delay);
+		feed.fetcher.pollAfter(delay);
+	}
+
+	private static double perMinute(long intervalMillis) {
+		return 60000.0 / intervalMillis;
+	}
+}
@@ -0,0 +1,302 @@
+package storm.redditsentiment;
+
+import java.util.Arrays;
+
+/**
+ * Keeps track of comments which are already processed, to avoid duplication.
+ *
+ * Implementation:
+ * - Comment URIs like "t1_d6abc01" are decoded from base36 into longs, and kept in an open addressing
+ *   hash table of longs, along with when each was last seen. That's 12 bytes per slot, with the table kept
+ *   between a quarter and half full, and looking up a comment is a single probe sequence.
+ *
+ * - A comment is remembered for windowMillis after it was last seen. Since a comment keeps being seen for
+ *   as long as it's on a subreddit's feed page, this holds regardless of how often the feed is polled.
+ *
+ * - Forgotten comments are not removed right away. Their slots are reused by new comments, and dropped
+ *   when the table is rehashed.
+ *
+ * - The largest comment id seen is the high water mark. A checkpointed mark can be restored, and comments
+ *   up to it are then taken as already processed. Comment ids grow over time, so this is how a restarted
+ *   spout skips the comments still on feed pages that were processed before the restart. The spout
+ *   checkpoints a lower mark while comments below the high water mark are still pending.
+ *
+ * - For very large windows, there's an approximate mode that keeps Bloom filters instead of the table,
+ *   sized for a given number of comments per window at 2.5 bytes each. Up to that many comments,
+ *   about 1% of new comments are taken for duplicates.
+ */
+class ProcessedHistory {
+
+	public static final long DEFAULT_WINDOW_MILLIS = 3600000L;
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	// Marks a free slot. No comment id decodes to this.
+	private static final long FREE = 0;
+
+	private final long windowMillis;
+
+	private long[] ids = new long[INITIAL_CAPACITY];
+	// When each id was last seen, in secs since baseTimestamp.
+	private int[] lastSeen = new int[INITIAL_CAPACITY];
+	private long baseTimestamp = -1;
+
+	// Slots that are not FREE, including forgotten comments.
+	private int used;
+
+	private long highWaterMark = -1;
+	private long restoredHighWaterMark = -1;
+
+	// Only in approximate mode, instead of the table.
+	private BloomWindow bloom;
+
+	public ProcessedHistory() {
+		this(DEFAULT_WINDOW_MILLIS, 0);
+	}
+
+	/**
+	 * @param approximateIds if more than 0, use approximate mode, sized for that many comments per window.
+	 */
+	public ProcessedHistory(long windowMillis, int approximateIds) {
+		this.windowMillis = windowMillis;
+		if (approximateIds > 0) {
+			this.bloom = new BloomWindow(windowMillis, approximateIds);
+		}
+	}
+
+	/**
+	 * Whether the comment was not seen in the time window. Either way, it's seen now.
+	 */
+	public boolean isNew(String commentId, long now) {
+		return isNew(decode(commentId), now);
+	}
+
+	public boolean isNew(long id, long now) {
+		boolean processedBeforeRestore = id <= restoredHighWaterMark && id >= 0;
+		highWaterMark = Math.max(highWaterMark, id);
+		
+		if (bloom != null) {
+			boolean isNew = !bloom.mightContain(id, now) && !processedBeforeRestore;
+			bloom.add(id, now);
+			return isNew;
+		}
+		
+		if (baseTimestamp < 0) {
+			baseTimestamp = now;
+		}
+		int nowSecs = secs(now);
+		int oldestSecs = secs(now - windowMillis);
+
+		int mask = ids.length - 1;
+		int reusable = -1;
+		for (int i = slot(id, mask);; i = (i + 1) & mask) {
+			long slotId = ids[i];
+			if (slotId == FREE) {
+				break;
+			}
+			if (slotId == id) {
+				boolean isNew = lastSeen[i] < oldestSecs;
+				lastSeen[i] = nowSecs;
+				return isNew;
+			}
+			if (reusable < 0 && lastSeen[i] < oldestSecs) {
+				reusable = i;
+			}
+		}
+
+		if (reusable >= 0) {
+			ids[reusable] = id;
+			lastSeen[reusable] = nowSecs;
+		} else {
+			insert(id, nowSecs, oldestSecs);
+		}
+		return !processedBeforeRestore;
+	}
+
+	/**
+	 * The largest comment id seen so far, or -1.
+	 */
+	public long highWaterMark() {
+		return highWaterMark;
+	}
+
+	/**
+	 * Takes all comments up to a checkpointed high water mark as already processed.
+	 */
+	public void restore(long highWaterMark) {
+		this.restoredHighWaterMark = highWaterMark;
+		this.highWaterMark = Math.max(this.highWaterMark, highWaterMark);
+	}
+
+	/**
+	 * Number of comments remembered, including some that are already forgotten but not yet dropped.
+	 * Always 0 in approximate mode.
+	 */
+	public int size() {
+		return used;
+	}
+
+	/**
+	 * Decodes a comment URI (like "t1_d6abc01") into a long: the base36 comment id. Anything that's not
+	 * a base36 id is hashed instead, into the negative longs, which real ids never reach.
+	 */
+	static long decode(String commentId) {
+		int start = commentId.lastIndexOf('_') + 1;
+		int length = commentId.length() - start;
+		if (length > 0 && length <= 12) {
+			long id = 0;
+			int i = start;
+			for (; i < commentId.length(); i++) {
+				int digit = Character.digit(commentId.charAt(i), 36);
+				if (digit < 0) {
+					break;
+				}
+				id = id * 36 + digit;
+			}
+			if (i == commentId.length() && id != FREE) {
+				return id;
+			}
+		}
+
+		// FNV-1a
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < commentId.length(); i++) {
+			hash ^= commentId.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash | Long.MIN_VALUE;
+	}
+
+	// Adds an id known to be absent from the table.
+	private void insert(long id, int nowSecs, int oldestSecs) {
+		if (2 * (used + 1) > ids.length) {
+			rehash(oldestSecs);
+		}
+		int mask = ids.length - 1;
+		int i = slot(id, mask);
+		while (ids[i] != FREE) {
+			i = (i + 1) & mask;
+		}
+		ids[i] = id;
+		lastSeen[i] = nowSecs;
+		used++;
+	}
+
+	// Drops forgotten comments, and grows the table if it's still more than a quarter full.
+	private void rehash(int oldestSecs) {
+		int live = 0;
+		for (int i = 0; i < ids.length; i++) {
+			if (ids[i] != FREE && lastSeen[i] >= oldestSecs) {
+				live++;
+			}
+		}
+		int capacity = ids.length;
+		while (4 * (live + 1) > capacity) {
+			capacity *= 2;
+		}
+
+		long[] oldIds = ids;
+		int[] oldLastSeen = lastSeen;
+		ids = new long[capacity];
+		lastSeen = new int[capacity];
+		used = 0;
+		int mask = capacity - 1;
+		for (int j = 0; j < oldIds.length; j++) {
+			if (oldIds[j] != FREE && oldLastSeen[j] >= oldestSecs) {
+				int i = slot(oldIds[j], mask);
+				while (ids[i] != FREE) {
+					i = (i + 1) & mask;
+				}
+				ids[i] = oldIds[j];
+				lastSeen[i] = oldLastSeen[j];
+				used++;
+			}
+		}
+	}
+
+	private int secs(long timestamp) {
+		return (int) ((timestamp - baseTimestamp) / 1000);
+	}
+
+	private static int slot(long id, int mask) {
+		return (int) mix(id) & mask;
+	}
+
+	// Murmur3 finalizer. Sequential ids must not land in sequential slots.
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * A pair of Bloom filters that each cover a window. Adds go to the current one, lookups check both,
+	 * and when the current one is a window old, the older one is cleared and becomes current. 
+	 * So ids are remembered for between one and two windows after they were last added.
+	 */
+	private static class BloomWindow {
+
+		// 10 bits and 7 hashes per id give about 1% false positives.
+		private static final int BITS_PER_ID = 10;
+		private static final int HASHES = 7;
+
+		private final long windowMillis;
+		private final int bits;
+
+		private long[] current;
+		private long[] previous;
+		private long currentStart = -1;
+
+		BloomWindow(long windowMillis, int expectedIds) {
+			this.windowMillis = windowMillis;
+			this.bits = 64 * (int) Math.min(Integer.MAX_VALUE / 64, ((long) expectedIds * BITS_PER_ID + 63) / 64);
+			this.current = new long[bits / 64];
+			this.previous = new long[bits / 64];
+		}
+
+		boolean mightContain(long id, long now) {
+			rotate(now);
+			return contains(current, id) || contains(previous, id);
+		}
+
+		void add(long id, long now) {
+			rotate(now);
+			long h = mix(id);
+			int h1 = (int) h;
+			int h2 = (int) (h >>> 32);
+			for (int k = 0; k < HASHES; k++) {
+				int bit = ((h1 + k * h2) & Integer.MAX_VALUE) % bits;
+				current[bit >>> 6] |= 1L << bit;
+			}
+		}
+
+		private boolean contains(long[] filter, long id) {
+			long h = mix(id);
+			int h1 = (int) h;
+			int h2 = (int) (h >>> 32);
+			for (int k = 0; k < HASHES; k++) {
+				int bit = ((h1 + k * h2) & Integer.MAX_VALUE) % bits;
+				if ((filter[bit >>> 6] & (1L << bit)) == 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void rotate(long now) {
+			if (currentStart < 0) {
+				currentStart = now;
+
+			} else if (now - currentStart >= windowMillis) {
+				long[] cleared = previous;
+				Arrays.fill(cleared, 0);
+				previous = current;
+				current = cleared;
+				currentStart = now;
+			}
+		}
+	}
+}
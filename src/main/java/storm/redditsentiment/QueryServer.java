@@ -0,0 +1,396 @@
+package storm.redditsentiment;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.storm.zookeeper.CreateMode;
+import org.apache.storm.zookeeper.KeeperException;
+import org.apache.storm.zookeeper.WatchedEvent;
+import org.apache.storm.zookeeper.Watcher;
+import org.apache.storm.zookeeper.ZooDefs;
+import org.apache.storm.zookeeper.ZooKeeper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import backtype.storm.Config;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import storm.redditsentiment.Rankings.RankedStory;
+
+/**
+ * An optional HTTP endpoint of a summarizer, for ad-hoc top N queries of its partition of stories, such as
+ * the top 20 stories with most negative comments in r/science in the last hour:
+ * <pre>
+ *   GET /top?metric=negative&amp;window=60&amp;subreddit=science&amp;n=20
+ * </pre>
+ * metric is one of "comments" (the default), "positive" or "negative", window is a window length in minutes
+ * (the shortest window by default), subreddit is optional, and n is 5 by default and at most MAX_TOP_N.
+ * The answer is a JSON object with the stories, highest count first.
+ *
+ * Queries are answered on the server's own thread from the latest StoryTable handed over by the summarizer,
+ * so they never wait for tuple processing, nor hold it up. The summarizer hands over a table when it starts,
+ * then builds a new one on a tick only if a query came since the last one (see wantsTable()), so it costs
+ * nothing when nobody asks. Queries are always answered from the latest table, whose timestamp is in the
+ * answer. While queries keep coming, that's as fresh as the summarizer's last tick.
+ *
+ * Each summarizer task listens on the configured port plus its task index, so tasks sharing a host don't
+ * compete for one port, or on a free port if that one is taken. Each server advertises its "host:port"
+ * in an ephemeral child znode of QUERY_ZNODE, which goes away with the summarizer. It's advertised again
+ * with a new session when the session expires, and retried every ADVERTISE_RETRY_SECS until it succeeds.
+ *
+ * Every summarizer has its own partition of stories, so a client queries all of them and merges the answers
+ * by count, the way RankerBolt merges rankings.
+ */
+class QueryServer {
+
+	private static final Logger LOG = LoggerFactory.getLogger(QueryServer.class);
+
+	/**
+	 * Topology configuration of the first port to listen on, offset by task index. 0 picks a free port.
+	 * No server if absent.
+	 */
+	public static final String PORT_CONF = "queryPort";
+
+	public static final String QUERY_ZNODE = ZkPublisher.ROOT_ZNODE + "/query";
+
+	public static final int MAX_TOP_N = 100;
+
+	private static final int DEFAULT_TOP_N = 5;
+
+	private static final int ADVERTISE_RETRY_SECS = 30;
+
+	// By StoryRanking metric.
+	private static final String[] METRIC_NAMES = {"comments", "positive", "negative"};
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	// Latest copy of the summary, null until the first one is handed over.
+	private volatile StoryTable table;
+	// Set by queries, cleared by wantsTable().
+	private final AtomicBoolean queried = new AtomicBoolean();
+
+	// Only once advertised. The client is replaced on the advertiser's thread, and closed by stop().
+	private volatile ZooKeeper zkClient;
+	private ScheduledExecutorService advertiser;
+	private volatile boolean stopped;
+	private String connectString;
+	private String znode;
+	private String location;
+
+	/**
+	 * Listens on the given port, or on a free one if it's taken.
+	 */
+	QueryServer(int port) throws IOException {
+		HttpServer server;
+		try {
+			server = HttpServer.create(new InetSocketAddress(port), 0);
+		} catch (BindException e) {
+			LOG.warn("Port {} is taken. Listening on a free port instead", port);
+			server = HttpServer.create(new InetSocketAddress(0), 0);
+		}
+		this.server = server;
+		server.createContext("/top", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					answer(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "query-server");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		server.setExecutor(executor);
+		server.start();
+		LOG.info("Answering queries on port {}", port());
+	}
+
+	/**
+	 * A started and advertised server of a summarizer task as configured, or null if queries are not configured.
+	 */
+	public static QueryServer fromConf(Map stormConf, String name, int taskIndex) {
+		Number port = (Number) stormConf.get(PORT_CONF);
+		if (port == null) {
+			return null;
+		}
+		try {
+			QueryServer server = new QueryServer(port.intValue() > 0 ? port.intValue() + taskIndex : 0);
+			server.advertise(stormConf, name);
+			return server;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public int port() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Hands over a new copy of the summary to answer queries from.
+	 */
+	public void publish(StoryTable table) {
+		this.table = table;
+	}
+
+	/**
+	 * Whether a query came since the last call, so a new copy of the summary should be handed over.
+	 */
+	public boolean wantsTable() {
+		return queried.getAndSet(false);
+	}
+
+	/**
+	 * Writes this server's location to a child znode of QUERY_ZNODE of the given name.
+	 */
+	public void advertise(Map stormConf, String name) throws IOException {
+		String host = (String) stormConf.get(Config.STORM_LOCAL_HOSTNAME);
+		if (host == null) {
+			host = InetAddress.getLocalHost().getCanonicalHostName();
+		}
+		this.connectString = ZkPublisher.connectString(stormConf);
+		this.znode = QUERY_ZNODE + "/" + name;
+		this.location = host + ":" + port();
+		this.advertiser = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "query-server-advertiser");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		advertiseLater(0);
+	}
+
+	public synchronized void stop() {
+		stopped = true;
+		server.stop(0);
+		executor.shutdown();
+		if (advertiser != null) {
+			advertiser.shutdownNow();
+		}
+		closeClient();
+	}
+
+	private void advertiseLater(long delaySecs) {
+		try {
+			advertiser.schedule(new Runnable() {
+				public void run() {
+					advertise();
+				}
+			}, delaySecs, TimeUnit.SECONDS);
+		} catch (RejectedExecutionException e) {
+			// Stopped.
+		}
+	}
+
+	// Starts a new session, closing the expired or failed one, and creates the znode with it.
+	private synchronized void advertise() {
+		if (stopped) {
+			return;
+		}
+		closeClient();
+		try {
+			zkClient = new ZooKeeper(connectString, 5000, new Watcher() {
+				public void process(WatchedEvent e) {
+					LOG.info("Query server Watcher: {}", e.toString());
+					if (e.getState() == Event.KeeperState.Expired) {
+						// The ephemeral znode went with the session.
+						advertiseLater(0);
+					}
+				}
+			});
+			createIfMissing(ZkPublisher.ROOT_ZNODE);
+			createIfMissing(QUERY_ZNODE);
+			byte[] data = location.getBytes(UTF8);
+			try {
+				zkClient.create(znode, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+			} catch (KeeperException.NodeExistsException e) {
+				// Left by the previous task of this partition, whose session has not expired yet.
+				zkClient.delete(znode, -1);
+				zkClient.create(znode, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+			}
+			LOG.info("Advertised {} at {}", location, znode);
+
+		} catch (Exception e) {
+			LOG.warn("Can't advertise " + location + " at " + znode + ". Retrying in " + ADVERTISE_RETRY_SECS 
+					+ " secs", e);
+			advertiseLater(ADVERTISE_RETRY_SECS);
+		}
+	}
+
+	private synchronized void closeClient() {
+		if (zkClient != null) {
+			try {
+				zkClient.close();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			zkClient = null;
+		}
+	}
+
+	private void createIfMissing(String path) throws Exception {
+		try {
+			if (zkClient.exists(path, false) == null) {
+				zkClient.create(path, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+			}
+		} catch (KeeperException.NodeExistsException ignore) {
+			// Another task created it in the meantime.
+		}
+	}
+
+	private void answer(HttpExchange exchange) throws IOException {
+		if (!"GET".equals(exchange.getRequestMethod()) || !"/top".equals(exchange.getRequestURI().getPath())) {
+			respond(exchange, 404, "Not found\n");
+			return;
+		}
+		queried.set(true);
+		StoryTable table = this.table;
+		if (table == null) {
+			respond(exchange, 503, "Not ready\n");
+			return;
+		}
+
+		Map<String, String> params;
+		try {
+			params = params(exchange.getRequestURI().getRawQuery());
+		} catch (IllegalArgumentException e) {
+			// A malformed escape, such as %zz.
+			respond(exchange, 400, "Bad query: " + e.getMessage() + "\n");
+			return;
+		}
+
+		int metric = 0;
+		String metricName = params.get("metric");
+		if (metricName != null) {
+			metric = -1;
+			for (int m = 0; m < METRIC_NAMES.length; m++) {
+				if (METRIC_NAMES[m].equals(metricName)) {
+					metric = m;
+				}
+			}
+			if (metric < 0) {
+				respond(exchange, 400, "Unknown metric " + metricName + "\n");
+				return;
+			}
+		}
+
+		int window = 0;
+		int topN = DEFAULT_TOP_N;
+		try {
+			if (params.get("window") != null) {
+				window = table.window(Integer.parseInt(params.get("window")));
+				if (window < 0) {
+					respond(exchange, 400, "No " + params.get("window") + " minute window\n");
+					return;
+				}
+			}
+			if (params.get("n") != null) {
+				topN = Integer.parseInt(params.get("n"));
+				if (topN < 1 || topN > MAX_TOP_N) {
+					respond(exchange, 400, "n must be from 1 to " + MAX_TOP_N + "\n");
+					return;
+				}
+			}
+		} catch (NumberFormatException e) {
+			respond(exchange, 400, "Not a number: " + e.getMessage() + "\n");
+			return;
+		}
+
+		String subreddit = params.get("subreddit");
+		List<RankedStory> top = table.top(subreddit, window, metric, topN);
+
+		StringBuilder json = new StringBuilder(128 + 96 * top.size());
+		json.append("{\"timestamp\":").append(table.timestamp);
+		json.append(",\"windowMinutes\":").append(table.windowMillis()[window] / WindowCounter.MINUTE_MILLIS);
+		json.append(",\"metric\":\"").append(METRIC_NAMES[metric]).append('"');
+		if (subreddit != null) {
+			json.append(",\"subreddit\":");
+			appendString(json, subreddit);
+		}
+		json.append(",\"stories\":[");
+		for (int i = 0; i < top.size(); i++) {
+			RankedStory story = top.get(i);
+			json.append(i > 0 ? ",{" : "{");
+			json.append("\"subreddit\":");
+			appendString(json, story.subreddit);
+			json.append(",\"storyId\":");
+			appendString(json, story.storyId);
+			json.append(",\"count\":").append(story.count);
+			json.append(",\"error\":").append(story.error);
+			json.append('}');
+		}
+		json.append("]}\n");
+
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		respond(exchange, 200, json.toString());
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(UTF8);
+		if (status != 200) {
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		}
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	private static Map<String, String> params(String query) throws UnsupportedEncodingException {
+		Map<String, String> params = new HashMap<String, String>();
+		if (query == null) {
+			return params;
+		}
+		for (String param : query.split("&")) {
+			int eq = param.indexOf('=');
+			if (eq > 0) {
+				params.put(URLDecoder.decode(param.substring(0, eq), "UTF-8"),
+						URLDecoder.decode(param.substring(eq + 1), "UTF-8"));
+			}
+		}
+		return params;
+	}
+
+	private static void appendString(StringBuilder json, String s) {
+		json.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				json.append('\\').append(c);
+			} else if (c < 0x20) {
+				json.append(String.format("\\u%04x", (int) c));
+			} else {
+				json.append(c);
+			}
+		}
+		json.append('"');
+	}
+}
@@ -0,0 +1,141 @@
+package storm.redditsentiment;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.topology.base.BaseRichBolt;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * Receive the top N lists of every SummarizerBolt partition, merge them into overall
+ * top N lists, and publish those to Zookeeper every 30 secs on tick tuples.
+ *
+ * Rankings identify stories only by ID. Their URLs and titles come separately from the spouts' 
+ * stories stream, and are filled in just before publishing. They're snapshotted along with the summaries,
+ * if snapshots are configured (see SummarySnapshots).
+ *
+ * This is the only component that talks to ZkPublisher, and it deals with just a few
+ * small lists from each summarizer, so a single instance is enough.
+ *
+ */
+public class RankerBolt extends BaseRichBolt {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RankerBolt.class);
+
+	// Rankings of a summarizer that has not sent any for this long are ignored,
+	// in case it's gone for good.
+	private static final long STALE_RANKINGS_MILLIS = 120000L;
+
+	private static final int PUBLISH_INTERVAL_SECS = 30;
+	private static final int METRICS_INTERVAL_SECS = 60;
+
+	private OutputCollector collector;
+	private String myId;
+
+	// Latest rankings of each summarizer task.
+	private Map<Integer, Rankings> partitionRankings;
+	
+	// URLs and titles of stories, which rankings don't carry.
+	private StoryDirectory storyDirectory;
+	
+	// Null unless snapshots are configured.
+	private SummarySnapshots snapshots;
+
+	private ZkPublisher publisher;
+
+	public void execute(Tuple tuple) {
+		if (TickTuples.isTick(tuple)) {
+			collector.ack(tuple);
+			long now = System.currentTimeMillis();
+			publish(now);
+			if (snapshots != null && snapshots.isDue(now)) {
+				snapshots.write(storyDirectory);
+			}
+			return;
+		}
+		
+		if (SubredditCommentsSpout.STORIES_STREAM.equals(tuple.getSourceStreamId())) {
+			storyDirectory.put(tuple.getStringByField("storyid"), tuple.getStringByField("storyurl"), 
+					tuple.getStringByField("storytitle"));
+			collector.ack(tuple);
+			return;
+		}
+		
+		Rankings rankings = (Rankings) tuple.getValueByField("rankings");
+		partitionRankings.put(tuple.getSourceTask(), rankings);
+		collector.ack(tuple);
+	}
+
+	private void publish(long curTime) {
+		for (Iterator<Rankings> itr = partitionRankings.values().iterator(); itr.hasNext();) {
+			if (curTime - itr.next().timestamp > STALE_RANKINGS_MILLIS) {
+				itr.remove();
+			}
+		}
+		
+		if (partitionRankings.isEmpty()) {
+			// Nothing received yet. Publishing now would blank out whatever the previous run published.
+			return;
+		}
+
+		LOG.info("Publishing statistics of {} partitions to ZK", partitionRankings.size());
+		Rankings merged = Rankings.merge(partitionRankings.values(), SummarizerBolt.TOP_N, curTime);
+		storyDirectory.describe(merged);
+		this.publisher.publish(merged);
+	}
+
+	public void prepare(Map conf, TopologyContext ctx, OutputCollector collector) {
+
+		this.collector = collector;
+		this.myId = ctx.getThisComponentId() + "-" + ctx.getThisTaskId();
+
+		this.partitionRankings = new HashMap<Integer, Rankings>();
+		this.storyDirectory = new StoryDirectory();
+		
+		int tasks = ctx.getComponentTasks(ctx.getThisComponentId()).size();
+		this.snapshots = SummarySnapshots.fromConf(conf, 
+				ctx.getThisComponentId() + "-" + ctx.getThisTaskIndex() + "-of-" + tasks);
+		if (snapshots != null && !snapshots.restore(storyDirectory)) {
+			this.storyDirectory = new StoryDirectory();
+		}
+
+		this.publisher = new ZkPublisher();
+		try {
+			this.publisher.init(conf);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+
+		ctx.registerMetric("publishLatencyMillis", publisher.getPublishLatencyMetric(), METRICS_INTERVAL_SECS);
+		ctx.registerMetric("droppedSnapshots", publisher.getDroppedSnapshotsMetric(), METRICS_INTERVAL_SECS);
+	}
+
+	@Override
+	public Map<String, Object> getComponentConfiguration() {
+		// Publish on tick tuples rather than on arriving rankings, so that results are republished
+		// on schedule even when no rankings arrive.
+		return TickTuples.everySecs(PUBLISH_INTERVAL_SECS);
+	}
+
+	public void declareOutputFields(OutputFieldsDeclarer declarer) {
+		// Ranker has no output fields.
+	}
+
+	@Override
+	public void cleanup() {
+		// This is called only in local topology mode.
+		super.cleanup();
+
+		this.publisher.stop();
+		if (snapshots != null) {
+			snapshots.close();
+		}
+	}
+}
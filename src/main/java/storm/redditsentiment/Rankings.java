@@ -0,0 +1,97 @@
+package storm.redditsentiment;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Top N stories by number of comments, positive comments and negative comments in each of the time windows.
+ *
+ * Each summarizer emits the Rankings of its own partition of stories, and the ranker merges them
+ * into the global Rankings that get published. Since every story is counted by exactly one partition,
+ * the global top N is always among the partitions' top Ns.
+ */
+public class Rankings implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	// When these rankings were taken.
+	public long timestamp;
+
+	// Lengths of the time windows, shortest first.
+	public long[] windowMillis;
+
+	// Ranking of each window and StoryRanking metric, at window * StoryRanking.METRICS + metric.
+	public List<List<RankedStory>> rankings;
+
+	// For deserialization.
+	Rankings() {
+	}
+
+	public Rankings(long[] windowMillis) {
+		this.windowMillis = windowMillis.clone();
+		this.rankings = new ArrayList<List<RankedStory>>(windowMillis.length * StoryRanking.METRICS);
+		for (int i = 0; i < windowMillis.length * StoryRanking.METRICS; i++) {
+			rankings.add(new ArrayList<RankedStory>());
+		}
+	}
+
+	public int windows() {
+		return windowMillis.length;
+	}
+
+	/**
+	 * The ranking of one of the StoryRanking metrics in a window.
+	 */
+	public List<RankedStory> get(int window, int metric) {
+		return rankings.get(window * StoryRanking.METRICS + metric);
+	}
+
+	/**
+	 * Merges rankings of separate partitions of stories into the overall top N.
+	 * All partitions must have the same windows.
+	 */
+	public static Rankings merge(Collection<Rankings> partials, int topN, long timestamp) {
+		Rankings merged = new Rankings(partials.iterator().next().windowMillis);
+		merged.timestamp = timestamp;
+		for (int i = 0; i < merged.rankings.size(); i++) {
+			List<RankedStory> all = new ArrayList<RankedStory>();
+			for (Rankings partial : partials) {
+				all.addAll(partial.rankings.get(i));
+			}
+
+			Collections.sort(all, new Comparator<RankedStory>() {
+				public int compare(RankedStory s1, RankedStory s2) {
+					// Return in descending order.
+					return Integer.compare(s2.count, s1.count);
+				}
+			});
+
+			merged.rankings.get(i).addAll(all.subList(0, Math.min(topN, all.size())));
+		}
+		return merged;
+	}
+
+	/**
+	 * A story's place in one of the rankings.
+	 */
+	public static class RankedStory implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		public String subreddit;
+		public String storyId;
+		// Null until the ranker fills them in from its StoryDirectory.
+		public String storyURL;
+		public String storyTitle;
+
+		// The ranked count and the start of the period it covers (or -1).
+		public int count;
+		// How much count may overstate the story's comments. Always 0 unless the summary is approximate.
+		public int error;
+		public long oldestCommentTimestamp;
+	}
+}
@@ -0,0 +1,81 @@
+package storm.redditsentiment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import backtype.storm.task.IMetricsContext;
+import storm.trident.operation.TridentCollector;
+import storm.trident.state.BaseStateUpdater;
+import storm.trident.state.State;
+import storm.trident.state.StateFactory;
+import storm.trident.tuple.TridentTuple;
+
+/**
+ * The Trident counterpart of RankerBolt: merges the rankings of all SummaryState partitions queried
+ * in a batch into the overall top N, and publishes them to Zookeeper with a ZkPublisher.
+ *
+ * Publishing is idempotent, so a replayed batch is simply published again.
+ */
+public class RankingsPublisherState implements State {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RankingsPublisherState.class);
+
+	private static final int METRICS_INTERVAL_SECS = 60;
+
+	private final ZkPublisher publisher;
+
+	RankingsPublisherState(ZkPublisher publisher) {
+		this.publisher = publisher;
+	}
+
+	public void beginCommit(Long txid) {
+	}
+
+	public void commit(Long txid) {
+	}
+
+	public void publish(List<Rankings> partitionRankings) {
+		if (partitionRankings.isEmpty()) {
+			return;
+		}
+		LOG.info("Publishing statistics of {} partitions to ZK", partitionRankings.size());
+		this.publisher.publish(Rankings.merge(partitionRankings, SummarizerBolt.TOP_N, System.currentTimeMillis()));
+	}
+
+	public static class Factory implements StateFactory {
+
+		private static final long serialVersionUID = 1L;
+
+		public State makeState(Map conf, IMetricsContext metrics, int partitionIndex, int numPartitions) {
+			ZkPublisher publisher = new ZkPublisher();
+			try {
+				publisher.init(conf);
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+			metrics.registerMetric("publishLatencyMillis", publisher.getPublishLatencyMetric(), METRICS_INTERVAL_SECS);
+			metrics.registerMetric("droppedSnapshots", publisher.getDroppedSnapshotsMetric(), METRICS_INTERVAL_SECS);
+			return new RankingsPublisherState(publisher);
+		}
+	}
+
+	/**
+	 * Publishes the "rankings" of a batch.
+	 */
+	public static class PublishRankings extends BaseStateUpdater<RankingsPublisherState> {
+
+		private static final long serialVersionUID = 1L;
+
+		public void updateState(RankingsPublisherState state, List<TridentTuple> tuples, TridentCollector collector) {
+			List<Rankings> partitionRankings = new ArrayList<Rankings>(tuples.size());
+			for (TridentTuple tuple : tuples) {
+				partitionRankings.add((Rankings) tuple.getValueByField("rankings"));
+			}
+			state.publish(partitionRankings);
+		}
+	}
+}
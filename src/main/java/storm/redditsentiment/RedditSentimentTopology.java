@@ -4,7 +4,6 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 import com.rometools.rome.io.SyndFeedInput;
 import com.rometools.rome.io.XmlReader;
@@ -14,13 +13,13 @@ import backtype.storm.LocalCluster;
 import backtype.storm.StormSubmitter;
 import backtype.storm.generated.AlreadyAliveException;
 import backtype.storm.generated.InvalidTopologyException;
-import backtype.storm.topology.BoltDeclarer;
+import backtype.storm.generated.StormTopology;
 import backtype.storm.topology.TopologyBuilder;
 
-// Accepts list of subreddit names via command line, creates a Spout for 
-// each subreddit, creates a couple of sentiment calculator bolts to process them,
-// finally send comments and sentiment scores to SummarizerBolt for aggregation.
-// Summarizer publishes summaries to a Zookeeper znode.
+// Accepts list of subreddit names via command line, creates a Spout whose tasks 
+// share the subreddits, creates a couple of sentiment calculator bolts to process them,
+// finally send comments and sentiment scores to SummarizerBolts for aggregation.
+// RankerBolt merges the summarizers' rankings and publishes them to a Zookeeper znode.
 //
 // Cmdline args for submitting to a remote Storm cluster: 
 //		$ storm jar redditsentiment-cluster-all.jar storm.redditsentiment.RedditSentimentTopology 
@@ -28,9 +27,41 @@ import backtype.storm.topology.TopologyBuilder;
 //
 // Cmdline for running as a local standalone Storm cluster: 
 //		$ java -jar redditsentiment-local-all.jar LOCAL <subreddit-1> <subreddit-2> ...
+//
+// The number of spout tasks defaults to one per 50 subreddits, and can be set with 
+// the "spouts" system property, as in "java -Dspouts=4 -jar ...". Similarly, the "feedRequestsPerMinute"
+// system property limits how often all the spouts together poll reddit (600 by default), and 
+// "maxSpoutPending" how many comments each spout task can have in flight (1000 by default).
+// "-Ddebug=true" logs every comment at each stage, instead of a few a minute.
+// "-Dnormalizers=<N>" adds N NormalizerBolts to turn comment HTML into text, instead of the spouts.
+// "-Dwindows=5,60,1440" sets the time windows ranked, in minutes. Windows longer than an hour
+// must be whole hours.
+// "-DapproximateSummaryBytes=<bytes>" makes each summarizer track only as many stories as fit in that
+// many bytes, ranking them with error bounds (see Summary).
+// "-DsnapshotDir=<dir>" makes summarizers snapshot their stories there every 5 minutes, and restore them
+// when restarted. The ranker does the same with story URLs and titles.
+// "-DqueryPort=<port>" makes summarizers answer top N queries over HTTP on that port plus their task index,
+// or on any free port if that's taken or if 0, and advertise where in Zookeeper (see QueryServer).
+// "-Dtrident=true" runs the Trident micro-batch variant instead (see TridentSentimentTopology), 
+// which ignores the replay and normalizer options.
+//
+// For load testing without network access, "-Drecord=<dir>" records the comments each spout task emits
+// to a file in that directory, and "-Dreplay=<file1>,<file2>,..." replays such files instead of polling 
+// reddit (see ReplayCommentsSpout), at the recorded pace times "-DreplaySpeed=<N>", or as fast 
+// as possible with "-DreplaySpeed=0".
 
 public class RedditSentimentTopology {
 	
+	// Default number of subreddits per spout task, when not set by the "spouts" system property.
+	private static final int SUBREDDITS_PER_SPOUT = 50;
+	
+	private static final int MAX_BOLT_PARALLELISM = 16;
+	
+	private static final int DEFAULT_MAX_SPOUT_PENDING = 1000;
+	
+	// Topology config key of the list of subreddits.
+	public static final String SUBREDDITS = "subreddits";
+	
 	public static void main(String[] args) {
 		if (args == null || args.length == 0) {
 			System.out.println("Missing arguments: Expected a list of subreddits");
@@ -44,20 +75,18 @@ public class RedditSentimentTopology {
 			System.out.println("Subreddits:" + Arrays.toString(args));
 		}
 		
-		Map<String, Integer> sentimentData = null;
-		try {
-			sentimentData = SentimentData.getSentimentData();
-		} catch (Exception e) {
-			System.out.println("Error: Unable to read sentiment data");
-			System.exit(-1);
-		}
+		// Replaying recorded comments needs no network. The subreddits are still used by CommentEventSerializer.
+		String replay = System.getProperty("replay");
 		
-		TopologyBuilder topology = new TopologyBuilder();
-		
-		List<String> spoutIds = new ArrayList<String>();
+		List<String> subreddits = new ArrayList<String>();
 		for (String subreddit : args) {
+			if (replay != null) {
+				subreddits.add(subreddit);
+				continue;
+			}
+			
 			// See if the feed is reachable.
-			String subredditCommentsFeedURL = "https://www.reddit.com/r/" + subreddit + "/comments/.rss";
+			String subredditCommentsFeedURL = SubredditCommentsSpout.feedURL(subreddit);
 			try {
 				SyndFeedInput input = new SyndFeedInput();
 				input.build(new XmlReader(new URL(subredditCommentsFeedURL)));
@@ -66,31 +95,104 @@ public class RedditSentimentTopology {
 				System.out.println("Error fetching comments for :" + subreddit + ". Skipping");
 				continue;
 			}
-			
-			String spoutId = "subredditspout-" + subreddit;
-			spoutIds.add(spoutId);
-			SubredditCommentsSpout spout = new SubredditCommentsSpout();
-			
-			topology.setSpout(spoutId, spout, 1)
-				.addConfiguration("subreddit", subreddit)
-				.addConfiguration("feedURL", subredditCommentsFeedURL);
+			subreddits.add(subreddit);
 		}
-		BoltDeclarer sentiCalcBot = topology.setBolt("sentimentcalculator", new SentimentCalculatorBolt(), 
-				spoutIds.size());
-		for (String spoutId : spoutIds) {
-			sentiCalcBot.shuffleGrouping(spoutId);
-		}
-		sentiCalcBot.addConfiguration("sentimentData", sentimentData);
 		
-		topology.setBolt("summarizer", new SummarizerBolt(), 1).globalGrouping("sentimentcalculator");
+		// One spout component for all subreddits. Each of its tasks polls its share of them.
+		int spoutParallelism = Math.max(1, Math.min(subreddits.size(), 
+				Integer.getInteger("spouts", 1 + subreddits.size() / SUBREDDITS_PER_SPOUT)));
+		
+		// A bolt per subreddit as before, up to a limit.
+		int boltParallelism = Math.max(1, Math.min(subreddits.size(), MAX_BOLT_PARALLELISM));
+		
+		// Optionally, comment HTML is turned into text by bolts of its own instead of by the spout.
+		int normalizerParallelism = Integer.getInteger("normalizers", 0);
+		
+		List<String> replayFiles = (replay != null) ? Arrays.asList(replay.split(",")) : null;
+		
+		// Either the micro-batch variant, or comment at a time.
+		boolean trident = Boolean.getBoolean("trident");
+		StormTopology topology;
+		if (trident) {
+			topology = TridentSentimentTopology.build(spoutParallelism, boltParallelism);
+		} else {
+			topology = build(replayFiles, spoutParallelism, normalizerParallelism, boltParallelism);
+		}
 		
 		Config conf = new Config();
-		conf.setDebug(true);
+		
+		// Components log only a few sampled comments a minute, unless debugging. 
+		// Their numbers are reported as metrics instead.
+		if (Boolean.getBoolean("debug")) {
+			conf.put(SampledLog.DEBUG, true);
+		}
+		
+		// Spout tasks take their share of the subreddits from this list, and CommentEventSerializer
+		// sends subreddits as their index in it.
+		conf.put(SUBREDDITS, subreddits);
+		
+		// Everything sent between workers goes through a registered Kryo serializer. Anything that isn't 
+		// registered fails, rather than silently falling back to Java serialization.
+		conf.setKryoFactory(TopologyKryoFactory.class);
+		conf.registerSerialization(Rankings.class);
+		conf.registerSerialization(Rankings.RankedStory.class);
+		conf.registerSerialization(long[].class);
+		
+		conf.registerSerialization(StoryCounts.class);
+		conf.setFallBackOnJavaSerialization(false);
+		
+		// Stops the spouts from emitting more comments while this many are still being processed, 
+		// so bursts can't flood the bolts. For Trident, it's batches rather than comments.
+		conf.setMaxSpoutPending(Integer.getInteger("maxSpoutPending", 
+				trident ? TridentSentimentTopology.DEFAULT_MAX_BATCHES_PENDING : DEFAULT_MAX_SPOUT_PENDING));
+		
+		if (replayFiles != null) {
+			conf.put(ReplayCommentsSpout.REPLAY_FILES, new ArrayList<String>(replayFiles));
+			conf.put(ReplayCommentsSpout.REPLAY_SPEED, Double.parseDouble(System.getProperty("replaySpeed", "1")));
+		}
+		
+		if (normalizerParallelism > 0) {
+			conf.put(SubredditCommentsSpout.HTML_COMMENTS, true);
+		}
+		
+		String recordDir = System.getProperty("record");
+		if (recordDir != null) {
+			conf.put(SubredditCommentsSpout.RECORD_DIR, recordDir);
+		}
+		
+		String windows = System.getProperty("windows");
+		if (windows != null) {
+			List<Integer> windowMinutes = new ArrayList<Integer>();
+			for (String window : windows.split(",")) {
+				windowMinutes.add(Integer.parseInt(window.trim()));
+			}
+			conf.put(Summary.WINDOWS_CONF, windowMinutes);
+		}
+		
+		String snapshotDir = System.getProperty("snapshotDir");
+		if (snapshotDir != null) {
+			conf.put(SummarySnapshots.DIR_CONF, snapshotDir);
+		}
+		
+		Integer queryPort = Integer.getInteger("queryPort");
+		if (queryPort != null) {
+			conf.put(QueryServer.PORT_CONF, queryPort);
+		}
+		
+		Long approximateSummaryBytes = Long.getLong("approximateSummaryBytes");
+		if (approximateSummaryBytes != null) {
+			conf.put(Summary.APPROXIMATE_BYTES_CONF, approximateSummaryBytes);
+		}
+		
+		Integer feedRequestsPerMinute = Integer.getInteger("feedRequestsPerMinute");
+		if (feedRequestsPerMinute != null) {
+			conf.put("feedRequestsPerMinute", feedRequestsPerMinute);
+		}
 		
 		if (localMode) {
 			System.out.println("Starting local cluster");
 			LocalCluster localCluster = new LocalCluster();
-			localCluster.submitTopology("redditsentiments", conf, topology.createTopology());
+			localCluster.submitTopology("redditsentiments", conf, topology);
 			
 			final Object barrier = new Object();
 			Runtime.getRuntime().addShutdownHook(new Thread() {
@@ -117,7 +219,7 @@ public class RedditSentimentTopology {
 		} else {
 			System.out.println("Submitting to Storm cluster");
 			try {
-				StormSubmitter.submitTopology("reddit", conf, topology.createTopology());
+				StormSubmitter.submitTopology("reddit", conf, topology);
 				
 			} catch (AlreadyAliveException e) {
 				e.printStackTrace();
@@ -126,5 +228,38 @@ public class RedditSentimentTopology {
 			}
 		}
 	}
-
+	
+	// The comment at a time topology.
+	private static StormTopology build(List<String> replayFiles, int spoutParallelism, int normalizerParallelism, 
+			int boltParallelism) {
+		TopologyBuilder topology = new TopologyBuilder();
+		
+		if (replayFiles != null) {
+			// A replay task per recorded file, under the same component ID as the live spout.
+			topology.setSpout("subredditspout", new ReplayCommentsSpout(), replayFiles.size());
+		} else {
+			topology.setSpout("subredditspout", new SubredditCommentsSpout(), spoutParallelism);
+		}
+		
+		String calculatorSource = "subredditspout";
+		if (normalizerParallelism > 0) {
+			topology.setBolt("normalizer", new NormalizerBolt(), normalizerParallelism)
+				.shuffleGrouping("subredditspout");
+			calculatorSource = "normalizer";
+		}
+		
+		topology.setBolt("sentimentcalculator", new SentimentCalculatorBolt(), boltParallelism)
+			.shuffleGrouping(calculatorSource);
+		
+		// Summarizers are partitioned by story, so that each story's comments are always counted by 
+		// the same summarizer. A single ranker merges their top N lists and publishes them.
+		topology.setBolt("summarizer", new SummarizerBolt(), boltParallelism)
+			.customGrouping("sentimentcalculator", new StoryGrouping());
+		
+		topology.setBolt("ranker", new RankerBolt(), 1)
+			.globalGrouping("summarizer")
+			.globalGrouping("subredditspout", SubredditCommentsSpout.STORIES_STREAM);
+		
+		return topology.createTopology();
+	}
 }
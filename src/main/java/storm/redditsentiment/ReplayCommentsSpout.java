@@ -0,0 +1,209 @@
+package storm.redditsentiment;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import backtype.storm.metric.api.CountMetric;
+import backtype.storm.spout.SpoutOutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.topology.base.BaseRichSpout;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Values;
+
+// Replays comments recorded by SubredditCommentsSpout (see CommentLog) in place of it, emitting 
+// the same streams, for load testing the topology without network access.
+//
+// The "replayFiles" list is shared among the tasks by task index, like the subreddits of 
+// SubredditCommentsSpout. Comments are emitted at their recorded pace multiplied by "replaySpeed":
+// 1 (the default) for the original pace, 10 for 10 times faster, and 0 for as fast as the topology 
+// takes them, as limited by max spout pending.
+//
+// Comments recorded as HTML are normalized here, unless the topology has NormalizerBolts for that.
+//
+// Comments are stamped with the time they are replayed at, so that they fall in the summarizers' 
+// time window. Failed comments are not emitted again, just counted.
+public class ReplayCommentsSpout extends BaseRichSpout {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ReplayCommentsSpout.class);
+	
+	public static final String REPLAY_FILES = "replayFiles";
+	public static final String REPLAY_SPEED = "replaySpeed";
+	
+	private static final int METRICS_INTERVAL_SECS = 60;
+	
+	private SpoutOutputCollector collector;
+	
+	// This task's files still to replay, and the one being replayed.
+	private List<File> files;
+	private CommentLog.Reader reader;
+	
+	// Null when comments are left to NormalizerBolts.
+	private HtmlNormalizer normalizer;
+	
+	private double speed;
+	
+	// Recorded timestamp of the first comment, and when it was replayed.
+	private long firstTimestamp = -1;
+	private long replayStart;
+	
+	// Next comment to emit, when it's not yet due.
+	private CommentLog.Entry next;
+	
+	private long nextMessageId;
+	// Emit timestamps of comments not yet acked or failed.
+	private Map<Long, Long> pending;
+	
+	private LinkedHashMap<String, Long> announcedStories;
+	
+	private LatencyMetric completeLatencyMetric;
+	private CountMetric emittedCommentsMetric;
+	private CountMetric failedCommentsMetric;
+	
+	public void open(Map conf, TopologyContext ctx, SpoutOutputCollector collector) {
+		this.collector = collector;
+		
+		List<String> replayFiles = (List<String>) conf.get(REPLAY_FILES);
+		int taskCount = ctx.getComponentTasks(ctx.getThisComponentId()).size();
+		int taskIndex = ctx.getThisTaskIndex();
+		
+		this.files = new ArrayList<File>();
+		for (String file : SubredditCommentsSpout.taskShare(replayFiles, ctx)) {
+			files.add(new File(file));
+		}
+		
+		if (!Boolean.TRUE.equals(conf.get(SubredditCommentsSpout.HTML_COMMENTS))) {
+			this.normalizer = new HtmlNormalizer();
+		}
+		
+		Number replaySpeed = (Number) conf.get(REPLAY_SPEED);
+		this.speed = (replaySpeed != null) ? replaySpeed.doubleValue() : 1;
+		LOG.info("Replay task {} of {} files:{} at speed {}", taskIndex, taskCount, files, speed);
+		
+		this.pending = new HashMap<Long, Long>();
+		this.announcedStories = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+				return size() > SubredditCommentsSpout.MAX_ANNOUNCED_STORIES;
+			}
+		};
+		
+		this.completeLatencyMetric = ctx.registerMetric("completeLatencyMillis", new LatencyMetric(), 
+				METRICS_INTERVAL_SECS);
+		this.emittedCommentsMetric = ctx.registerMetric("emittedComments", new CountMetric(), 
+				METRICS_INTERVAL_SECS);
+		this.failedCommentsMetric = ctx.registerMetric("failedComments", new CountMetric(), 
+				METRICS_INTERVAL_SECS);
+	}
+	
+	@Override
+	public void close() {
+		closeReader();
+	}
+
+	public void nextTuple() {
+		if (next == null) {
+			next = read();
+			if (next == null) {
+				// All replayed.
+				return;
+			}
+		}
+		
+		long now = System.currentTimeMillis();
+		long timestamp = now;
+		if (speed > 0) {
+			if (firstTimestamp < 0) {
+				firstTimestamp = next.timestamp;
+				replayStart = now;
+			}
+			long due = replayStart + (long) ((next.timestamp - firstTimestamp) / speed);
+			if (now < due) {
+				return;
+			}
+			timestamp = due;
+		}
+		
+		CommentLog.Entry e = next;
+		next = null;
+		
+		Long lastAnnounced = announcedStories.get(e.storyId);
+		if (lastAnnounced == null || timestamp - lastAnnounced >= SubredditCommentsSpout.REANNOUNCE_INTERVAL_MILLIS) {
+			announcedStories.put(e.storyId, timestamp);
+			collector.emit(SubredditCommentsSpout.STORIES_STREAM, 
+					new Values(e.subreddit, e.storyId, e.storyURL, e.storyTitle));
+		}
+		
+		long messageId = nextMessageId++;
+		pending.put(messageId, now);
+		collector.emit(new Values(CommentEvent.unscored(e.subreddit, e.storyId, e.comment, timestamp)), messageId);
+		emittedCommentsMetric.incr();
+	}
+	
+	@Override
+	public void ack(Object msgId) {
+		Long emitTimestamp = pending.remove(msgId);
+		if (emitTimestamp != null) {
+			completeLatencyMetric.record(System.currentTimeMillis() - emitTimestamp);
+		}
+	}
+	
+	@Override
+	public void fail(Object msgId) {
+		if (pending.remove(msgId) != null) {
+			failedCommentsMetric.incr();
+		}
+	}
+
+	public void declareOutputFields(OutputFieldsDeclarer declarer) {
+		// Same as SubredditCommentsSpout.
+		declarer.declare(new Fields("event"));
+		declarer.declareStream(SubredditCommentsSpout.STORIES_STREAM, 
+				new Fields("subreddit", "storyid", "storyurl", "storytitle"));
+	}
+	
+	// The next recorded comment of this task's files, or null when all are replayed.
+	private CommentLog.Entry read() {
+		try {
+			while (true) {
+				if (reader == null) {
+					if (files.isEmpty()) {
+						return null;
+					}
+					File file = files.remove(0);
+					LOG.info("Replaying {}", file);
+					reader = new CommentLog.Reader(file);
+				}
+				CommentLog.Entry e = reader.next();
+				if (e != null) {
+					if (reader.isHtml() && normalizer != null) {
+						e.comment = normalizer.normalize(e.comment);
+					}
+					return e;
+				}
+				closeReader();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private void closeReader() {
+		if (reader != null) {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				LOG.warn("Closing replay file failed", e);
+			}
+			reader = null;
+		}
+	}
+}
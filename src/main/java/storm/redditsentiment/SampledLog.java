@@ -0,0 +1,66 @@
+package storm.redditsentiment;
+
+import java.util.Map;
+
+/**
+ * Decides which of a component's per tuple log lines are actually logged: at most a few a minute, 
+ * or all of them when the topology's "debug" flag is set (see RedditSentimentTopology).
+ *
+ * Used as "if (sampledLog.sample()) LOG.info(...)", so that skipped lines don't even format their
+ * arguments. Each line logged tells how many were skipped before it.
+ *
+ * Not thread safe. Each component task has its own.
+ */
+class SampledLog {
+
+	public static final String DEBUG = "debug";
+	
+	private static final int DEFAULT_LINES_PER_MINUTE = 6;
+	
+	private final boolean debug;
+	private final int linesPerMinute;
+	
+	private long minuteStart;
+	private int linesThisMinute;
+	private long skipped;
+	private long skippedBeforeLastLine;
+
+	public SampledLog(Map stormConf) {
+		this(Boolean.parseBoolean(String.valueOf(stormConf.get(DEBUG))), DEFAULT_LINES_PER_MINUTE);
+	}
+	
+	public SampledLog(boolean debug, int linesPerMinute) {
+		this.debug = debug;
+		this.linesPerMinute = linesPerMinute;
+	}
+
+	/**
+	 * Whether to log this line.
+	 */
+	public boolean sample() {
+		if (debug) {
+			return true;
+		}
+		
+		long now = System.currentTimeMillis();
+		if (now - minuteStart >= 60000) {
+			minuteStart = now;
+			linesThisMinute = 0;
+		}
+		if (linesThisMinute < linesPerMinute) {
+			linesThisMinute++;
+			skippedBeforeLastLine = skipped;
+			skipped = 0;
+			return true;
+		}
+		skipped++;
+		return false;
+	}
+	
+	/**
+	 * Number of lines skipped before the one just sampled.
+	 */
+	public long skipped() {
+		return skippedBeforeLastLine;
+	}
+}
@@ -15,51 +15,37 @@ import backtype.storm.tuple.Values;
 
 /**
  * A rather dumb and naive sentiment calculator that just sums up the AFINN scores of each word
- * in comment. There's no machine learning involved here. 
+ * and phrase in comment (see LexiconMatcher). There's no machine learning involved here. 
  * Can't recognize linguistic tones such as sarcasm.
  */
 public class SentimentCalculatorBolt extends BaseRichBolt {
 
 	private static final Logger LOG = LoggerFactory.getLogger(SentimentCalculatorBolt.class);
 	
-	private OutputCollector collector;
+	private static final int METRICS_INTERVAL_SECS = 60;
 	
-	// Notice that sentimentData map is a Map<String, Long> here.
-	// Though sentimentData was loaded and added to configuration as a Map<String, Integer>,
-	// when it's received at the bolt end, Storm seems to deserialize Map values as Longs,
-	// probably something to do with clojure data type handling.
-	// Trying to read value from it as a Map<String,Integer> results in "Long cannot be cast to Integer"
-	// cast exceptions.
-	private Map<String, Long> sentimentData;
+	private OutputCollector collector;
 	
 	private String myId;
 	
+	private LatencyMetric scoreLatencyMetric;
+	
+	private SampledLog sampledLog;
+	
 	public void execute(Tuple tuple) {
-		String subreddit = tuple.getStringByField("subreddit");
-		String storyId = tuple.getStringByField("storyid");
-		String storyURL = tuple.getStringByField("storyurl");
-		String storyTitle = tuple.getStringByField("storytitle");
-		String commentId = tuple.getStringByField("commentid");
-		String comment = tuple.getStringByField("comment");
-		long timestamp = tuple.getLongByField("timestamp");
+		CommentEvent event = (CommentEvent) tuple.getValueByField("event");
 		
-		LOG.info("Received {}:{}:{}:{}:{}:[{}]", subreddit, storyId, storyURL, storyTitle, commentId, comment);
+		// Fetch the lexicon for every comment, so that a newly published version is used right away.
+		long start = System.nanoTime();
+		int sentimentScore = SharedLexicon.get().score(event.comment);
+		scoreLatencyMetric.record(System.nanoTime() - start);
 		
-		String[] tokens = comment.split("\\s+");
-		int sentimentScore = 0;
-		for (String t  : tokens) {
-			if (t == null || t.isEmpty()) {
-				continue;
-			}
-			Long value = sentimentData.get(t);
-			if (value != null) {
-				sentimentScore += value;
-			}
+		// The comment text stops here. Summarizers need only the score.
+		CommentEvent scored = event.scored(sentimentScore);
+		collector.emit(tuple, new Values(scored));
+		if (sampledLog.sample()) {
+			LOG.info("Scored {} as {} ({} not logged)", event, sentimentScore, sampledLog.skipped());
 		}
-		collector.emit(tuple, new Values(subreddit, storyId, storyURL, storyTitle, 
-				commentId, comment, sentimentScore, timestamp));
-		LOG.info("Emit {}:{}:{}:{}:{}:{}:[{}]", subreddit, sentimentScore, storyId, storyURL, 
-				storyTitle, commentId, comment);
 		
 		collector.ack(tuple);
 	}
@@ -67,16 +53,20 @@ public class SentimentCalculatorBolt extends BaseRichBolt {
 	public void prepare(Map conf, TopologyContext ctx, OutputCollector collector) {
 		this.collector = collector;
 		this.myId = ctx.getThisComponentId() + "-" + ctx.getThisTaskId();
+		this.sampledLog = new SampledLog(conf);
+		this.scoreLatencyMetric = ctx.registerMetric("scoreNanos", new LatencyMetric(), METRICS_INTERVAL_SECS);
 		
-		this.sentimentData = (Map<String, Long>) conf.get("sentimentData");
-		if (this.sentimentData != null) {
-			LOG.info("SentiCalcBolt " + myId + " has received sentimentData");
+		// The lexicon is loaded once per worker and shared by all calculators in it.
+		try {
+			SharedLexicon.init(conf);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
 		}
+		LOG.info("SentiCalcBolt " + myId + " is using lexicon version " + SharedLexicon.get().version());
 	}
 
 	public void declareOutputFields(OutputFieldsDeclarer declarer) {
-		declarer.declare(new Fields("subreddit", "storyid", "storyurl", "storytitle", 
-				"commentid", "comment", "score", "timestamp"));
+		declarer.declare(new Fields("event"));
 	}
 
 }
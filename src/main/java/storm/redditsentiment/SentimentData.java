@@ -1,6 +1,7 @@
 package storm.redditsentiment;
 
 import java.io.BufferedReader;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.Map;
@@ -12,12 +13,18 @@ import java.util.Map;
 public class SentimentData {
 	
 	public static Map<String, Integer> getSentimentData() throws Exception {
+		return getSentimentData(TestPrototype.class.getClassLoader().getResourceAsStream("AFINN-111.txt"));
+	}
+	
+	/**
+	 * Reads AFINN formatted data - one "word or phrase[TAB]score" per line - and closes the stream.
+	 */
+	public static Map<String, Integer> getSentimentData(InputStream in) throws Exception {
 		
 		BufferedReader reader = null;
 		Map<String, Integer> sentiments = new HashMap<String, Integer>();
 		try {
-			reader = new BufferedReader(new InputStreamReader(
-				TestPrototype.class.getClassLoader().getResourceAsStream("AFINN-111.txt")));
+			reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
 			
 			String line = "";
 			while ((line = reader.readLine()) != null) {
@@ -0,0 +1,185 @@
+package storm.redditsentiment;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.storm.zookeeper.CreateMode;
+import org.apache.storm.zookeeper.KeeperException;
+import org.apache.storm.zookeeper.WatchedEvent;
+import org.apache.storm.zookeeper.Watcher;
+import org.apache.storm.zookeeper.Watcher.Event.EventType;
+import org.apache.storm.zookeeper.Watcher.Event.KeeperState;
+import org.apache.storm.zookeeper.ZooDefs;
+import org.apache.storm.zookeeper.ZooKeeper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The sentiment lexicon of this worker JVM, loaded once and shared by all SentimentCalculatorBolt
+ * executors running in it.
+ *
+ * The lexicon bundled in the topology JAR is loaded initially, or the file given by the "lexiconFile"
+ * topology configuration if any, which is memory mapped.
+ *
+ * Lexicon updates are published to the Lexicon.LEXICON_ZNODE znode (see Lexicon's "publish" command).
+ * Every worker watches that znode and atomically swaps in newer versions, so updating the lexicon
+ * does not need a topology redeploy. Executors pick up the new version with their next comment.
+ * When the watching session expires, a new one is started on a separate thread, retried every
+ * RECONNECT_RETRY_SECS until it succeeds.
+ */
+public class SharedLexicon {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SharedLexicon.class);
+
+	public static final String LEXICON_FILE_CONF = "lexiconFile";
+
+	private static final int RECONNECT_RETRY_SECS = 10;
+
+	private static final AtomicReference<Lexicon> current = new AtomicReference<Lexicon>();
+
+	// Guarded by the class lock, like everything that uses them.
+	private static String connectString;
+	private static ZooKeeper zkClient;
+
+	// Lives as long as the worker, like the lexicon.
+	private static final ScheduledExecutorService reconnector = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "lexicon-reconnector");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/**
+	 * Loads the lexicon and starts watching for updates, if not already done in this JVM.
+	 */
+	public static synchronized void init(Map stormConf) throws Exception {
+		if (current.get() == null) {
+			String file = (String) stormConf.get(LEXICON_FILE_CONF);
+			Lexicon lexicon = (file != null) ? Lexicon.load(new File(file)) : Lexicon.loadBundled();
+			swap(lexicon);
+		}
+
+		if (zkClient == null) {
+			connectString = ZkPublisher.connectString(stormConf);
+			connect();
+		}
+	}
+
+	/**
+	 * The current lexicon. Cheap enough to call for every comment.
+	 */
+	public static Lexicon get() {
+		return current.get();
+	}
+
+	/**
+	 * Publishes an encoded lexicon for all workers of running topologies to pick up.
+	 */
+	public static void publish(String connectString, byte[] encodedLexicon) throws Exception {
+		ZooKeeper zk = new ZooKeeper(connectString, 5000, new Watcher() {
+			public void process(WatchedEvent e) {
+			}
+		});
+		try {
+			createIfMissing(zk, ZkPublisher.ROOT_ZNODE);
+			createIfMissing(zk, Lexicon.LEXICON_ZNODE);
+			zk.setData(Lexicon.LEXICON_ZNODE, encodedLexicon, -1);
+		} finally {
+			zk.close();
+		}
+	}
+
+	private static void createIfMissing(ZooKeeper zk, String path) throws Exception {
+		try {
+			if (zk.exists(path, false) == null) {
+				zk.create(path, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+			}
+		} catch (KeeperException.NodeExistsException ignore) {
+			// Someone else created it in the meantime.
+		}
+	}
+
+	private static synchronized void connect() throws Exception {
+		if (zkClient != null) {
+			// Expired, but still holding its threads and socket until closed.
+			zkClient.close();
+		}
+		zkClient = new ZooKeeper(connectString, 5000, new Watcher() {
+			public void process(WatchedEvent e) {
+				if (e.getType() == EventType.None && e.getState() == KeeperState.SyncConnected) {
+					// Reconnected. Reads the lexicon again in case the last read failed without setting a watch.
+					refresh();
+					
+				} else if (e.getState() == KeeperState.Expired) {
+					// Watches do not survive an expired session. Start a new one, though not on the event 
+					// thread, which the expired client owns.
+					LOG.info("Lexicon watcher session expired. Reconnecting");
+					reconnectLater(0);
+				}
+			}
+		});
+		refresh();
+	}
+
+	private static void reconnectLater(long delaySecs) {
+		reconnector.schedule(new Runnable() {
+			public void run() {
+				try {
+					connect();
+				} catch (Exception e) {
+					LOG.error("Unable to reconnect lexicon watcher. Retrying in " + RECONNECT_RETRY_SECS + " secs", e);
+					reconnectLater(RECONNECT_RETRY_SECS);
+				}
+			}
+		}, delaySecs, TimeUnit.SECONDS);
+	}
+
+	private static final Watcher lexiconWatcher = new Watcher() {
+		public void process(WatchedEvent e) {
+			if (e.getType() != EventType.None) {
+				refresh();
+			}
+		}
+	};
+
+	// Reads the lexicon znode, if it exists, and sets a watch on it again since ZK watches fire only once.
+	private static synchronized void refresh() {
+		try {
+			// exists() sets the watch even if the znode does not exist yet, so its creation is noticed too.
+			if (zkClient.exists(Lexicon.LEXICON_ZNODE, lexiconWatcher) == null) {
+				return;
+			}
+			byte[] data = zkClient.getData(Lexicon.LEXICON_ZNODE, lexiconWatcher, null);
+			if (data == null || data.length == 0) {
+				return;
+			}
+			swap(Lexicon.decode(ByteBuffer.wrap(data)));
+
+		} catch (KeeperException.NoNodeException e) {
+			// Deleted between exists() and getData(). The watch set by exists() is still in place.
+
+		} catch (Exception e) {
+			LOG.error("Unable to read lexicon from " + Lexicon.LEXICON_ZNODE, e);
+		}
+	}
+
+	// Replaces the current lexicon, unless it is the same or a newer version.
+	private static void swap(Lexicon lexicon) {
+		Lexicon prev = current.get();
+		while (prev == null || lexicon.version() > prev.version()) {
+			if (current.compareAndSet(prev, lexicon)) {
+				LOG.info("Using lexicon version {} with {} entries", lexicon.version(), lexicon.size());
+				return;
+			}
+			prev = current.get();
+		}
+	}
+}
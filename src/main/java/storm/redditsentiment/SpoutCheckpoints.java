@@ -0,0 +1,222 @@
+package storm.redditsentiment;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.storm.zookeeper.AsyncCallback;
+import org.apache.storm.zookeeper.CreateMode;
+import org.apache.storm.zookeeper.KeeperException;
+import org.apache.storm.zookeeper.WatchedEvent;
+import org.apache.storm.zookeeper.Watcher;
+import org.apache.storm.zookeeper.ZooDefs;
+import org.apache.storm.zookeeper.ZooKeeper;
+import org.apache.storm.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Per subreddit high water marks of the spout - the largest comment id processed - kept in
+ * a child znode of CHECKPOINTS_ZNODE per subreddit, so that a restarted or rebalanced spout task
+ * does not emit the comments on the feed pages all over again.
+ *
+ * Marks are only updated in memory as comments are processed. flush() writes just the marks that changed
+ * since the last flush, asynchronously, 8 bytes each. A mark whose write fails is flushed again, unless
+ * a newer one has been set since.
+ *
+ * When the session expires, a new one is started on a separate thread, retried every RECONNECT_RETRY_SECS
+ * until it succeeds. Writes fail until then, and are flushed again after.
+ *
+ * Used by its spout task's thread, and by Zookeeper's callback thread when writes complete.
+ */
+public class SpoutCheckpoints {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SpoutCheckpoints.class);
+
+	public static final String CHECKPOINTS_ZNODE = ZkPublisher.ROOT_ZNODE + "/checkpoints";
+
+	private static final int RECONNECT_RETRY_SECS = 10;
+
+	private String connectString;
+
+	// Replaced on the reconnector's thread when the session expires.
+	private volatile ZooKeeper zkClient;
+	private ScheduledExecutorService reconnector;
+	private volatile boolean closed;
+
+	// Marks not yet flushed, and the latest mark of each subreddit. Guarded by this.
+	private final Map<String, Long> dirty = new HashMap<String, Long>();
+	private final Map<String, Long> latest = new HashMap<String, Long>();
+
+	public void init(Map stormConf) throws Exception {
+		this.connectString = ZkPublisher.connectString(stormConf);
+		this.reconnector = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "spout-checkpoints-reconnector");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		connect();
+	}
+
+	// Starts a new session, closing the expired one, and creates the parent znodes if missing.
+	private synchronized void connect() throws Exception {
+		closeClient();
+		zkClient = new ZooKeeper(connectString, 5000, new Watcher() {
+			public void process(WatchedEvent e) {
+				LOG.info("Checkpoints Watcher: {}", e.toString());
+				if (e.getState() == Event.KeeperState.Expired) {
+					// Not reconnected on the event thread, which the expired client owns.
+					reconnectLater(0);
+				}
+			}
+		});
+		createIfMissing(ZkPublisher.ROOT_ZNODE);
+		createIfMissing(CHECKPOINTS_ZNODE);
+	}
+
+	private void reconnectLater(long delaySecs) {
+		try {
+			reconnector.schedule(new Runnable() {
+				public void run() {
+					reconnect();
+				}
+			}, delaySecs, TimeUnit.SECONDS);
+		} catch (RejectedExecutionException e) {
+			// Closed.
+		}
+	}
+
+	private synchronized void reconnect() {
+		if (closed) {
+			return;
+		}
+		try {
+			connect();
+			LOG.info("Checkpointing with a new Zookeeper session");
+		} catch (Exception e) {
+			LOG.warn("Can't start a new Zookeeper session. Retrying in " + RECONNECT_RETRY_SECS + " secs", e);
+			reconnectLater(RECONNECT_RETRY_SECS);
+		}
+	}
+
+	private synchronized void closeClient() {
+		if (zkClient != null) {
+			try {
+				zkClient.close();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * The last checkpointed mark of a subreddit, or -1 if there's none.
+	 */
+	public long load(String subreddit) throws Exception {
+		try {
+			byte[] data = zkClient.getData(path(subreddit), false, null);
+			if (data != null && data.length == 8) {
+				return ByteBuffer.wrap(data).getLong();
+			}
+		} catch (KeeperException.NoNodeException e) {
+			// Never checkpointed.
+		}
+		return -1;
+	}
+
+	public synchronized void mark(String subreddit, long highWaterMark) {
+		dirty.put(subreddit, highWaterMark);
+		latest.put(subreddit, highWaterMark);
+	}
+
+	/**
+	 * Starts writing the marks that changed since the last flush. Does not wait for the writes.
+	 */
+	public synchronized void flush() {
+		ZooKeeper zkClient = this.zkClient;
+		for (Map.Entry<String, Long> e : dirty.entrySet()) {
+			zkClient.setData(path(e.getKey()), encode(e.getValue()), -1, writeCallback, 
+					new Checkpoint(e.getKey(), e.getValue()));
+		}
+		dirty.clear();
+	}
+
+	public synchronized void close() {
+		closed = true;
+		reconnector.shutdownNow();
+		closeClient();
+	}
+
+	// What a write is for, to flush it again if it fails.
+	private static class Checkpoint {
+		final String subreddit;
+		final long highWaterMark;
+
+		Checkpoint(String subreddit, long highWaterMark) {
+			this.subreddit = subreddit;
+			this.highWaterMark = highWaterMark;
+		}
+	}
+
+	// Called back on Zookeeper's thread.
+	private synchronized void failed(Checkpoint checkpoint) {
+		Long newest = latest.get(checkpoint.subreddit);
+		if (!dirty.containsKey(checkpoint.subreddit) && newest != null && newest == checkpoint.highWaterMark) {
+			dirty.put(checkpoint.subreddit, checkpoint.highWaterMark);
+		}
+	}
+
+	private final AsyncCallback.StatCallback writeCallback = new AsyncCallback.StatCallback() {
+		public void processResult(int rc, String path, Object ctx, Stat stat) {
+			KeeperException.Code code = KeeperException.Code.get(rc);
+			Checkpoint checkpoint = (Checkpoint) ctx;
+			if (code == KeeperException.Code.NONODE) {
+				// First checkpoint of this subreddit.
+				zkClient.create(path, encode(checkpoint.highWaterMark), ZooDefs.Ids.OPEN_ACL_UNSAFE, 
+						CreateMode.PERSISTENT, createCallback, checkpoint);
+
+			} else if (code != KeeperException.Code.OK) {
+				// A subreddit that has gone quiet may not get a newer mark for a long time.
+				LOG.warn("Checkpointing {} failed: {}. Retrying with the next flush", path, code);
+				failed(checkpoint);
+			}
+		}
+	};
+
+	private final AsyncCallback.StringCallback createCallback = new AsyncCallback.StringCallback() {
+		public void processResult(int rc, String path, Object ctx, String name) {
+			KeeperException.Code code = KeeperException.Code.get(rc);
+			if (code != KeeperException.Code.OK) {
+				// Including NODEEXISTS, when another task created it in the meantime. The next flush
+				// writes to it then.
+				LOG.warn("Creating checkpoint {} failed: {}. Retrying with the next flush", path, code);
+				failed((Checkpoint) ctx);
+			}
+		}
+	};
+
+	private void createIfMissing(String path) throws Exception {
+		try {
+			if (zkClient.exists(path, false) == null) {
+				zkClient.create(path, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+			}
+		} catch (KeeperException.NodeExistsException ignore) {
+			// Another task created it in the meantime.
+		}
+	}
+
+	private static byte[] encode(long highWaterMark) {
+		return ByteBuffer.allocate(8).putLong(highWaterMark).array();
+	}
+
+	private static String path(String subreddit) {
+		return CHECKPOINTS_ZNODE + "/" + subreddit;
+	}
+}
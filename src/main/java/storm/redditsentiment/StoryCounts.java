@@ -0,0 +1,61 @@
+package storm.redditsentiment;
+
+import java.io.Serializable;
+
+import storm.trident.operation.CombinerAggregator;
+import storm.trident.tuple.TridentTuple;
+
+/**
+ * Comments on a story in one Trident batch, partially aggregated where they were scored before 
+ * they go to the story's SummaryState partition. Also carries the story's URL and title, when 
+ * any of the comments did.
+ */
+public class StoryCounts implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public int comments;
+	public int positiveComments;
+	public int negativeComments;
+	
+	// Of the newest comment.
+	public long timestamp;
+	
+	public String storyURL;
+	public String storyTitle;
+	
+	/**
+	 * Counts scored comments of ("score", "timestamp", "storyurl", "storytitle").
+	 */
+	public static class Counter implements CombinerAggregator<StoryCounts> {
+
+		private static final long serialVersionUID = 1L;
+
+		public StoryCounts init(TridentTuple tuple) {
+			int score = tuple.getInteger(0);
+			StoryCounts counts = new StoryCounts();
+			counts.comments = 1;
+			counts.positiveComments = (score > 0) ? 1 : 0;
+			counts.negativeComments = (score < 0) ? 1 : 0;
+			counts.timestamp = tuple.getLong(1);
+			counts.storyURL = tuple.getString(2);
+			counts.storyTitle = tuple.getString(3);
+			return counts;
+		}
+
+		public StoryCounts combine(StoryCounts c1, StoryCounts c2) {
+			StoryCounts counts = new StoryCounts();
+			counts.comments = c1.comments + c2.comments;
+			counts.positiveComments = c1.positiveComments + c2.positiveComments;
+			counts.negativeComments = c1.negativeComments + c2.negativeComments;
+			counts.timestamp = Math.max(c1.timestamp, c2.timestamp);
+			counts.storyURL = (c1.storyURL != null) ? c1.storyURL : c2.storyURL;
+			counts.storyTitle = (c1.storyTitle != null) ? c1.storyTitle : c2.storyTitle;
+			return counts;
+		}
+
+		public StoryCounts zero() {
+			return new StoryCounts();
+		}
+	}
+}
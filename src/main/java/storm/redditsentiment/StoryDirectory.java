@@ -0,0 +1,121 @@
+package storm.redditsentiment;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import storm.redditsentiment.Rankings.RankedStory;
+
+/**
+ * URLs and titles of recently seen stories, as announced by the spouts on their stories stream,
+ * for filling them into Rankings, which carry only story IDs until then.
+ *
+ * Holds up to a fixed number of stories, dropping the least recently used ones. Stories with
+ * comments in the time window are announced again every few minutes, so one that is dropped
+ * or never announced to this instance gets its title back soon.
+ *
+ * The directory can be written to a snapshot and restored from it (see SummarySnapshots), least recently 
+ * used story first, so that a restarted ranker has the titles of stories that are not announced again.
+ * Snapshot format, all numbers big endian:
+ * <pre>
+ *   int      SNAPSHOT_MAGIC
+ *   byte     SNAPSHOT_VERSION
+ *   int      number of stories
+ *   stories of:
+ *     short + UTF-8  story id, story URL, story title
+ * </pre>
+ */
+class StoryDirectory implements SummarySnapshots.Snapshotted {
+	
+	public static final int SNAPSHOT_MAGIC = 0x52445344; // "RDSD"
+	public static final int SNAPSHOT_VERSION = 1;
+
+	private static final int MAX_STORIES = 100000;
+	
+	private static final String REDDIT_URL = "https://www.reddit.com";
+
+	private static class Story {
+		String storyURL;
+		String storyTitle;
+	}
+
+	private final LinkedHashMap<String, Story> stories = new LinkedHashMap<String, Story>(1024, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Story> eldest) {
+			return size() > MAX_STORIES;
+		}
+	};
+
+	public void put(String storyId, String storyURL, String storyTitle) {
+		Story story = new Story();
+		story.storyURL = storyURL;
+		story.storyTitle = storyTitle;
+		stories.put(storyId, story);
+	}
+
+	/**
+	 * Fills in the URLs and titles of all stories in rankings. Stories not in the directory get
+	 * their reddit short link, and their ID for title.
+	 */
+	public void describe(Rankings rankings) {
+		for (List<RankedStory> ranking : rankings.rankings) {
+			for (RankedStory ranked : ranking) {
+				Story story = stories.get(ranked.storyId);
+				if (story != null) {
+					ranked.storyURL = story.storyURL;
+					ranked.storyTitle = story.storyTitle;
+				} else {
+					ranked.storyURL = REDDIT_URL + "/r/" + ranked.subreddit + "/comments/" + ranked.storyId;
+					ranked.storyTitle = ranked.storyId;
+				}
+			}
+		}
+	}
+
+	public int storyCount() {
+		return stories.size();
+	}
+	
+	/**
+	 * Writes all stories in the snapshot format.
+	 */
+	public void writeSnapshot(ByteBuffer out) {
+		out.putInt(SNAPSHOT_MAGIC);
+		out.put((byte) SNAPSHOT_VERSION);
+		out.putInt(stories.size());
+		for (Map.Entry<String, Story> e : stories.entrySet()) {
+			Summary.writeString(out, e.getKey());
+			Summary.writeString(out, nonNull(e.getValue().storyURL));
+			Summary.writeString(out, nonNull(e.getValue().storyTitle));
+		}
+	}
+	
+	/**
+	 * Adds the stories of a snapshot written by writeSnapshot().
+	 * 
+	 * @return number of stories restored.
+	 */
+	public int restoreSnapshot(ByteBuffer in) {
+		if (in.getInt() != SNAPSHOT_MAGIC) {
+			throw new IllegalArgumentException("Not a story directory snapshot");
+		}
+		int version = in.get();
+		if (version != SNAPSHOT_VERSION) {
+			throw new IllegalArgumentException("Unknown snapshot version " + version);
+		}
+		int count = in.getInt();
+		byte[] scratch = new byte[1024];
+		for (int i = 0; i < count; i++) {
+			String storyId = Summary.readString(in, scratch);
+			String storyURL = Summary.readString(in, scratch);
+			String storyTitle = Summary.readString(in, scratch);
+			put(storyId, storyURL, storyTitle);
+		}
+		return count;
+	}
+	
+	private static String nonNull(String s) {
+		return (s != null) ? s : "";
+	}
+}
@@ -0,0 +1,29 @@
+package storm.redditsentiment;
+
+import java.util.Collections;
+import java.util.List;
+
+import backtype.storm.generated.GlobalStreamId;
+import backtype.storm.grouping.CustomStreamGrouping;
+import backtype.storm.task.WorkerTopologyContext;
+
+/**
+ * Partitions a stream of CommentEvents by story, like a fields grouping on the story ID would, 
+ * so that each story's comments are always counted by the same summarizer.
+ */
+public class StoryGrouping implements CustomStreamGrouping {
+
+	private static final long serialVersionUID = 1L;
+	
+	private List<Integer> targetTasks;
+
+	public void prepare(WorkerTopologyContext context, GlobalStreamId stream, List<Integer> targetTasks) {
+		this.targetTasks = targetTasks;
+	}
+
+	public List<Integer> chooseTasks(int taskId, List<Object> values) {
+		CommentEvent event = (CommentEvent) values.get(0);
+		int i = (event.storyId.hashCode() & Integer.MAX_VALUE) % targetTasks.size();
+		return Collections.singletonList(targetTasks.get(i));
+	}
+}
@@ -0,0 +1,171 @@
+package storm.redditsentiment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import storm.redditsentiment.Summary.StoryData;
+
+/**
+ * Stories ranked by one of their comment counts in one of the time windows, highest first, or
+ * lowest first for finding the story to replace in Summary's approximate mode.
+ *
+ * Kept as an indexed binary max-heap: every story remembers its position in the heap, so when its count
+ * changes it's moved up or down in place in O(log S), S being the number of stories. Reading the top N
+ * stories walks only the top of the heap and costs O(N^2), independent of S.
+ */
+class StoryRanking {
+
+	// Metrics stories can be ranked by.
+	public static final int COMMENTS = 0;
+	public static final int POSITIVE = 1;
+	public static final int NEGATIVE = 2;
+
+	public static final int METRICS = 3;
+
+	private final int window;
+	private final int metric;
+	
+	private final boolean lowestFirst;
+	
+	// Of this ranking's position in each story's rankPositions.
+	private final int index;
+
+	private StoryData[] heap = new StoryData[256];
+	private int size;
+
+	public StoryRanking(int window, int metric, int index, boolean lowestFirst) {
+		this.window = window;
+		this.metric = metric;
+		this.index = index;
+		this.lowestFirst = lowestFirst;
+	}
+
+	public void add(StoryData story) {
+		if (size == heap.length) {
+			heap = Arrays.copyOf(heap, size * 2);
+		}
+		heap[size] = story;
+		story.rankPositions[index] = size;
+		size++;
+		siftUp(size - 1);
+	}
+
+	public void remove(StoryData story) {
+		int pos = story.rankPositions[index];
+		if (pos < 0) {
+			return;
+		}
+		story.rankPositions[index] = -1;
+
+		size--;
+		if (pos == size) {
+			heap[size] = null;
+			return;
+		}
+
+		// Move the last story into the hole and restore heap order from there.
+		StoryData last = heap[size];
+		heap[size] = null;
+		place(last, pos);
+		siftUp(pos);
+		siftDown(last.rankPositions[index]);
+	}
+
+	/**
+	 * Repositions a story after its count changed.
+	 */
+	public void changed(StoryData story) {
+		int pos = story.rankPositions[index];
+		if (pos < 0) {
+			return;
+		}
+		siftUp(pos);
+		siftDown(story.rankPositions[index]);
+	}
+
+	/**
+	 * The top N stories, highest (or lowest) count first.
+	 */
+	public List<StoryData> top(int n) {
+		List<StoryData> result = new ArrayList<StoryData>(Math.min(n, size));
+		if (size == 0 || n <= 0) {
+			return result;
+		}
+
+		// Best first walk from the root. The next story in rank order is always one of the candidates:
+		// the heap positions whose parent is already in the result.
+		int[] candidates = new int[n + 2];
+		int count = 0;
+		candidates[count++] = 0;
+		while (result.size() < n && count > 0) {
+			int best = 0;
+			for (int i = 1; i < count; i++) {
+				if (value(heap[candidates[i]]) > value(heap[candidates[best]])) {
+					best = i;
+				}
+			}
+			int pos = candidates[best];
+			candidates[best] = candidates[--count];
+			result.add(heap[pos]);
+
+			int child = 2 * pos + 1;
+			if (child < size) {
+				candidates[count++] = child;
+			}
+			if (child + 1 < size) {
+				candidates[count++] = child + 1;
+			}
+		}
+		return result;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	// The heap keeps the highest value on top.
+	private int value(StoryData story) {
+		int count = story.count(window, metric);
+		return lowestFirst ? -count : count;
+	}
+
+	private void siftUp(int pos) {
+		StoryData story = heap[pos];
+		int value = value(story);
+		while (pos > 0) {
+			int parent = (pos - 1) / 2;
+			if (value(heap[parent]) >= value) {
+				break;
+			}
+			place(heap[parent], pos);
+			pos = parent;
+		}
+		place(story, pos);
+	}
+
+	private void siftDown(int pos) {
+		StoryData story = heap[pos];
+		int value = value(story);
+		while (true) {
+			int child = 2 * pos + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && value(heap[child + 1]) > value(heap[child])) {
+				child++;
+			}
+			if (value(heap[child]) <= value) {
+				break;
+			}
+			place(heap[child], pos);
+			pos = child;
+		}
+		place(story, pos);
+	}
+
+	private void place(StoryData story, int pos) {
+		heap[pos] = story;
+		story.rankPositions[index] = pos;
+	}
+}
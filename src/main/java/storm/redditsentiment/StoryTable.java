@@ -0,0 +1,106 @@
+package storm.redditsentiment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import storm.redditsentiment.Rankings.RankedStory;
+
+/**
+ * An immutable copy of the counts of all stories of a Summary, for answering top N queries on other threads
+ * while the Summary's owner carries on updating it. It's handed over by reference, so readers never lock.
+ *
+ * A query scans every story, and keeps the top N in a sorted array. That's O(S * N) at worst for S stories,
+ * but a story rarely makes it into the top N once the scan is under way, so it's closer to O(S).
+ */
+class StoryTable {
+
+	// When the copy was taken.
+	final long timestamp;
+
+	// Lengths of the time windows, shortest first.
+	private final long[] windowMillis;
+
+	private final String[] subreddits;
+	private final String[] storyIds;
+
+	// Count of each story, window and StoryRanking metric, at (story * windows + window) * METRICS + metric.
+	private final int[] counts;
+	// Approximate mode errors, laid out like counts. Null if the summary is exact.
+	private final int[] errors;
+
+	StoryTable(long timestamp, long[] windowMillis, String[] subreddits, String[] storyIds, int[] counts,
+			int[] errors) {
+		this.timestamp = timestamp;
+		this.windowMillis = windowMillis.clone();
+		this.subreddits = subreddits;
+		this.storyIds = storyIds;
+		this.counts = counts;
+		this.errors = errors;
+	}
+
+	public int size() {
+		return storyIds.length;
+	}
+
+	/**
+	 * Index of the window of the given length, or -1 if there's no such window.
+	 */
+	public int window(int minutes) {
+		for (int window = 0; window < windowMillis.length; window++) {
+			if (windowMillis[window] == minutes * WindowCounter.MINUTE_MILLIS) {
+				return window;
+			}
+		}
+		return -1;
+	}
+
+	public long[] windowMillis() {
+		return windowMillis.clone();
+	}
+
+	/**
+	 * The stories with the highest counts of a StoryRanking metric in a window, highest first. Stories with
+	 * no comments of that metric in the window are left out.
+	 *
+	 * @param subreddit only stories of this subreddit, ignoring case, or all stories if null.
+	 */
+	public List<RankedStory> top(String subreddit, int window, int metric, int topN) {
+		if (topN <= 0) {
+			return new ArrayList<RankedStory>();
+		}
+		int stride = windowMillis.length * StoryRanking.METRICS;
+		int offset = window * StoryRanking.METRICS + metric;
+
+		// Indexes of the top stories so far, highest count first.
+		int[] top = new int[topN];
+		int found = 0;
+		for (int story = 0; story < storyIds.length; story++) {
+			int count = counts[story * stride + offset];
+			if (count == 0 || (found == topN && count <= counts[top[found - 1] * stride + offset])) {
+				continue;
+			}
+			if (subreddit != null && !subreddit.equalsIgnoreCase(subreddits[story])) {
+				continue;
+			}
+			int i = (found < topN) ? found++ : found - 1;
+			while (i > 0 && counts[top[i - 1] * stride + offset] < count) {
+				top[i] = top[i - 1];
+				i--;
+			}
+			top[i] = story;
+		}
+
+		List<RankedStory> result = new ArrayList<RankedStory>(found);
+		for (int i = 0; i < found; i++) {
+			RankedStory ranked = new RankedStory();
+			ranked.subreddit = subreddits[top[i]];
+			ranked.storyId = storyIds[top[i]];
+			ranked.count = counts[top[i] * stride + offset];
+			ranked.error = (errors != null) ? errors[top[i] * stride + offset] : 0;
+			// Not copied, it would cost a scan of every story's buckets.
+			ranked.oldestCommentTimestamp = -1;
+			result.add(ranked);
+		}
+		return result;
+	}
+}
@@ -1,23 +1,29 @@
 package storm.redditsentiment;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.HashSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
-import org.jsoup.Jsoup;
-import org.jsoup.safety.Whitelist;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.rometools.rome.feed.synd.SyndContent;
 import com.rometools.rome.feed.synd.SyndEntry;
-import com.rometools.rome.feed.synd.SyndFeed;
-import com.rometools.rome.io.SyndFeedInput;
-import com.rometools.rome.io.XmlReader;
 
+import backtype.storm.metric.api.CountMetric;
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.metric.api.MultiCountMetric;
 import backtype.storm.spout.SpoutOutputCollector;
 import backtype.storm.task.TopologyContext;
 import backtype.storm.topology.OutputFieldsDeclarer;
@@ -25,172 +31,438 @@ import backtype.storm.topology.base.BaseRichSpout;
 import backtype.storm.tuple.Fields;
 import backtype.storm.tuple.Values;
 
-// Poll the feed URL every 30 seconds, get list of entries, discard
-// duplicates already processed in 5 previous runs, and emit remaining entries. 
+// Poll the comment feeds of subreddits, get list of entries, discard
+// duplicates already processed in the last hour, and emit remaining entries. 
+// Each subreddit is polled more or less often depending on how many of its entries were new, 
+// within a limit on requests per minute. See PollScheduler.
+// Polling is done by FeedFetchers in the background, so a slow feed never blocks the spout.
+//
+// The largest comment id of each subreddit below which every emitted comment has been acked is checkpointed
+// to Zookeeper every 30 secs, so that a restarted spout task does not emit those comments again, but does
+// emit again the ones still pending when it stopped. See SpoutCheckpoints.
+//
+// Comment HTML is turned into plain text by an HtmlNormalizer, unless that's left to NormalizerBolts.
+// Comments are emitted as CommentEvents, which carry just the subreddit and story ID. Story URLs and
+// titles are emitted separately on the "stories" stream, once per story, for the ranker.
+//
+// Emitted comments are tracked until acked. Failed ones are emitted again, up to 3 times.
+//
+// With "recordDir" set, emitted comments are also appended to a CommentLog file per task, 
+// which ReplayCommentsSpout can replay without network access. Comments left to NormalizerBolts
+// are recorded as HTML, and the file says so.
+//
+// A single spout component handles all subreddits: each task takes its share of the "subreddits" 
+// list by task index, so the number of spout executors does not grow with the number of subreddits.
 public class SubredditCommentsSpout extends BaseRichSpout {
 	
 	private static final Logger LOG = LoggerFactory.getLogger(SubredditCommentsSpout.class);
 	
+	private static final long CHECKPOINT_INTERVAL_MILLIS = 30000;
+	
+	// Times a failed comment is emitted again before giving up on it.
+	private static final int MAX_RETRIES = 3;
+	
+	private static final int METRICS_INTERVAL_SECS = 60;
+	
+	// Default limit on feed requests per minute of all spout tasks together.
+	private static final int DEFAULT_REQUESTS_PER_MINUTE = 600;
+	
+	// Stream of story URLs and titles, for RankerBolt. Comments carry only story IDs.
+	public static final String STORIES_STREAM = "stories";
+	
+	static final long REANNOUNCE_INTERVAL_MILLIS = 600000;
+	static final int MAX_ANNOUNCED_STORIES = 10000;
+	
+	// Config key that, if true, has comments emitted as they are in the feed, HTML and all, for NormalizerBolts.
+	public static final String HTML_COMMENTS = "htmlComments";
+	
+	// Config key of a directory to record emitted comments to, for ReplayCommentsSpout.
+	public static final String RECORD_DIR = "recordDir";
+	
 	private SpoutOutputCollector collector;
-	private String subreddit;
-	private URL subredditCommentsfeedURL;
-	private ProcessedHistory history;
-	private long lastFetchTimestamp = 0;
+	
+	// Fetchers and processed comment histories of this task's subreddits.
+	private List<FeedFetcher> fetchers;
+	private Map<String, ProcessedHistory> histories;
+	
+	// Fetches of all of this task's subreddits.
+	private BlockingQueue<FeedFetcher.Fetch> fetches;
+	
+	private PollScheduler scheduler;
+	
+	private SpoutCheckpoints checkpoints;
+	private long lastCheckpointTimestamp;
+	
+	// Decoded ids (see ProcessedHistory.decode) of each subreddit's emitted comments not yet acked, 
+	// which the checkpointed mark must stay below, and the last mark of each subreddit.
+	private Map<String, TreeSet<Long>> unacked;
+	private Map<String, Long> marks;
+	
+	// Emitted comments not yet acked or failed, by message id, and failed ones waiting to be emitted again.
+	private Map<String, PendingComment> pending;
+	private Deque<String> replays;
+	
+	// When stories were last announced on the stories stream, least recently announced first.
+	private LinkedHashMap<String, Long> announcedStories;
+	
+	private LatencyMetric completeLatencyMetric;
+	private LatencyMetric fetchLatencyMetric;
+	private MultiCountMetric fetchedEntriesMetric;
+	private MultiCountMetric dupeEntriesMetric;
+	private CountMetric replayedCommentsMetric;
+	private CountMetric failedCommentsMetric;
+	
+	private SampledLog sampledLog;
+	
+	// Null when comments are emitted as HTML, for NormalizerBolts.
+	private HtmlNormalizer normalizer;
+	
+	// Only when recording, for ReplayCommentsSpout.
+	private CommentLog.Writer recording;
+	
+	private static class PendingComment {
+		String subreddit;
+		long id;
+		Values values;
+		long emitTimestamp;
+		int retries;
+	}
+	
+	public static String feedURL(String subreddit) {
+		return "https://www.reddit.com/r/" + subreddit + "/comments/.rss";
+	}
+	
+	// An entry.link has the syntax:
+	//	/r/[SUBREDDIT]/comments/[STORY-ID]/[STORY-PATH]/[COMMENT-ID]
+	// The story URL is everything except the [COMMENT-ID] at the end.
+	static String storyURL(SyndEntry entry) {
+		String link = entry.getLink();
+		return link.substring(0, link.lastIndexOf("/")); 
+	}
+	
+	static String storyId(String storyURL) {
+		String[] parts = storyURL.split("/");
+		return parts[4];
+	}
+	
+	// Story title can be extracted from entry.title which has the syntax:
+	//	[AUTHOR] on [STORY TITLE]
+	static String storyTitle(SyndEntry entry) {
+		String title = entry.getTitle();
+		String titlePrefix = entry.getAuthor() + " on ";
+		return title.substring(titlePrefix.length(), title.length());
+	}
+	
+	/**
+	 * A task's share of a list of things, such as subreddits, split among the tasks of its component by task index.
+	 */
+	static <T> List<T> taskShare(List<T> all, TopologyContext ctx) {
+		int taskCount = ctx.getComponentTasks(ctx.getThisComponentId()).size();
+		List<T> share = new ArrayList<T>();
+		for (int i = ctx.getThisTaskIndex(); i < all.size(); i += taskCount) {
+			share.add(all.get(i));
+		}
+		return share;
+	}
 	
 	public void open(Map conf, TopologyContext ctx, SpoutOutputCollector collector) {
 		this.collector = collector;
-		this.history = new ProcessedHistory();
-		this.subreddit = (String) conf.get("subreddit");
 		
+		List<String> subreddits = (List<String>) conf.get(RedditSentimentTopology.SUBREDDITS);
+		int taskCount = ctx.getComponentTasks(ctx.getThisComponentId()).size();
+		int taskIndex = ctx.getThisTaskIndex();
+		
+		List<String> mySubreddits = taskShare(subreddits, ctx);
+		LOG.info("Spout task {} of {} subreddits:{}", taskIndex, taskCount, mySubreddits);
+		
+		// This task's share of the request budget.
+		Number requestsPerMinute = (Number) conf.get("feedRequestsPerMinute");
+		this.scheduler = new PollScheduler(
+				(requestsPerMinute != null ? requestsPerMinute.doubleValue() : DEFAULT_REQUESTS_PER_MINUTE) / taskCount);
+		
+		// How long comments are remembered after they drop off a feed, and optionally, how many comments
+		// per subreddit to size approximate duplicate detection for, for very long windows.
+		Number dedupWindowMinutes = (Number) conf.get("dedupWindowMinutes");
+		long dedupWindowMillis = (dedupWindowMinutes != null) ? dedupWindowMinutes.longValue() * 60000L
+				: ProcessedHistory.DEFAULT_WINDOW_MILLIS;
+		Number approximateIds = (Number) conf.get("dedupApproximateIds");
+		int dedupApproximateIds = (approximateIds != null) ? approximateIds.intValue() : 0;
+		
+		this.announcedStories = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+				return size() > MAX_ANNOUNCED_STORIES;
+			}
+		};
+		
+		this.sampledLog = new SampledLog(conf);
+		
+		if (!Boolean.TRUE.equals(conf.get(HTML_COMMENTS))) {
+			this.normalizer = new HtmlNormalizer();
+		}
+		
+		// Record emitted comments to a file per task, if asked to.
+		String recordDir = (String) conf.get(RECORD_DIR);
+		if (recordDir != null) {
+			File recordFile = new File(recordDir, "comments-" + taskIndex + ".log");
+			try {
+				this.recording = new CommentLog.Writer(recordFile, normalizer == null);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			LOG.info("Recording comments to {}", recordFile);
+		}
+		
+		this.pending = new HashMap<String, PendingComment>();
+		this.replays = new ArrayDeque<String>();
+		
+		this.completeLatencyMetric = ctx.registerMetric("completeLatencyMillis", new LatencyMetric(), 
+				METRICS_INTERVAL_SECS);
+		this.fetchLatencyMetric = ctx.registerMetric("fetchLatencyMillis", new LatencyMetric(), 
+				METRICS_INTERVAL_SECS);
+		this.fetchedEntriesMetric = ctx.registerMetric("fetchedEntries", new MultiCountMetric(), 
+				METRICS_INTERVAL_SECS);
+		this.dupeEntriesMetric = ctx.registerMetric("dupeEntries", new MultiCountMetric(), 
+				METRICS_INTERVAL_SECS);
+		this.replayedCommentsMetric = ctx.registerMetric("replayedComments", new CountMetric(), 
+				METRICS_INTERVAL_SECS);
+		this.failedCommentsMetric = ctx.registerMetric("failedComments", new CountMetric(), 
+				METRICS_INTERVAL_SECS);
+		ctx.registerMetric("pendingComments", new IMetric() {
+			public Object getValueAndReset() {
+				return pending.size();
+			}
+		}, METRICS_INTERVAL_SECS);
+		
+		this.checkpoints = new SpoutCheckpoints();
 		try {
-			this.subredditCommentsfeedURL = new URL((String)conf.get("feedURL"));
-		} catch (MalformedURLException e) {
+			this.checkpoints.init(conf);
+		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
-		LOG.info("Spout subreddit:{} feedURL:{}", this.subreddit, this.subredditCommentsfeedURL);
 		
-		if (conf.containsKey("sentimentData")) {
-			LOG.info("Spouts can also see sentimentData");
+		this.fetches = new ArrayBlockingQueue<FeedFetcher.Fetch>(Math.max(4, 2 * mySubreddits.size()));
+		this.fetchers = new ArrayList<FeedFetcher>();
+		this.histories = new HashMap<String, ProcessedHistory>();
+		this.unacked = new HashMap<String, TreeSet<Long>>();
+		this.marks = new HashMap<String, Long>();
+		for (int i = 0; i < mySubreddits.size(); i++) {
+			String subreddit = mySubreddits.get(i);
+			URL feedURL;
+			try {
+				feedURL = new URL(feedURL(subreddit));
+			} catch (MalformedURLException e) {
+				throw new RuntimeException(e);
+			}
+			
+			FeedFetcher fetcher = new FeedFetcher(subreddit, feedURL, PollScheduler.INITIAL_INTERVAL_MILLIS, 
+					fetches, scheduler);
+			fetchers.add(fetcher);
+			ProcessedHistory history = new ProcessedHistory(dedupWindowMillis, dedupApproximateIds);
+			try {
+				// Don't emit again what was processed before a restart or rebalance.
+				long highWaterMark = checkpoints.load(subreddit);
+				history.restore(highWaterMark);
+				marks.put(subreddit, highWaterMark);
+				LOG.info("Restored {} high water mark {}", subreddit, highWaterMark);
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+			histories.put(subreddit, history);
+			unacked.put(subreddit, new TreeSet<Long>());
+			
+			// Spread the first polls over the interval, rather than hitting reddit with all of them at once.
+			scheduler.add(subreddit, fetcher, i * PollScheduler.INITIAL_INTERVAL_MILLIS / mySubreddits.size());
+		}
+	}
+	
+	@Override
+	public void close() {
+		for (FeedFetcher fetcher : fetchers) {
+			fetcher.stop();
+		}
+		checkpoints.flush();
+		checkpoints.close();
+		if (recording != null) {
+			try {
+				recording.close();
+			} catch (IOException e) {
+				LOG.warn("Closing recording failed", e);
+			}
 		}
 	}
 
 	public void nextTuple() {
 		
-		// Fetch feeds only every 30 secs.
-		long curtime = System.currentTimeMillis();
-		if (this.lastFetchTimestamp != 0) {
-			if (curtime - this.lastFetchTimestamp < 30000) {
-				// A Spout's nextTuple() is called continuously in a loop by Storm. If there's nothing to do,
-				// just exit the method so Storm can do other things like acking processed messages.
-				return;
+		long now = System.currentTimeMillis();
+		if (now - lastCheckpointTimestamp >= CHECKPOINT_INTERVAL_MILLIS) {
+			checkpoints.flush();
+			if (recording != null) {
+				try {
+					recording.flush();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
 			}
+			lastCheckpointTimestamp = now;
 		}
-		LOG.info("Fetching comments for " + subreddit + " at " + curtime);
 		
-		SyndFeedInput input = new SyndFeedInput();
-		SyndFeed feed = null;
-		try {
-			feed = input.build(new XmlReader(this.subredditCommentsfeedURL));
-		} catch (Exception e) {
-			throw new RuntimeException(e);
+		// Failed comments go first.
+		String replayId = replays.poll();
+		if (replayId != null) {
+			PendingComment p = pending.get(replayId);
+			p.emitTimestamp = now;
+			collector.emit(p.values, replayId);
+			replayedCommentsMetric.incr();
+			return;
+		}
+		
+		// Feeds are fetched in the background by the fetchers, when the scheduler says.
+		FeedFetcher.Fetch fetch = fetches.poll();
+		if (fetch == null) {
+			// A Spout's nextTuple() is called continuously in a loop by Storm. If there's nothing to do,
+			// just exit the method so Storm can do other things like acking processed messages.
+			return;
 		}
-		this.lastFetchTimestamp = System.currentTimeMillis();
-		LOG.info("Fetched " + feed.getEntries().size() + " comments for " + subreddit + " at " + this.lastFetchTimestamp);
 		
-		history.startBatch();
+		String subreddit = fetch.name;
+		ProcessedHistory history = histories.get(subreddit);
 		
-		for (SyndEntry s : feed.getEntries()) {
+		fetchLatencyMetric.record(fetch.latencyMillis);
+		fetchedEntriesMetric.scope(subreddit).incrBy(fetch.entries.size());
+		
+		int newEntries = 0;
+		for (SyndEntry s : fetch.entries) {
 			String commentId = s.getUri();
-			if (history.contains(commentId)) {
-				LOG.info("Skip dupe " + subreddit + ":" + commentId);
+			if (!history.isNew(commentId, fetch.timestamp)) {
 				continue;
 			}
-			
-			// An entry.link has the syntax:
-			//	/r/[SUBREDDIT]/comments/[STORY-ID]/[STORY-PATH]/[COMMENT-ID]
-			// We extract the story ID and story URL (that is everything except the [COMMENT-ID] at the end.
-			// 
-			// Story title can be extracted from entry.title which has the syntax:
-			//	[AUTHOR] on [STORY TITLE]
+			newEntries++;
 			
 			List<SyndContent> contents = s.getContents();
 			if (contents != null && contents.size() > 0) {
 				
-				String link = s.getLink();
-				String storyURL = link.substring(0, link.lastIndexOf("/")); 
-				String[] parts = storyURL.split("/");
-				String storyId = parts[4];
-				
-				String title = s.getTitle();
-				String titlePrefix = s.getAuthor() + " on ";
-				String storyTitle = title.substring(titlePrefix.length(), title.length());
+				String storyURL = storyURL(s);
+				String storyId = storyId(storyURL);
+				String storyTitle = storyTitle(s);
 				
 				SyndContent cnt = contents.get(0);
 				String comment = cnt.getValue();
-				comment = Jsoup.clean(comment, Whitelist.none());
-				comment = comment.replaceAll("\\p{Punct}", "");
-				LOG.info("Emit {}:{}:{}:{}:{}:[{}]", subreddit, storyId, storyURL, storyTitle, commentId, comment);
-				collector.emit(
-						new Values(subreddit, storyId, storyURL, storyTitle, commentId, comment, this.lastFetchTimestamp), 
-						commentId);
+				if (normalizer != null) {
+					comment = normalizer.normalize(comment);
+				}
+				announceStory(subreddit, storyId, storyURL, storyTitle, now);
+				
+				if (sampledLog.sample()) {
+					LOG.info("Emit {}:{}:{}:[{}] ({} not logged)", subreddit, storyId, commentId, comment, 
+							sampledLog.skipped());
+				}
+				emit(subreddit, commentId, new Values(CommentEvent.unscored(subreddit, storyId, comment, fetch.timestamp)));
+				if (recording != null) {
+					record(fetch.timestamp, subreddit, storyId, commentId, storyURL, storyTitle, comment);
+				}
 			}
-			
-			history.add(commentId);
-			
 		}
 		
+		dupeEntriesMetric.scope(subreddit).incrBy(fetch.entries.size() - newEntries);
+		
+		checkpoint(subreddit);
+		
+		// The more of them were new, the sooner this subreddit is polled again.
+		scheduler.fetched(subreddit, newEntries, fetch.entries.size());
 	}
 
-	public void declareOutputFields(OutputFieldsDeclarer declarer) {
-		declarer.declare(new Fields("subreddit", "storyid", "storyurl", 
-				"storytitle", "commentid", "comment", "timestamp"));
+	// Emits a story's URL and title on the stories stream, the first time it's seen, 
+	// and again every so often in case the ranker restarted meanwhile.
+	private void announceStory(String subreddit, String storyId, String storyURL, String storyTitle, long now) {
+		Long lastAnnounced = announcedStories.get(storyId);
+		if (lastAnnounced != null && now - lastAnnounced < REANNOUNCE_INTERVAL_MILLIS) {
+			return;
+		}
+		announcedStories.put(storyId, now);
+		collector.emit(STORIES_STREAM, new Values(subreddit, storyId, storyURL, storyTitle));
 	}
 
-	/**
-	 * 
-	 * Keeps track of comments which are already processed, to avoid duplication.
-	 * 
-	 * Implementation:
-	 * - Maintains history of 5 previous fetches in chronological order.
-	 * 
-	 * - When a comment is received, the previous batch is checked.
-	 *   If found in that batch, spout does not process it again.
-	 *   If not found, then the batch previous to previous is checked.
-	 *   ...and so on till the first batch 
-	 *   
-	 * - If it's not in any of the batches, then it's processed.
-	 * 
-	 * - Alternate implementation using timestamps is probably more reliable,
-	 *   but not worth the effort.
-	 */
-	class ProcessedHistory {
-		
-		// Array of 5 Sets corresponding to previous 5 feed fetches.
-		// Each is a Set of the message IDs in that batch.
-		// 1st element in array is the last fetched batch.
-		// 2nd element is the batch fetched earlier to that.
-		// ...
-		// Last element is the oldest batch in history.
-		// As a new batch is started, the oldest batch is discarded, all 
-		// the other batches are moved down 1 index, and new batch is inserted into
-		// 1st Set.
-		
-		private Set[] batches = new Set[5];
-		private int oldestBatch = -1; 
-		
-		public void startBatch() {
-			if (oldestBatch >= 0) {
-				
-				// If oldest batch is already the last batch that is discarded,
-				// then just mark the second oldest batch as oldest.
-				if (oldestBatch == batches.length - 1) {
-					oldestBatch = oldestBatch - 1;
-				}
-				
-				// Move every batch down one index.
-				for (int i = oldestBatch; i >= 0; i--) {
-					batches[i+1] = batches[i];  
-				}
-			}
-			
-			// Advance the oldestBatch by 1 index.
-			oldestBatch += 1;
-			
-			// Start the new batch.
-			batches[0] = new HashSet<String>();
+	private void record(long timestamp, String subreddit, String storyId, String commentId, 
+			String storyURL, String storyTitle, String comment) {
+		CommentLog.Entry e = new CommentLog.Entry();
+		e.timestamp = timestamp;
+		e.subreddit = subreddit;
+		e.storyId = storyId;
+		e.commentId = commentId;
+		e.storyURL = storyURL;
+		e.storyTitle = storyTitle;
+		e.comment = comment;
+		try {
+			recording.append(e);
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
 		}
+	}
+
+	private void emit(String subreddit, String commentId, Values values) {
+		PendingComment p = new PendingComment();
+		p.subreddit = subreddit;
+		p.id = ProcessedHistory.decode(commentId);
+		p.values = values;
+		p.emitTimestamp = System.currentTimeMillis();
+		pending.put(commentId, p);
+		unacked.get(subreddit).add(p.id);
 		
-		public boolean contains(String commentId) {
-			for (int i = 0; i <= oldestBatch; i++) {
-				if (batches[i].contains(commentId)) {
-					return true;
-				}
-			}
-			return false;
-		}
+		collector.emit(values, commentId);
+	}
+	
+	// Marks a subreddit's comments as processed up to just below its oldest pending one, or up to the 
+	// largest one seen if none are pending. Ids that are not base36 (negative) are never checkpointed.
+	// Marks never move backwards, as they would when a comment older than the last mark is emitted late.
+	private void checkpoint(String subreddit) {
+		TreeSet<Long> pendingIds = unacked.get(subreddit);
+		Long oldestPending = pendingIds.ceiling(0L);
+		long mark = (oldestPending != null) ? oldestPending - 1 : histories.get(subreddit).highWaterMark();
 		
-		public void add(String commentId) {
-			batches[0].add(commentId);
+		Long lastMark = marks.get(subreddit);
+		if (lastMark == null || mark > lastMark) {
+			marks.put(subreddit, mark);
+			checkpoints.mark(subreddit, mark);
 		}
 	}
+	
+	// The comment is done with, one way or the other.
+	private void done(PendingComment p) {
+		unacked.get(p.subreddit).remove(p.id);
+		checkpoint(p.subreddit);
+	}
+	
+	@Override
+	public void ack(Object msgId) {
+		PendingComment p = pending.remove(msgId);
+		if (p != null) {
+			completeLatencyMetric.record(System.currentTimeMillis() - p.emitTimestamp);
+			done(p);
+		}
+	}
+	
+	@Override
+	public void fail(Object msgId) {
+		PendingComment p = pending.get(msgId);
+		if (p == null) {
+			return;
+		}
+		if (p.retries < MAX_RETRIES) {
+			p.retries++;
+			replays.add((String) msgId);
+			
+		} else {
+			LOG.warn("Giving up on comment {} after {} retries", msgId, MAX_RETRIES);
+			pending.remove(msgId);
+			failedCommentsMetric.incr();
+			// Not emitted again after a restart either.
+			done(p);
+		}
+	}
+
+	public void declareOutputFields(OutputFieldsDeclarer declarer) {
+		declarer.declare(new Fields("event"));
+		declarer.declareStream(STORIES_STREAM, new Fields("subreddit", "storyid", "storyurl", "storytitle"));
+	}
 }
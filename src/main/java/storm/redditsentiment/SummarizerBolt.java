@@ -5,62 +5,90 @@ import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import backtype.storm.metric.api.CountMetric;
+import backtype.storm.metric.api.IMetric;
 import backtype.storm.task.OutputCollector;
 import backtype.storm.task.TopologyContext;
 import backtype.storm.topology.OutputFieldsDeclarer;
 import backtype.storm.topology.base.BaseRichBolt;
+import backtype.storm.tuple.Fields;
 import backtype.storm.tuple.Tuple;
+import backtype.storm.tuple.Values;
 
 /**
  * Receive sentiment scored comments from SentimentCalculators
  * and use Summary class to maintain a running count of comments and sentiments 
- * for last 1 hour against each story. 
+ * in each time window (5 minutes, 1 hour and 24 hours by default) against each story. 
+ * 
+ * Summarizers are partitioned by story ID, each one counting only its own share of stories.
+ * Every few seconds each emits the top N lists of its partition to RankerBolt, which merges them
+ * into the overall top N lists. 
+ * 
+ * Optionally, each also answers ad-hoc top N queries of its partition over HTTP (see QueryServer).
  *
  */
 public class SummarizerBolt extends BaseRichBolt {
 	
 	private static final Logger LOG = LoggerFactory.getLogger(SummarizerBolt.class);
 	
+	// Length of the top N lists emitted to the ranker. 
+	// Same as the published lists, since the global top N is always among the partitions' top Ns.
+	public static final int TOP_N = 5;
+	
+	private static final int TICK_INTERVAL_SECS = 10;
+	private static final int METRICS_INTERVAL_SECS = 60;
+	
 	private OutputCollector collector;
 	private String myId;
 	
 	private Summary summary;
-	private ZkPublisher publisher;
-	private long lastPublishedTimestamp; 
+	
+	// Null unless snapshots are configured.
+	private SummarySnapshots snapshots;
+	
+	// Null unless queries are configured.
+	private QueryServer queryServer;
+	
+	private CountMetric evictedStoriesMetric;
+	
+	private SampledLog sampledLog;
 	
 	public void execute(Tuple tuple) {
-		String subreddit = tuple.getStringByField("subreddit");
-		String storyId = tuple.getStringByField("storyid");
-		String storyURL = tuple.getStringByField("storyurl");
-		String storyTitle = tuple.getStringByField("storytitle");
-		String commentId = tuple.getStringByField("commentid");
-		String comment = tuple.getStringByField("comment");
-		int sentimentScore = tuple.getIntegerByField("score");
-		long timestamp = tuple.getLongByField("timestamp");
-
-		LOG.info("Received {}:{}:{}:{}:{}:{}:[{}]", subreddit, sentimentScore, storyId, storyURL, 
-				storyTitle, commentId, comment);
-		
-		collector.ack(tuple);
-		
-		summary.update(subreddit, storyId, storyURL, storyTitle, commentId,
-				comment, sentimentScore, timestamp);
-		
-		// Publish updated statistics only every 30 secs.
-		long curTime = System.currentTimeMillis();
-		if (lastPublishedTimestamp == 0 ) {
-			// Since messages come one by one to Summarizer, publishing immediately on first message
-			// will show just 1 comment and looks odd. Instead, mark now as last published time
-			// so that by next publishing window, we'd have received a couple of comments to show meaningful
-			// rankings.
-			lastPublishedTimestamp = curTime;
+		if (TickTuples.isTick(tuple)) {
+			collector.ack(tuple);
+			
+			long now = System.currentTimeMillis();
+			int evicted = summary.expire(now);
+			evictedStoriesMetric.incrBy(evicted);
+			if (evicted > 0) {
+				LOG.info("Discarded {} stories with no comments in the longest window. Tracking {} stories", 
+						evicted, summary.storyCount());
+			}
 			
-		} else if (curTime - lastPublishedTimestamp > 30000) {
+			// Send this partition's rankings even if nothing changed, so that the ranker also 
+			// learns about stories dropping out.
+			collector.emit(new Values(summary.getRankings(TOP_N, now)));
 			
-			LOG.info("Publishing statistics to ZK");
-			this.publisher.publish(summary);
-			lastPublishedTimestamp = curTime;
+			if (queryServer != null && queryServer.wantsTable()) {
+				queryServer.publish(summary.getStoryTable(now));
+			}
+			
+			if (snapshots != null && snapshots.isDue(now)) {
+				snapshots.write(summary);
+			}
+			return;
 		}
+		
+		CommentEvent event = (CommentEvent) tuple.getValueByField("event");
+
+		if (sampledLog.sample()) {
+			LOG.info("Received {} ({} not logged)", event, sampledLog.skipped());
+		}
+		
+		summary.update(event.subreddit, event.storyId, event.sentimentScore, event.timestamp);
+		
+		// Only once counted, so that the spout replays comments lost on the way.
+		collector.ack(tuple);
 	}
 
 	public void prepare(Map conf, TopologyContext ctx, OutputCollector collector) {
@@ -68,20 +96,58 @@ public class SummarizerBolt extends BaseRichBolt {
 		this.collector = collector;
 		this.myId = ctx.getThisComponentId() + "-" + ctx.getThisTaskId();
 		
-		this.summary = new Summary();
+		this.summary = new Summary(Summary.approximateBytes(conf), Summary.windowMinutes(conf));
 		
-		this.publisher = new ZkPublisher();
-		try {
-			this.publisher.init(conf);
-		} catch (Exception e) {
-			throw new RuntimeException(e);
+		// Picks up where the previous task of this partition left off, if it left a snapshot.
+		int tasks = ctx.getComponentTasks(ctx.getThisComponentId()).size();
+		String partition = ctx.getThisComponentId() + "-" + ctx.getThisTaskIndex() + "-of-" + tasks;
+		this.snapshots = SummarySnapshots.fromConf(conf, partition);
+		if (snapshots != null && !snapshots.restore(summary)) {
+			// Better empty than partly restored.
+			this.summary = new Summary(Summary.approximateBytes(conf), Summary.windowMinutes(conf));
 		}
 		
-		this.lastPublishedTimestamp = 0;
+		this.queryServer = QueryServer.fromConf(conf, partition, ctx.getThisTaskIndex());
+		if (queryServer != null) {
+			// Then again only after queries.
+			queryServer.publish(summary.getStoryTable(System.currentTimeMillis()));
+		}
+		
+		this.sampledLog = new SampledLog(conf);
+		
+		this.evictedStoriesMetric = ctx.registerMetric("evictedStories", new CountMetric(), METRICS_INTERVAL_SECS);
+		ctx.registerMetric("stories", new IMetric() {
+			public Object getValueAndReset() {
+				return summary.storyCount();
+			}
+		}, METRICS_INTERVAL_SECS);
+		ctx.registerMetric("summaryBytes", new IMetric() {
+			public Object getValueAndReset() {
+				return summary.estimatedBytes();
+			}
+		}, METRICS_INTERVAL_SECS);
+		if (summary.isApproximate()) {
+			ctx.registerMetric("replacedStories", new IMetric() {
+				private long reported;
+				
+				public Object getValueAndReset() {
+					long replaced = summary.replacedCount() - reported;
+					reported += replaced;
+					return replaced;
+				}
+			}, METRICS_INTERVAL_SECS);
+		}
+	}
+	
+	@Override
+	public Map<String, Object> getComponentConfiguration() {
+		// Ask Storm for a tick tuple every few seconds, to age out old comments and expire stories
+		// even when no comments are coming in.
+		return TickTuples.everySecs(TICK_INTERVAL_SECS);
 	}
 
 	public void declareOutputFields(OutputFieldsDeclarer declarer) {
-		// Summarizer has no output fields.
+		declarer.declare(new Fields("rankings"));
 	}
 	
 	@Override
@@ -89,7 +155,11 @@ public class SummarizerBolt extends BaseRichBolt {
 		// This is called only in local topology mode.
 		super.cleanup();
 		
-		this.publisher.stop();
+		if (snapshots != null) {
+			snapshots.close();
+		}
+		if (queryServer != null) {
+			queryServer.stop();
+		}
 	}
-	
 }
@@ -1,188 +1,669 @@
 package storm.redditsentiment;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
-import jline.internal.Log;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * Maintains comment counts for each story and finds top N lists when asked.
+ * Maintains comment counts for each story in several time windows at once (by default the last 5 minutes, 
+ * 1 hour and 24 hours), and finds top N lists of each window when asked.
+ * Stories are known only by ID here. Their URLs and titles are filled in by RankerBolt.
+ * 
+ * Each story counts its comments in WindowCounters of minute and hour buckets shared by all windows, so
+ * memory per story is fixed by the windows, however many comments it gets.
+ * 
+ * Rankings are maintained incrementally (see StoryRanking) as comments arrive and as old comments
+ * age out of the time windows, so reading a top N list does not sort all stories.
+ * 
+ * Old comments are aged out, and stories that have not received any comment during the longest window
+ * are discarded, by expire(), which the owner should call periodically.
+ * 
+ * For very many stories, there's an approximate mode that tracks only as many stories as fit in a memory 
+ * budget, Space-Saving style: when a new story arrives and the summary is full, it takes over the
+ * story with the fewest comments in the longest window, counts and all. Counts of a story that took over 
+ * another may include the other's comments, by up to the count it took over. Rankings report that bound 
+ * as each story's error. A story with more comments than the least commented one tracked is always tracked. 
+ * A story that was replaced and comes back may have lost some positive or negative comments, though.
+ * The budget allows for the most memory a story can take, with comments in every minute of the longest 
+ * window, so it holds even if every story is that busy, and is generous when most are not.
+ * 
+ * The stories and their counts can be written to a snapshot and restored from it (see SummarySnapshots).
+ * Snapshot format, all numbers big endian:
+ * <pre>
+ *   int      SNAPSHOT_MAGIC
+ *   byte     SNAPSHOT_VERSION
+ *   byte     number of time windows
+ *   int      length of each window in minutes, shortest first
+ *   int      number of stories
+ *   stories of:
+ *     short + UTF-8  subreddit, story id
+ *     long   timestamp of the last comment
+ *     byte   1 if errors follow, 0 if not
+ *     int    approximate mode errors of each window and metric
+ *     3 WindowCounters of comments, positive and negative comments (see WindowCounter.write)
+ * </pre>
  *
  */
-public class Summary {
+public class Summary implements SummarySnapshots.Snapshotted {
 
-	private static final long TIME_WINDOW = 3600000L; //ie, 60 minutes
+	private static final Logger LOG = LoggerFactory.getLogger(Summary.class);
+	
+	/**
+	 * Topology configuration of the time windows, as a list of lengths in minutes.
+	 */
+	public static final String WINDOWS_CONF = "windowMinutes";
+	
+	public static final int[] DEFAULT_WINDOW_MINUTES = {5, 60, 24 * 60};
+	
+	/**
+	 * Topology configuration of approximate mode: the memory budget of each summary in bytes.
+	 * Exact if absent or 0.
+	 */
+	public static final String APPROXIMATE_BYTES_CONF = "approximateSummaryBytes";
+	
+	public static final int SNAPSHOT_MAGIC = 0x52445353; // "RDSS"
+	public static final int SNAPSHOT_VERSION = 1;
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	// The activity wheel has a slot per minute.
+	private static final long BUCKET_MILLIS = WindowCounter.MINUTE_MILLIS;
+	
+	// Rough heap size of a story with compressed oops, besides its 3 WindowCounters: the StoryData, 
+	// its ID string, its HashMap entry, and its references from rankings and activity slots.
+	private static final int ESTIMATED_BYTES_PER_STORY = 200;
+	
+	// An activity wheel entry: a reference in a slot's ArrayList, plus its share of the list's spare capacity.
+	private static final int BYTES_PER_WHEEL_ENTRY = 5;
+	
+	private final WindowCounter.Windows windows;
 	
 	private Map<String, StoryData> stories = new HashMap<String, StoryData>();
+	
+	// One ranking per window and StoryRanking metric, at window * StoryRanking.METRICS + metric.
+	// In approximate mode, followed by the least commented stories in the longest window.
+	private final StoryRanking[] rankings;
+	
+	// Only in approximate mode: the most stories tracked, and the ranking that picks the one to replace.
+	private final int capacity;
+	private final StoryRanking leastCommented;
+	
+	// Activity wheel: a hashed timer wheel of stories, indexed by bucket. A story is added to the slot
+	// of a bucket the first time it gets a comment in that bucket. 
+	// When a bucket ages out of a time window, only the stories in its slot have comment counts to 
+	// age out. Those whose last comment is still in that bucket when it ages out of the longest window 
+	// have expired, and the others just lose that bucket's counts. So expiring costs 
+	// O(stories with comments in aged out buckets) instead of O(all stories).
+	// A slot is emptied once its bucket has aged out of the longest window.
+	private final List<StoryData>[] activitySlots;
+	
+	// For each window, the oldest bucket whose slot has not yet been aged out of it.
+	private final long[] nextAgedBuckets;
+	
+	private long evictedCount;
+	private long replacedCount;
+	
+	public Summary() {
+		this(DEFAULT_WINDOW_MINUTES);
+	}
+	
+	/**
+	 * @param windowMinutes lengths of the time windows. Those longer than an hour must be whole hours.
+	 */
+	public Summary(int... windowMinutes) {
+		this(0, windowMinutes);
+	}
+	
+	/**
+	 * @param approximateBytes if more than 0, use approximate mode, tracking as many stories as fit in that many bytes.
+	 * @param windowMinutes lengths of the time windows. Those longer than an hour must be whole hours.
+	 */
+	public Summary(long approximateBytes, int... windowMinutes) {
+		this.windows = new WindowCounter.Windows(windowMinutes);
+		
+		int ranked = windows.count() * StoryRanking.METRICS;
+		this.rankings = new StoryRanking[(approximateBytes > 0) ? ranked + 1 : ranked];
+		for (int window = 0; window < windows.count(); window++) {
+			for (int metric = 0; metric < StoryRanking.METRICS; metric++) {
+				int index = window * StoryRanking.METRICS + metric;
+				rankings[index] = new StoryRanking(window, metric, index, false);
+			}
+		}
+		
+		if (approximateBytes > 0) {
+			this.leastCommented = new StoryRanking(windows.count() - 1, StoryRanking.COMMENTS, ranked, true);
+			rankings[ranked] = leastCommented;
+			this.capacity = (int) Math.max(1, Math.min(Integer.MAX_VALUE, approximateBytes / maxBytesPerStory()));
+			LOG.info("Approximate summary of up to {} stories", capacity);
+		} else {
+			this.leastCommented = null;
+			this.capacity = 0;
+		}
+		
+		// Twice the longest window, so that expire() can be called late by up to that long 
+		// before the slots wrap around.
+		long longestMillis = windows.windowMillis[windows.count() - 1];
+		this.activitySlots = newActivitySlots((int) (2 * longestMillis / BUCKET_MILLIS));
+		
+		this.nextAgedBuckets = new long[windows.count()];
+		Arrays.fill(nextAgedBuckets, -1);
+	}
+	
+	/**
+	 * The time windows given by WINDOWS_CONF, or the default ones.
+	 */
+	public static int[] windowMinutes(Map stormConf) {
+		List<? extends Number> configured = (List<? extends Number>) stormConf.get(WINDOWS_CONF);
+		if (configured == null || configured.isEmpty()) {
+			return DEFAULT_WINDOW_MINUTES;
+		}
+		int[] windowMinutes = new int[configured.size()];
+		for (int i = 0; i < windowMinutes.length; i++) {
+			windowMinutes[i] = configured.get(i).intValue();
+		}
+		return windowMinutes;
+	}
+	
+	/**
+	 * The approximate mode budget given by APPROXIMATE_BYTES_CONF, or 0.
+	 */
+	public static long approximateBytes(Map stormConf) {
+		Number bytes = (Number) stormConf.get(APPROXIMATE_BYTES_CONF);
+		return (bytes != null) ? bytes.longValue() : 0;
+	}
 
-	public void update(String subreddit, String storyId, String storyURL, String storyTitle, String commentId,
-			String comment, int sentimentScore, long timestamp) {
+	public void update(String subreddit, String storyId, int sentimentScore, long timestamp) {
+		update(subreddit, storyId, 1, sentimentScore > 0 ? 1 : 0, sentimentScore < 0 ? 1 : 0, timestamp);
+	}
+	
+	/**
+	 * Counts a number of comments on a story at once, as if they all came at the given time.
+	 */
+	public void update(String subreddit, String storyId, int comments, int positiveComments, 
+			int negativeComments, long timestamp) {
+		
+		long now = System.currentTimeMillis();
 		
 		StoryData story = stories.get(storyId);
-		if (story == null) {
+		if (story == null && capacity > 0 && stories.size() >= capacity) {
+			story = replaceLeastCommented(subreddit, storyId);
+			story.update(comments, positiveComments, negativeComments, timestamp, now);
+			changed(story);
+			
+		} else if (story == null) {
 			story = new StoryData();
 			story.subreddit = subreddit;
 			story.storyId = storyId;
-			story.storyURL = storyURL;
-			story.storyTitle = storyTitle;
 			stories.put(storyId, story);
+			
+			story.update(comments, positiveComments, negativeComments, timestamp, now);
+			for (StoryRanking ranking : rankings) {
+				ranking.add(story);
+			}
+			
+		} else {
+			story.update(comments, positiveComments, negativeComments, timestamp, now);
+			changed(story);
 		}
 		
-		story.update(commentId, comment, sentimentScore, timestamp);
+		recordActivity(story, timestamp, now);
+	}
+	
+	/**
+	 * Ages out comment counts that have fallen outside the time windows, and discards stories
+	 * that have not received any comment during the longest window.
+	 * 
+	 * @return number of stories discarded.
+	 */
+	public int expire(long now) {
+		long nowBucket = now / BUCKET_MILLIS;
+		int longest = windows.count() - 1;
 		
-		// Discard stories that have not received any comment during the time window.
-		long curTimestamp = System.currentTimeMillis();
-		for (Iterator<StoryData> itr = stories.values().iterator(); itr.hasNext();) {
-			StoryData s = itr.next();
-			if (curTimestamp - s.lastCommentTimestamp > TIME_WINDOW) {
-				Log.info("No comment received for {}:{}. Discarding", s.storyId, s.storyURL);
-				itr.remove();
+		int evicted = 0;
+		for (int window = 0; window <= longest; window++) {
+			long lastAgedBucket = windows.lastAgedMinute(window, nowBucket);
+			if (nextAgedBuckets[window] < 0) {
+				nextAgedBuckets[window] = lastAgedBucket + 1;
+			}
+			
+			for (; nextAgedBuckets[window] <= lastAgedBucket; nextAgedBuckets[window]++) {
+				long bucket = nextAgedBuckets[window];
+				List<StoryData> slot = activitySlots[slotIndex(bucket)];
+				for (int i = 0; i < slot.size(); i++) {
+					StoryData s = slot.get(i);
+					if (window == longest && s.lastActiveBucket == bucket) {
+						LOG.debug("No comment received for {}:{}. Discarding", s.subreddit, s.storyId);
+						discard(s);
+						evicted++;
+						
+					} else if (s.lastActiveBucket >= bucket) {
+						// Still active, but has lost this bucket's comments from the window.
+						s.advance(now);
+						changed(s);
+					}
+					// else it's an entry of an already discarded story.
+				}
+				if (window == longest) {
+					slot.clear();
+				}
 			}
 		}
+		
+		evictedCount += evicted;
+		return evicted;
 	}
 	
-	public List<StoryData> getMostCommentedStoriesInWindow(int topN) {
-		List<StoryData> copy = new ArrayList<Summary.StoryData>();
-		copy.addAll(stories.values());
+	/**
+	 * Writes all stories in the snapshot format.
+	 * 
+	 * @throws java.nio.BufferOverflowException if they don't fit in the buffer.
+	 */
+	public void writeSnapshot(ByteBuffer out) {
+		out.putInt(SNAPSHOT_MAGIC);
+		out.put((byte) SNAPSHOT_VERSION);
+		out.put((byte) windows.count());
+		for (long windowMillis : windows.windowMillis) {
+			out.putInt((int) (windowMillis / WindowCounter.MINUTE_MILLIS));
+		}
 		
-		Collections.sort(copy, new Comparator<StoryData>() {
-
-			public int compare(StoryData s1, StoryData s2) {
-				// Return in descending order.
-				return Integer.compare(s2.commentTimestamps.size(), s1.commentTimestamps.size());
+		out.putInt(stories.size());
+		for (StoryData story : stories.values()) {
+			writeString(out, story.subreddit);
+			writeString(out, story.storyId);
+			out.putLong(story.lastCommentTimestamp);
+			if (story.errors != null) {
+				out.put((byte) 1);
+				for (int error : story.errors) {
+					out.putInt(error);
+				}
+			} else {
+				out.put((byte) 0);
 			}
-		});
-		
-		return copy.subList(0, Math.min(topN, copy.size()));
+			story.commentCounter.write(out);
+			story.positiveCommentCounter.write(out);
+			story.negativeCommentCounter.write(out);
+		}
 	}
 	
-	public List<StoryData> getMostPositiveCommentedStoriesInWindow(int topN) {
+	/**
+	 * Adds the stories of a snapshot, which must have the same time windows, to this summary, 
+	 * which should be empty. Their counts are aged to the current time, and stories that have no comments 
+	 * left in the longest window are skipped, as are any more than the approximate mode capacity.
+	 * 
+	 * @return number of stories restored.
+	 * @throws IllegalArgumentException if it's not a snapshot, or one of other windows. 
+	 * 		A BufferUnderflowException if it's truncated.
+	 */
+	public int restoreSnapshot(ByteBuffer in) {
+		if (in.getInt() != SNAPSHOT_MAGIC) {
+			throw new IllegalArgumentException("Not a summary snapshot");
+		}
+		int version = in.get() & 0xff;
+		if (version != SNAPSHOT_VERSION) {
+			throw new IllegalArgumentException("Unsupported summary snapshot version " + version);
+		}
+		long[] windowMillis = new long[in.get() & 0xff];
+		for (int window = 0; window < windowMillis.length; window++) {
+			windowMillis[window] = in.getInt() * WindowCounter.MINUTE_MILLIS;
+		}
+		if (!Arrays.equals(windowMillis, windows.windowMillis)) {
+			throw new IllegalArgumentException("Summary snapshot has other windows " + Arrays.toString(windowMillis));
+		}
 		
-		List<StoryData> copy = new ArrayList<Summary.StoryData>();
-		copy.addAll(stories.values());
+		long now = System.currentTimeMillis();
+		int longest = windows.count() - 1;
+		byte[] scratch = new byte[256];
+		int count = in.getInt();
+		int restored = 0;
+		for (int i = 0; i < count; i++) {
+			StoryData story = new StoryData();
+			story.subreddit = readString(in, scratch);
+			story.storyId = readString(in, scratch);
+			story.lastCommentTimestamp = in.getLong();
+			if (in.get() != 0) {
+				story.errors = new int[windows.count() * StoryRanking.METRICS];
+				for (int e = 0; e < story.errors.length; e++) {
+					story.errors[e] = in.getInt();
+				}
+			}
+			story.commentCounter.read(in);
+			story.positiveCommentCounter.read(in);
+			story.negativeCommentCounter.read(in);
+			story.advance(now);
+			
+			if (story.count(longest, StoryRanking.COMMENTS) == 0 || (capacity > 0 && stories.size() >= capacity)
+					|| stories.containsKey(story.storyId)) {
+				continue;
+			}
+			stories.put(story.storyId, story);
+			for (StoryRanking ranking : rankings) {
+				ranking.add(story);
+			}
+			for (long timestamp : story.commentCounter.activeTimestamps()) {
+				recordActivity(story, timestamp, now);
+			}
+			restored++;
+		}
+		return restored;
+	}
+	
+	/**
+	 * Lengths of the time windows, shortest first. Windows are referred to by their index in this.
+	 */
+	public long[] windowMillis() {
+		return windows.windowMillis.clone();
+	}
+	
+	/**
+	 * Number of stories currently tracked.
+	 */
+	public int storyCount() {
+		return stories.size();
+	}
+	
+	/**
+	 * Rough estimate of the heap used by the stories currently tracked.
+	 */
+	public long estimatedBytes() {
+		long wheelEntries = 0;
+		for (List<StoryData> slot : activitySlots) {
+			wheelEntries += slot.size();
+		}
+		return (long) stories.size() * bytesPerStory() + wheelEntries * BYTES_PER_WHEEL_ENTRY;
+	}
+	
+	/**
+	 * Total number of stories discarded by expire() so far.
+	 */
+	public long evictedCount() {
+		return evictedCount;
+	}
+	
+	/**
+	 * Total number of stories taken over by new ones in approximate mode so far.
+	 */
+	public long replacedCount() {
+		return replacedCount;
+	}
+	
+	public boolean isApproximate() {
+		return capacity > 0;
+	}
+	
+	public List<StoryData> getMostCommentedStoriesInWindow(int window, int topN) {
+		return ranking(window, StoryRanking.COMMENTS).top(topN);
+	}
+	
+	public List<StoryData> getMostPositiveCommentedStoriesInWindow(int window, int topN) {
+		return ranking(window, StoryRanking.POSITIVE).top(topN);
+	}
+	
+	public List<StoryData> getMostNegativeCommentedStoriesInWindow(int window, int topN) {
+		return ranking(window, StoryRanking.NEGATIVE).top(topN);
+	}
+	
+	/**
+	 * The top N lists of all windows and metrics, copied out of the stories so they can be emitted or published.
+	 */
+	public Rankings getRankings(int topN, long timestamp) {
+		Rankings result = new Rankings(windows.windowMillis);
+		result.timestamp = timestamp;
+		for (int window = 0; window < windows.count(); window++) {
+			for (int metric = 0; metric < StoryRanking.METRICS; metric++) {
+				for (StoryData story : ranking(window, metric).top(topN)) {
+					result.get(window, metric).add(story.rankedBy(window, metric));
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * A copy of every story's counts, for answering top N queries on other threads (see StoryTable).
+	 */
+	public StoryTable getStoryTable(long timestamp) {
+		int stride = windows.count() * StoryRanking.METRICS;
+		String[] subreddits = new String[stories.size()];
+		String[] storyIds = new String[stories.size()];
+		int[] counts = new int[stories.size() * stride];
+		int[] errors = isApproximate() ? new int[counts.length] : null;
 		
-		Collections.sort(copy, new Comparator<StoryData>() {
-
-			public int compare(StoryData s1, StoryData s2) {
-				// Return in descending order.
-				return Integer.compare(s2.positiveCommentTimestamps.size(), s1.positiveCommentTimestamps.size());
+		int i = 0;
+		for (StoryData story : stories.values()) {
+			subreddits[i] = story.subreddit;
+			storyIds[i] = story.storyId;
+			for (int window = 0; window < windows.count(); window++) {
+				for (int metric = 0; metric < StoryRanking.METRICS; metric++) {
+					int cell = i * stride + window * StoryRanking.METRICS + metric;
+					counts[cell] = story.count(window, metric);
+					if (errors != null) {
+						errors[cell] = story.error(window, metric);
+					}
+				}
 			}
-		});
+			i++;
+		}
+		return new StoryTable(timestamp, windows.windowMillis, subreddits, storyIds, counts, errors);
+	}
+	
+	// Counts, rank positions and, in approximate mode, errors. Besides the story's activity wheel entries,
+	// one per minute with comments.
+	private int bytesPerStory() {
+		int bytes = ESTIMATED_BYTES_PER_STORY + 3 * windows.estimatedBytes() + 4 * rankings.length;
+		return isApproximate() ? bytes + 4 * rankings.length : bytes;
+	}
+	
+	// With a wheel entry for every minute of the longest window, which a story with comments every minute has.
+	// Entries leave the wheel as their minutes age out of the longest window, so with expire() called
+	// regularly, a story never has many more.
+	private long maxBytesPerStory() {
+		long longestMinutes = windows.windowMillis[windows.count() - 1] / BUCKET_MILLIS;
+		return bytesPerStory() + longestMinutes * BYTES_PER_WHEEL_ENTRY;
+	}
+	
+	// Hands the least commented story over to a new one, keeping its counts and their place in the 
+	// rankings and the activity wheel. Those counts are the new story's errors.
+	private StoryData replaceLeastCommented(String subreddit, String storyId) {
+		StoryData story = leastCommented.top(1).get(0);
+		LOG.debug("Replacing {}:{} with {}:{}", story.subreddit, story.storyId, subreddit, storyId);
+		stories.remove(story.storyId);
 		
-		return copy.subList(0, Math.min(topN, copy.size()));
+		if (story.errors == null) {
+			story.errors = new int[windows.count() * StoryRanking.METRICS];
+		}
+		for (int window = 0; window < windows.count(); window++) {
+			for (int metric = 0; metric < StoryRanking.METRICS; metric++) {
+				story.errors[window * StoryRanking.METRICS + metric] = story.count(window, metric);
+			}
+		}
 		
+		story.subreddit = subreddit;
+		story.storyId = storyId;
+		stories.put(storyId, story);
+		replacedCount++;
+		return story;
+	}
+	
+	static void writeString(ByteBuffer out, String s) {
+		byte[] bytes = s.getBytes(UTF8);
+		out.putShort((short) bytes.length);
+		out.put(bytes);
+	}
+	
+	static String readString(ByteBuffer in, byte[] scratch) {
+		int length = in.getShort() & 0xffff;
+		byte[] bytes = (length <= scratch.length) ? scratch : new byte[length];
+		in.get(bytes, 0, length);
+		return new String(bytes, 0, length, UTF8);
 	}
 	
-	public List<StoryData> getMostNegativeCommentedStoriesInWindow(int topN) {
+	private StoryRanking ranking(int window, int metric) {
+		return rankings[window * StoryRanking.METRICS + metric];
+	}
+	
+	// Repositions a story in all rankings after its counts changed.
+	private void changed(StoryData story) {
+		for (StoryRanking ranking : rankings) {
+			ranking.changed(story);
+		}
+	}
+	
+	private void discard(StoryData story) {
+		stories.remove(story.storyId);
+		for (StoryRanking ranking : rankings) {
+			ranking.remove(story);
+		}
+		// Makes any remaining wheel entries of this story recognizable as stale.
+		story.lastActiveBucket = -1;
+	}
+	
+	// Puts the story in the activity wheel slot of the comment's bucket, unless already there.
+	private void recordActivity(StoryData story, long timestamp, long now) {
+		long nowBucket = now / BUCKET_MILLIS;
+		long oldestSlotBucket = nextAgedBuckets[windows.count() - 1];
+		if (oldestSlotBucket < 0 || nowBucket >= oldestSlotBucket + activitySlots.length) {
+			// expire() has not been called for so long that the wheel would wrap around. Catch up first.
+			expire(now);
+			oldestSlotBucket = nextAgedBuckets[windows.count() - 1];
+		}
 		
-		List<StoryData> copy = new ArrayList<Summary.StoryData>();
-		copy.addAll(stories.values());
+		// Comments older than the slots not yet aged out go to the oldest remaining slot, and
+		// comments timestamped in future (clock skew between workers) go to the current one.
+		long bucket = timestamp / BUCKET_MILLIS;
+		bucket = Math.max(oldestSlotBucket, Math.min(bucket, nowBucket));
 		
-		Collections.sort(copy, new Comparator<StoryData>() {
-
-			public int compare(StoryData s1, StoryData s2) {
-				// Return in descending order.
-				return Integer.compare(s2.negativeCommentTimestamps.size(), s1.negativeCommentTimestamps.size());
+		if (bucket > story.lastActiveBucket) {
+			long shift = bucket - story.lastActiveBucket;
+			story.activeBuckets = (shift < 64) ? (story.activeBuckets << shift) | 1L : 1L;
+			story.lastActiveBucket = bucket;
+			activitySlots[slotIndex(bucket)].add(story);
+			
+		} else {
+			// A comment that arrived out of order. 
+			long age = story.lastActiveBucket - bucket;
+			if (age >= 64 || (story.activeBuckets & (1L << age)) == 0) {
+				if (age < 64) {
+					story.activeBuckets |= (1L << age);
+				}
+				activitySlots[slotIndex(bucket)].add(story);
 			}
-		});
-		
-		return copy.subList(0, Math.min(topN, copy.size()));
+		}
+	}
+	
+	private int slotIndex(long bucket) {
+		return (int) (bucket % activitySlots.length);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static List<StoryData>[] newActivitySlots(int count) {
+		List<StoryData>[] slots = new List[count];
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = new ArrayList<StoryData>();
+		}
+		return slots;
 	}
 
 	class StoryData {
 
 		public String subreddit;
 		public String storyId;
-		public String storyURL;
-		public String storyTitle;
 
 		// Storing the last seen comment timestamp enables discarding the entire
 		// story
-		// if there hasn't been any new comment in last 1 hour.
+		// if there hasn't been any new comment in the longest window.
 		private long lastCommentTimestamp;
+		
+		// Newest bucket of the activity wheel this story was put in, -1 once discarded.
+		private long lastActiveBucket = -1;
+		
+		// Buckets of the activity wheel this story is already in. Bit k is for bucket (lastActiveBucket - k).
+		private long activeBuckets;
+		
+		// Positions in each StoryRanking's heap.
+		int[] rankPositions = new int[rankings.length];
+		
+		// Only once it has taken over another story in approximate mode: the counts taken over,
+		// at window * StoryRanking.METRICS + metric.
+		private int[] errors;
 
-		// We store just the *timestamps* of each comment for this story in
-		// these
-		// lists.
-		// The lengths of the lists tell us the required number of comments
-		// statistic, while
-		// storing their timestamps enables the removal of those outside the
-		// time window of 1 hour.
-
-		private LinkedList<Long> commentTimestamps = new LinkedList<Long>();
-		private LinkedList<Long> positiveCommentTimestamps = new LinkedList<Long>();
-		private LinkedList<Long> negativeCommentTimestamps = new LinkedList<Long>();
+		// Comment counts in all the time windows. Memory per story stays constant no matter how many 
+		// comments it gets, and comments age out of each window one bucket at a time.
+		private WindowCounter commentCounter = new WindowCounter(windows);
+		private WindowCounter positiveCommentCounter = new WindowCounter(windows);
+		private WindowCounter negativeCommentCounter = new WindowCounter(windows);
 		
-		public void update(String commentId, String comment, int sentimentScore, long timestamp) {
-			this.lastCommentTimestamp = timestamp;
+		public void update(int comments, int positiveComments, int negativeComments, long timestamp, long now) {
+			this.lastCommentTimestamp = Math.max(this.lastCommentTimestamp, timestamp);
 			
-			this.commentTimestamps.add(timestamp);
-			if (sentimentScore > 0) {
-				this.positiveCommentTimestamps.add(timestamp);
-				
-			} else if (sentimentScore < 0) { 
-				this.negativeCommentTimestamps.add(timestamp);
+			this.commentCounter.add(timestamp, comments);
+			if (positiveComments > 0) {
+				this.positiveCommentCounter.add(timestamp, positiveComments);
+			}
+			if (negativeComments > 0) { 
+				this.negativeCommentCounter.add(timestamp, negativeComments);
 			}
 			
-			long curTimestamp = System.currentTimeMillis();
-			long thresholdTimestamp = curTimestamp - TIME_WINDOW;   
-			
-			removeOutdated(commentTimestamps, thresholdTimestamp);
-			removeOutdated(positiveCommentTimestamps, thresholdTimestamp);
-			removeOutdated(negativeCommentTimestamps, thresholdTimestamp);
+			advance(now);
 		}
 		
-		public int commentCount() {
-			return commentTimestamps.size();
+		// Ages out comments that have fallen outside the time windows.
+		void advance(long now) {
+			commentCounter.advance(now);
+			positiveCommentCounter.advance(now);
+			negativeCommentCounter.advance(now);
 		}
 		
-		public long oldestCommentTimestamp() {
-			if (commentTimestamps.size() > 0) {
-				return commentTimestamps.getFirst();
-			}
-			return -1;
-		}
-		
-		public int positiveCount() {
-			return positiveCommentTimestamps.size();
+		/**
+		 * Count of a StoryRanking metric in a window.
+		 */
+		public int count(int window, int metric) {
+			return counter(metric).count(window);
 		}
 		
-		public long oldestPositiveCommentTimestamp() {
-			if (positiveCommentTimestamps.size() > 0) {
-				return positiveCommentTimestamps.getFirst();
+		/**
+		 * How much a count may be more than the story's own comments. Counts taken over from another story
+		 * age out like its own, so the count itself is also a bound.
+		 */
+		public int error(int window, int metric) {
+			if (errors == null) {
+				return 0;
 			}
-			return -1;
+			return Math.min(errors[window * StoryRanking.METRICS + metric], count(window, metric));
 		}
 		
-		public int negativeCount() {
-			return negativeCommentTimestamps.size();
+		/**
+		 * Start of the oldest bucket counted by a StoryRanking metric in a window, or -1.
+		 */
+		public long oldestTimestamp(int window, int metric) {
+			return counter(metric).oldestTimestamp(window);
 		}
-
-		public long oldestNegativeCommentTimestamp() {
-			if (negativeCommentTimestamps.size() > 0) {
-				return negativeCommentTimestamps.getFirst();
+		
+		private WindowCounter counter(int metric) {
+			switch (metric) {
+				case StoryRanking.COMMENTS:
+					return commentCounter;
+				case StoryRanking.POSITIVE:
+					return positiveCommentCounter;
+				default:
+					return negativeCommentCounter;
 			}
-			return -1;
 		}
 		
-
-		private void removeOutdated(LinkedList<Long> commentTimestamps, long thresholdTimestamp) {
-			for (Iterator<Long> itr = commentTimestamps.iterator(); itr.hasNext();) {
-				long ts = itr.next();
-				if (ts < thresholdTimestamp) {
-					itr.remove();
-				} else if (ts >= thresholdTimestamp) {
-					// Once a timestamps is found inside threshold, no need to check further because elements
-					// are in chronological order.
-					break;
-				}
-			}
+		Rankings.RankedStory rankedBy(int window, int metric) {
+			Rankings.RankedStory ranked = new Rankings.RankedStory();
+			ranked.subreddit = subreddit;
+			ranked.storyId = storyId;
+			ranked.count = count(window, metric);
+			ranked.error = error(window, metric);
+			ranked.oldestCommentTimestamp = oldestTimestamp(window, metric);
+			return ranked;
 		}
 	}
 }
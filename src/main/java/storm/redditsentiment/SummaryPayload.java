@@ -0,0 +1,285 @@
+package storm.redditsentiment;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import storm.redditsentiment.Rankings.RankedStory;
+
+/**
+ * Compact binary encoding of the Rankings published to Zookeeper.
+ *
+ * A payload is either a full snapshot of all rankings, or a delta against the latest full snapshot,
+ * holding only the ranks that differ from it. Deltas are always against a full snapshot rather than
+ * the previous delta, so a viewer that misses some updates (Zookeeper watches don't see every write)
+ * needs only the latest full snapshot and the latest delta.
+ *
+ * Format, all numbers big endian:
+ * <pre>
+ *   int      MAGIC
+ *   byte     FORMAT_VERSION
+ *   byte     FULL or DELTA
+ *   long     sequence number of this payload
+ *   long     sequence number of the full snapshot a delta is against, same as sequence for a full snapshot
+ *   long     timestamp of the rankings
+ *   byte     number of time windows
+ *   int      length of each window in minutes, shortest first
+ *   for each window, for each StoryRanking metric:
+ *     short  number of stories in the ranking
+ *     short  number of entries that follow (all of them in a full snapshot, changed ones in a delta)
+ *     entries of:
+ *       short  rank, from 0
+ *       UTF    story id
+ *       int    count
+ *       int    error: how much count may overstate the story's comments, 0 unless approximate
+ *       int    minute (timestamp / 60000) of the oldest counted comment, or -1
+ *       byte   1 if subreddit, URL and title follow, 0 if the story is in the full snapshot
+ *       UTF    subreddit, URL, title
+ * </pre>
+ * Story ids, counts and window starts are all a viewer needs to tell whether anything changed;
+ * titles and URLs are sent only once per full snapshot.
+ */
+public class SummaryPayload {
+
+	public static final int MAGIC = 0x52444454; // "RDDT"
+	public static final int FORMAT_VERSION = 3;
+
+	public static final int FULL = 0;
+	public static final int DELTA = 1;
+
+	private static final long MINUTE_MILLIS = 60000L;
+
+	public int type;
+	public long sequence;
+	public long baseSequence;
+	public Rankings rankings;
+
+	public boolean isFull() {
+		return type == FULL;
+	}
+
+	public static byte[] encodeFull(Rankings rankings, long sequence) {
+		return encode(FULL, rankings, null, sequence, sequence);
+	}
+
+	/**
+	 * Encodes the ranks of rankings that differ from the full snapshot base.
+	 */
+	public static byte[] encodeDelta(Rankings rankings, Rankings base, long baseSequence, long sequence) {
+		return encode(DELTA, rankings, base, baseSequence, sequence);
+	}
+
+	/**
+	 * Decodes a payload. Decoding a delta needs the full snapshot it's against, as decoded earlier.
+	 *
+	 * @throws IllegalArgumentException if data is not a payload of a known version, or is a delta
+	 * 		against some other full snapshot than base.
+	 */
+	public static SummaryPayload decode(byte[] data, SummaryPayload base) {
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+			if (in.readInt() != MAGIC) {
+				throw new IllegalArgumentException("Not a summary payload");
+			}
+			int version = in.readUnsignedByte();
+			if (version != FORMAT_VERSION) {
+				throw new IllegalArgumentException("Unsupported summary payload version " + version);
+			}
+
+			SummaryPayload payload = new SummaryPayload();
+			payload.type = in.readUnsignedByte();
+			payload.sequence = in.readLong();
+			payload.baseSequence = in.readLong();
+
+			Rankings baseRankings = null;
+			if (!payload.isFull()) {
+				if (base == null || !base.isFull() || base.sequence != payload.baseSequence) {
+					throw new IllegalArgumentException("Delta " + payload.sequence + " needs full snapshot "
+							+ payload.baseSequence);
+				}
+				baseRankings = base.rankings;
+			}
+			Map<String, RankedStory> knownStories = storiesById(baseRankings);
+
+			long timestamp = in.readLong();
+			long[] windowMillis = new long[in.readUnsignedByte()];
+			for (int window = 0; window < windowMillis.length; window++) {
+				windowMillis[window] = in.readInt() * MINUTE_MILLIS;
+			}
+			if (baseRankings != null && !Arrays.equals(windowMillis, baseRankings.windowMillis)) {
+				throw new IllegalArgumentException("Delta " + payload.sequence + " has other windows than its full snapshot");
+			}
+			
+			Rankings rankings = new Rankings(windowMillis);
+			rankings.timestamp = timestamp;
+			for (int i = 0; i < rankings.rankings.size(); i++) {
+				List<RankedStory> ranking = rankings.rankings.get(i);
+				int size = in.readUnsignedShort();
+				if (baseRankings != null) {
+					List<RankedStory> baseRanking = baseRankings.rankings.get(i);
+					ranking.addAll(baseRanking.subList(0, Math.min(size, baseRanking.size())));
+				}
+				while (ranking.size() < size) {
+					ranking.add(null);
+				}
+
+				int entries = in.readUnsignedShort();
+				for (int e = 0; e < entries; e++) {
+					int rank = in.readUnsignedShort();
+					ranking.set(rank, readStory(in, knownStories));
+				}
+				if (ranking.contains(null)) {
+					throw new IllegalArgumentException("Summary payload " + payload.sequence + " has missing ranks");
+				}
+			}
+			payload.rankings = rankings;
+			return payload;
+
+		} catch (IOException e) {
+			// Only on truncated data, since it's all in memory.
+			throw new IllegalArgumentException("Corrupt summary payload", e);
+		}
+	}
+
+	/**
+	 * Whether two rankings have the same stories in the same ranks, with the same counts and windows.
+	 * Only the timestamps may differ.
+	 */
+	public static boolean sameRankings(Rankings r1, Rankings r2) {
+		if (r1 == null || r2 == null) {
+			return r1 == r2;
+		}
+		if (!Arrays.equals(r1.windowMillis, r2.windowMillis)) {
+			return false;
+		}
+		for (int i = 0; i < r1.rankings.size(); i++) {
+			List<RankedStory> ranking1 = r1.rankings.get(i);
+			List<RankedStory> ranking2 = r2.rankings.get(i);
+			if (ranking1.size() != ranking2.size()) {
+				return false;
+			}
+			for (int rank = 0; rank < ranking1.size(); rank++) {
+				if (!sameEntry(ranking1.get(rank), ranking2.get(rank))) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static byte[] encode(int type, Rankings rankings, Rankings base, long baseSequence, long sequence) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(MAGIC);
+			out.writeByte(FORMAT_VERSION);
+			out.writeByte(type);
+			out.writeLong(sequence);
+			out.writeLong(baseSequence);
+			out.writeLong(rankings.timestamp);
+			out.writeByte(rankings.windows());
+			for (long windowMillis : rankings.windowMillis) {
+				out.writeInt((int) (windowMillis / MINUTE_MILLIS));
+			}
+
+			Map<String, RankedStory> knownStories = storiesById(base);
+			for (int i = 0; i < rankings.rankings.size(); i++) {
+				List<RankedStory> ranking = rankings.rankings.get(i);
+				List<RankedStory> baseRanking = (base != null) ? base.rankings.get(i) : null;
+
+				int entries = 0;
+				for (int rank = 0; rank < ranking.size(); rank++) {
+					if (changed(ranking, baseRanking, rank)) {
+						entries++;
+					}
+				}
+
+				out.writeShort(ranking.size());
+				out.writeShort(entries);
+				for (int rank = 0; rank < ranking.size(); rank++) {
+					if (changed(ranking, baseRanking, rank)) {
+						out.writeShort(rank);
+						writeStory(out, ranking.get(rank), knownStories);
+					}
+				}
+			}
+			out.flush();
+			return bytes.toByteArray();
+
+		} catch (IOException e) {
+			// Not possible with a ByteArrayOutputStream.
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static boolean changed(List<RankedStory> ranking, List<RankedStory> baseRanking, int rank) {
+		return baseRanking == null || rank >= baseRanking.size() || !sameEntry(ranking.get(rank), baseRanking.get(rank));
+	}
+
+	private static boolean sameEntry(RankedStory s1, RankedStory s2) {
+		return s1.storyId.equals(s2.storyId) && s1.count == s2.count && s1.error == s2.error
+				&& windowMinute(s1.oldestCommentTimestamp) == windowMinute(s2.oldestCommentTimestamp);
+	}
+
+	private static void writeStory(DataOutputStream out, RankedStory story, Map<String, RankedStory> knownStories)
+			throws IOException {
+		out.writeUTF(story.storyId);
+		out.writeInt(story.count);
+		out.writeInt(story.error);
+		out.writeInt(windowMinute(story.oldestCommentTimestamp));
+		if (knownStories.containsKey(story.storyId)) {
+			out.writeByte(0);
+		} else {
+			out.writeByte(1);
+			out.writeUTF(story.subreddit);
+			out.writeUTF(story.storyURL);
+			out.writeUTF(story.storyTitle);
+		}
+	}
+
+	private static RankedStory readStory(DataInputStream in, Map<String, RankedStory> knownStories) throws IOException {
+		RankedStory story = new RankedStory();
+		story.storyId = in.readUTF();
+		story.count = in.readInt();
+		story.error = in.readInt();
+		int minute = in.readInt();
+		story.oldestCommentTimestamp = (minute < 0) ? -1 : minute * MINUTE_MILLIS;
+
+		if (in.readUnsignedByte() != 0) {
+			story.subreddit = in.readUTF();
+			story.storyURL = in.readUTF();
+			story.storyTitle = in.readUTF();
+		} else {
+			RankedStory known = knownStories.get(story.storyId);
+			if (known == null) {
+				throw new IllegalArgumentException("Summary payload refers to unknown story " + story.storyId);
+			}
+			story.subreddit = known.subreddit;
+			story.storyURL = known.storyURL;
+			story.storyTitle = known.storyTitle;
+		}
+		return story;
+	}
+
+	private static Map<String, RankedStory> storiesById(Rankings rankings) {
+		Map<String, RankedStory> stories = new HashMap<String, RankedStory>();
+		if (rankings != null) {
+			for (List<RankedStory> ranking : rankings.rankings) {
+				for (RankedStory story : ranking) {
+					stories.put(story.storyId, story);
+				}
+			}
+		}
+		return stories;
+	}
+
+	private static int windowMinute(long timestamp) {
+		return (timestamp < 0) ? -1 : (int) (timestamp / MINUTE_MILLIS);
+	}
+}
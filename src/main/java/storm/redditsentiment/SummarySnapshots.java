@@ -0,0 +1,213 @@
+package storm.redditsentiment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodic snapshots of a task's state in a local directory, given by the "snapshotDir" topology 
+ * configuration, so that a restarted or redeployed task starts from where the last one left off: 
+ * a summarizer's Summary instead of empty rankings, and the ranker's StoryDirectory instead of stories
+ * without titles.
+ *
+ * A snapshot is encoded on the state owner's thread, which takes about 15 milliseconds per 10000 stories,
+ * and written to disk by a background thread: to a temporary file first, which then replaces the previous
+ * snapshot, so there's always a complete snapshot to restore. If the previous snapshot is still being written
+ * when the next one is due, that one is skipped. Restoring memory maps the snapshot.
+ *
+ * Snapshots are per task index and task count, so they're only restored by the task of the same partition
+ * of stories.
+ */
+class SummarySnapshots {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SummarySnapshots.class);
+
+	public static final String DIR_CONF = "snapshotDir";
+	public static final String INTERVAL_CONF = "snapshotIntervalSecs";
+
+	private static final int DEFAULT_INTERVAL_SECS = 300;
+
+	// Most stories have a few comments, in a few buckets.
+	private static final int EXPECTED_BYTES_PER_STORY = 128;
+
+	private final File file;
+	private final long intervalMillis;
+
+	private final ExecutorService writer;
+	private final AtomicBoolean writing = new AtomicBoolean();
+
+	private long lastSnapshotTimestamp;
+	
+	/**
+	 * State that can be snapshotted.
+	 */
+	interface Snapshotted {
+		
+		/**
+		 * Number of stories, for sizing the snapshot.
+		 */
+		int storyCount();
+		
+		/**
+		 * @throws BufferOverflowException if the state doesn't fit in the buffer.
+		 */
+		void writeSnapshot(ByteBuffer out);
+		
+		/**
+		 * Restores the state of a snapshot into empty state.
+		 * 
+		 * @return number of stories restored.
+		 * @throws IllegalArgumentException if it's not a snapshot of this kind of state.
+		 */
+		int restoreSnapshot(ByteBuffer in);
+	}
+
+	SummarySnapshots(File dir, String name, long intervalMillis) {
+		this.file = new File(dir, name + ".snapshot");
+		this.intervalMillis = intervalMillis;
+		this.lastSnapshotTimestamp = System.currentTimeMillis();
+		this.writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "snapshot-" + file.getName());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Snapshots of a task as configured, or null if snapshots are not configured.
+	 */
+	public static SummarySnapshots fromConf(Map stormConf, String name) {
+		String dir = (String) stormConf.get(DIR_CONF);
+		if (dir == null) {
+			return null;
+		}
+		File snapshotDir = new File(dir);
+		if (!snapshotDir.isDirectory() && !snapshotDir.mkdirs()) {
+			throw new RuntimeException("Can't create snapshot directory " + snapshotDir);
+		}
+		Number intervalSecs = (Number) stormConf.get(INTERVAL_CONF);
+		return new SummarySnapshots(snapshotDir, name,
+				1000L * (intervalSecs != null ? intervalSecs.intValue() : DEFAULT_INTERVAL_SECS));
+	}
+
+	/**
+	 * Restores the latest snapshot, if any, into empty state.
+	 *
+	 * @return false if a snapshot was found but could not be restored, leaving the state partly restored.
+	 */
+	public boolean restore(Snapshotted state) {
+		if (!file.exists()) {
+			LOG.info("No snapshot {} to restore", file);
+			return true;
+		}
+
+		long start = System.nanoTime();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			int restored = state.restoreSnapshot(buf);
+			LOG.info("Restored {} stories from {} in {} ms", restored, file, (System.nanoTime() - start) / 1000000L);
+			return true;
+
+		} catch (IOException | IllegalArgumentException | BufferUnderflowException e) {
+			LOG.warn("Can't restore snapshot " + file, e);
+			return false;
+		}
+	}
+
+	/**
+	 * Whether it's time for the next snapshot.
+	 */
+	public boolean isDue(long now) {
+		return now - lastSnapshotTimestamp >= intervalMillis;
+	}
+
+	/**
+	 * Encodes a snapshot of the state, and starts writing it without waiting for the write.
+	 */
+	public void write(Snapshotted state) {
+		lastSnapshotTimestamp = System.currentTimeMillis();
+		if (!writing.compareAndSet(false, true)) {
+			LOG.warn("Previous snapshot still being written. Skipping this one");
+			return;
+		}
+
+		long start = System.nanoTime();
+		final ByteBuffer bytes = encode(state);
+		LOG.info("Encoded snapshot of {} stories in {} bytes in {} ms", state.storyCount(), bytes.remaining(),
+				(System.nanoTime() - start) / 1000000L);
+
+		writer.execute(new Runnable() {
+			public void run() {
+				try {
+					writeFile(bytes);
+				} catch (IOException e) {
+					LOG.warn("Writing snapshot " + file + " failed", e);
+				} finally {
+					writing.set(false);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Waits for the snapshot being written, if any, to complete.
+	 */
+	public void close() {
+		writer.shutdown();
+		try {
+			writer.awaitTermination(30, TimeUnit.SECONDS);
+		} catch (InterruptedException ignore) {
+			;
+		}
+	}
+
+	// Into a buffer of the expected size, and a bigger one if that's too small.
+	static ByteBuffer encode(Snapshotted state) {
+		long capacity = EXPECTED_BYTES_PER_STORY * state.storyCount() + 1024;
+		while (true) {
+			ByteBuffer bytes = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE - 8, capacity));
+			try {
+				state.writeSnapshot(bytes);
+				bytes.flip();
+				return bytes;
+			} catch (BufferOverflowException e) {
+				if (bytes.capacity() >= Integer.MAX_VALUE - 8) {
+					throw e;
+				}
+				capacity *= 2;
+			}
+		}
+	}
+
+	private void writeFile(ByteBuffer bytes) throws IOException {
+		File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+		try (FileOutputStream out = new FileOutputStream(temp)) {
+			FileChannel channel = out.getChannel();
+			while (bytes.hasRemaining()) {
+				channel.write(bytes);
+			}
+			// Written for sure before it replaces the previous snapshot.
+			channel.force(true);
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
@@ -0,0 +1,178 @@
+package storm.redditsentiment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import backtype.storm.metric.api.CountMetric;
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.task.IMetricsContext;
+import backtype.storm.tuple.Values;
+import storm.trident.operation.TridentCollector;
+import storm.trident.state.BaseQueryFunction;
+import storm.trident.state.StateFactory;
+import storm.trident.state.ValueUpdater;
+import storm.trident.state.map.MapState;
+import storm.trident.tuple.TridentTuple;
+
+/**
+ * The Trident counterpart of SummarizerBolt: one partition of the Summary, updated with the 
+ * per story StoryCounts of each batch, keyed by (subreddit, storyid).
+ *
+ * Counts of a batch are buffered by multiUpdate or multiPut, and applied to the summary only when 
+ * the batch commits, and only if its txid is newer than the last one applied. So a batch that Trident 
+ * replays after this partition already committed it is not counted twice.
+ *
+ * The summary isn't a key-value store, so multiGet has nothing to return but nulls. Whatever is put 
+ * for a story is then the batch's counts computed from null, just like what multiUpdate gets from its
+ * updaters, and it's added to the story's counts the same way.
+ */
+public class SummaryState implements MapState<StoryCounts> {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SummaryState.class);
+
+	private static final long EXPIRE_INTERVAL_MILLIS = 10000;
+	private static final int METRICS_INTERVAL_SECS = 60;
+
+	private final Summary summary;
+	
+	// URLs and titles of this partition's stories, which rankings don't carry.
+	private final StoryDirectory storyDirectory = new StoryDirectory();
+
+	private final CountMetric evictedStoriesMetric = new CountMetric();
+	
+	private long currentTxid = -1;
+	private long lastAppliedTxid = -1;
+	
+	// Of the current batch, until it commits.
+	private final List<List<Object>> pendingKeys = new ArrayList<List<Object>>();
+	private final List<StoryCounts> pendingCounts = new ArrayList<StoryCounts>();
+	
+	private long lastExpireTimestamp;
+	
+	SummaryState(long approximateBytes, int[] windowMinutes) {
+		this.summary = new Summary(approximateBytes, windowMinutes);
+	}
+
+	public void beginCommit(Long txid) {
+		currentTxid = (txid != null) ? txid : -1;
+		pendingKeys.clear();
+		pendingCounts.clear();
+	}
+
+	public void commit(Long txid) {
+		if (currentTxid > lastAppliedTxid) {
+			for (int i = 0; i < pendingKeys.size(); i++) {
+				List<Object> key = pendingKeys.get(i);
+				String subreddit = (String) key.get(0);
+				String storyId = (String) key.get(1);
+				StoryCounts counts = pendingCounts.get(i);
+				
+				summary.update(subreddit, storyId, counts.comments, counts.positiveComments, 
+						counts.negativeComments, counts.timestamp);
+				if (counts.storyURL != null) {
+					storyDirectory.put(storyId, counts.storyURL, counts.storyTitle);
+				}
+			}
+			lastAppliedTxid = currentTxid;
+			
+		} else if (!pendingKeys.isEmpty()) {
+			LOG.info("Batch {} already applied. Ignoring its replay", currentTxid);
+		}
+		pendingKeys.clear();
+		pendingCounts.clear();
+		
+		long now = System.currentTimeMillis();
+		if (now - lastExpireTimestamp >= EXPIRE_INTERVAL_MILLIS) {
+			lastExpireTimestamp = now;
+			int evicted = summary.expire(now);
+			evictedStoriesMetric.incrBy(evicted);
+			if (evicted > 0) {
+				LOG.info("Discarded {} stories with no comments in the longest window. Tracking {} stories", 
+						evicted, summary.storyCount());
+			}
+		}
+	}
+
+	public List<StoryCounts> multiGet(List<List<Object>> keys) {
+		List<StoryCounts> values = new ArrayList<StoryCounts>(keys.size());
+		for (int i = 0; i < keys.size(); i++) {
+			values.add(null);
+		}
+		return values;
+	}
+
+	public List<StoryCounts> multiUpdate(List<List<Object>> keys, List<ValueUpdater> updaters) {
+		List<StoryCounts> updated = new ArrayList<StoryCounts>(keys.size());
+		for (int i = 0; i < keys.size(); i++) {
+			// Nothing is stored, so this is just the batch's counts.
+			StoryCounts counts = (StoryCounts) updaters.get(i).update(null);
+			pendingKeys.add(keys.get(i));
+			pendingCounts.add(counts);
+			updated.add(counts);
+		}
+		return updated;
+	}
+
+	public void multiPut(List<List<Object>> keys, List<StoryCounts> vals) {
+		pendingKeys.addAll(keys);
+		pendingCounts.addAll(vals);
+	}
+	
+	/**
+	 * Top N lists of this partition, with story URLs and titles.
+	 */
+	public Rankings rankings(long now) {
+		Rankings rankings = summary.getRankings(SummarizerBolt.TOP_N, now);
+		storyDirectory.describe(rankings);
+		return rankings;
+	}
+
+	public static class Factory implements StateFactory {
+
+		private static final long serialVersionUID = 1L;
+
+		public SummaryState makeState(Map conf, IMetricsContext metrics, int partitionIndex, int numPartitions) {
+			final SummaryState state = new SummaryState(Summary.approximateBytes(conf), Summary.windowMinutes(conf));
+			
+			metrics.registerMetric("evictedStories", state.evictedStoriesMetric, METRICS_INTERVAL_SECS);
+			metrics.registerMetric("stories", new IMetric() {
+				public Object getValueAndReset() {
+					return state.summary.storyCount();
+				}
+			}, METRICS_INTERVAL_SECS);
+			metrics.registerMetric("summaryBytes", new IMetric() {
+				public Object getValueAndReset() {
+					return state.summary.estimatedBytes();
+				}
+			}, METRICS_INTERVAL_SECS);
+			
+			LOG.info("Summary partition {} of {}", partitionIndex, numPartitions);
+			return state;
+		}
+	}
+	
+	/**
+	 * Rankings of the partition, for each query tuple.
+	 */
+	public static class QueryRankings extends BaseQueryFunction<SummaryState, Rankings> {
+
+		private static final long serialVersionUID = 1L;
+
+		public List<Rankings> batchRetrieve(SummaryState state, List<TridentTuple> args) {
+			long now = System.currentTimeMillis();
+			List<Rankings> results = new ArrayList<Rankings>(args.size());
+			for (int i = 0; i < args.size(); i++) {
+				results.add(state.rankings(now));
+			}
+			return results;
+		}
+
+		public void execute(TridentTuple tuple, Rankings rankings, TridentCollector collector) {
+			collector.emit(new Values(rankings));
+		}
+	}
+}
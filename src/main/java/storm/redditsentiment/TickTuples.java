@@ -0,0 +1,29 @@
+package storm.redditsentiment;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import backtype.storm.Config;
+import backtype.storm.Constants;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * Helpers for bolts that do periodic work on Storm's tick tuples.
+ */
+public class TickTuples {
+
+	/**
+	 * Component configuration asking Storm to send the bolt a tick tuple every given number of seconds.
+	 * Return it from getComponentConfiguration().
+	 */
+	public static Map<String, Object> everySecs(int secs) {
+		Map<String, Object> conf = new HashMap<String, Object>();
+		conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, secs);
+		return conf;
+	}
+
+	public static boolean isTick(Tuple tuple) {
+		return Constants.SYSTEM_COMPONENT_ID.equals(tuple.getSourceComponent()) 
+				&& Constants.SYSTEM_TICK_STREAM_ID.equals(tuple.getSourceStreamId());
+	}
+}
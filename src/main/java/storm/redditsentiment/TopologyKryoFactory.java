@@ -0,0 +1,23 @@
+package storm.redditsentiment;
+
+import java.util.List;
+import java.util.Map;
+
+import com.esotericsoftware.kryo.Kryo;
+
+import backtype.storm.serialization.DefaultKryoFactory;
+
+/**
+ * Storm's Kryo, plus the CommentEvent serializer, which needs the topology's list of subreddits 
+ * and so can't be registered by class name in the Config.
+ */
+public class TopologyKryoFactory extends DefaultKryoFactory {
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void postRegister(Kryo k, Map conf) {
+		super.postRegister(k, conf);
+		List<String> subreddits = (List<String>) conf.get(RedditSentimentTopology.SUBREDDITS);
+		k.register(CommentEvent.class, new CommentEventSerializer(subreddits));
+	}
+}
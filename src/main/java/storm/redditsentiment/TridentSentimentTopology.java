@@ -0,0 +1,145 @@
+package storm.redditsentiment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import backtype.storm.generated.StormTopology;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Values;
+import storm.trident.TridentState;
+import storm.trident.TridentTopology;
+import storm.trident.operation.BaseAggregator;
+import storm.trident.operation.TridentCollector;
+import storm.trident.operation.TridentOperationContext;
+import storm.trident.spout.IBatchSpout;
+import storm.trident.tuple.TridentTuple;
+
+/**
+ * The micro-batch variant of the topology, on Trident. Run with "-Dtrident=true" 
+ * (see RedditSentimentTopology).
+ *
+ * - CommentsBatchSpout emits the new comments of its subreddits as batches.
+ * - Comments are scored a batch at a time, fetching the lexicon once per batch.
+ * - persistentAggregate counts them per story, combining the counts of a batch where they were scored
+ *   before they're sent on, so a story's SummaryState partition gets one StoryCounts per batch.
+ * - Every 30 secs, a tick batch queries the rankings of all partitions, and a single 
+ *   RankingsPublisherState merges and publishes them.
+ */
+public class TridentSentimentTopology {
+
+	/**
+	 * Default for topology.max.spout.pending, which in Trident limits batches rather than tuples.
+	 */
+	public static final int DEFAULT_MAX_BATCHES_PENDING = 3;
+
+	private static final long PUBLISH_INTERVAL_MILLIS = 30000;
+	
+	public static StormTopology build(int spoutParallelism, int parallelism) {
+		TridentTopology topology = new TridentTopology();
+		
+		TridentState summaries = topology.newStream("redditcomments", new CommentsBatchSpout())
+			.parallelismHint(spoutParallelism)
+			.shuffle()
+			.partitionAggregate(new Fields("subreddit", "storyid", "storyurl", "storytitle", "comment", "timestamp"), 
+					new ScoreBatch(), 
+					new Fields("subreddit", "storyid", "storyurl", "storytitle", "score", "timestamp"))
+			.parallelismHint(parallelism)
+			.groupBy(new Fields("subreddit", "storyid"))
+			.persistentAggregate(new SummaryState.Factory(), 
+					new Fields("score", "timestamp", "storyurl", "storytitle"), 
+					new StoryCounts.Counter(), new Fields("counts"))
+			.parallelismHint(parallelism);
+		
+		topology.newStream("publishticks", new PublishTicks())
+			.broadcast()
+			.stateQuery(summaries, new SummaryState.QueryRankings(), new Fields("rankings"))
+			.global()
+			.partitionPersist(new RankingsPublisherState.Factory(), new Fields("rankings"), 
+					new RankingsPublisherState.PublishRankings())
+			.parallelismHint(1);
+		
+		return topology.build();
+	}
+	
+	public static void main(String[] args) throws Exception {
+		System.setProperty("trident", "true");
+		RedditSentimentTopology.main(args);
+	}
+	
+	/**
+	 * Scores all comments of a batch partition with the same lexicon version.
+	 */
+	static class ScoreBatch extends BaseAggregator<Lexicon> {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public void prepare(Map conf, TridentOperationContext context) {
+			try {
+				SharedLexicon.init(conf);
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		public Lexicon init(Object batchId, TridentCollector collector) {
+			return SharedLexicon.get();
+		}
+
+		public void aggregate(Lexicon lexicon, TridentTuple tuple, TridentCollector collector) {
+			int score = lexicon.score(tuple.getString(4));
+			collector.emit(new Values(tuple.getString(0), tuple.getString(1), tuple.getString(2), tuple.getString(3), 
+					score, tuple.getLong(5)));
+		}
+
+		public void complete(Lexicon lexicon, TridentCollector collector) {
+			// Everything was emitted as it was scored.
+		}
+	}
+	
+	/**
+	 * Emits a "tick" batch every PUBLISH_INTERVAL_MILLIS, and empty batches in between.
+	 */
+	static class PublishTicks implements IBatchSpout {
+
+		private static final long serialVersionUID = 1L;
+
+		private transient long lastTickTimestamp;
+		
+		// Batches that carry a tick, so that replays do too.
+		private transient List<Long> tickBatches;
+
+		public void open(Map conf, TopologyContext context) {
+			this.tickBatches = new ArrayList<Long>();
+		}
+
+		public void emitBatch(long batchId, TridentCollector collector) {
+			long now = System.currentTimeMillis();
+			if (!tickBatches.contains(batchId)) {
+				if (now - lastTickTimestamp < PUBLISH_INTERVAL_MILLIS) {
+					return;
+				}
+				lastTickTimestamp = now;
+				tickBatches.add(batchId);
+			}
+			collector.emit(new Values(now));
+		}
+
+		public void ack(long batchId) {
+			tickBatches.remove(Long.valueOf(batchId));
+		}
+
+		public void close() {
+		}
+
+		public Map getComponentConfiguration() {
+			return null;
+		}
+
+		public Fields getOutputFields() {
+			return new Fields("tick");
+		}
+	}
+}
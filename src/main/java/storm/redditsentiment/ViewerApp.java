@@ -1,18 +1,26 @@
 package storm.redditsentiment;
 
+import java.util.Date;
+import java.util.List;
+
 import org.apache.storm.zookeeper.WatchedEvent;
 import org.apache.storm.zookeeper.Watcher;
 import org.apache.storm.zookeeper.Watcher.Event.KeeperState;
 import org.apache.storm.zookeeper.ZooKeeper;
 
+import storm.redditsentiment.Rankings.RankedStory;
+
 /**
- * This console app registers with Zookeeper to receive updates published by SummarizerBolt to the "/reddit"
- * Znode and displays those comment summaries.
+ * This console app registers with Zookeeper to receive updates published by RankerBolt to the "/reddit"
+ * Znode and displays those comment summaries. Deltas are applied to the full snapshot in "/reddit/full".
  * 
  */
 public class ViewerApp {
 
 	static ZooKeeper zk = null;
+	
+	// The full snapshot that deltas are applied to.
+	static SummaryPayload fullSnapshot = null;
 
 	public static void main(String[] args) {
 		if (args == null || args.length < 2) {
@@ -80,8 +88,7 @@ public class ViewerApp {
 						// ZK is weird in that the watch needs to be set up
 						// again on every trigger.
 						byte[] data = zk.getData(ZkPublisher.ROOT_ZNODE, this, null);
-						String text = new String(data, "UTF-8");
-						System.out.println(text);
+						show(data);
 
 					} catch (Exception ex) {
 						ex.printStackTrace();
@@ -89,10 +96,8 @@ public class ViewerApp {
 				}
 			}, null);
 
-			if (data != null) {
-				String text = new String(data, "UTF-8");
-				System.out.println(text);
-			}
+			show(data);
+			
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -112,4 +117,88 @@ public class ViewerApp {
 		System.out.println("Exiting");
 	}
 
+	// Decodes and displays a payload published to the root znode, fetching the full snapshot
+	// it's a delta against if that's not the one we have.
+	private static synchronized void show(byte[] data) throws Exception {
+		if (data == null || data.length == 0) {
+			return;
+		}
+		
+		SummaryPayload payload;
+		try {
+			payload = SummaryPayload.decode(data, fullSnapshot);
+			
+		} catch (IllegalArgumentException e) {
+			byte[] fullData = zk.getData(ZkPublisher.FULL_ZNODE, false, null);
+			if (fullData == null || fullData.length == 0) {
+				System.out.println("Waiting for results to be published...");
+				return;
+			}
+			fullSnapshot = SummaryPayload.decode(fullData, null);
+			payload = SummaryPayload.decode(data, fullSnapshot);
+		}
+		
+		if (payload.isFull()) {
+			fullSnapshot = payload;
+		}
+		System.out.println(render(payload.rankings));
+	}
+	
+	/**
+	 * Builds the displayable text of the top 5 lists.
+	 */
+	static String render(Rankings rankings) {
+		StringBuilder summaryText = new StringBuilder(); 
+		
+		summaryText.append("\n\n=================================================================================\n");
+		summaryText.append(new Date(rankings.timestamp)).append("\n\n");
+		
+		for (int window = 0; window < rankings.windows(); window++) {
+			String period = period(rankings.windowMillis[window]);
+			
+			summarize(rankings.get(window, StoryRanking.COMMENTS), summaryText, 
+					"MOST COMMENTED STORIES IN LAST " + period, rankings.timestamp);
+			
+			summarize(rankings.get(window, StoryRanking.POSITIVE), summaryText, 
+					"MOST POSITIVE COMMENT STORIES IN LAST " + period, rankings.timestamp);
+			
+			summarize(rankings.get(window, StoryRanking.NEGATIVE), summaryText, 
+					"MOST NEGATIVE COMMENT STORIES IN LAST " + period, rankings.timestamp);
+		}
+		
+		summaryText.append("\n\n=================================================================================\n");
+		
+		return summaryText.toString();
+	}
+	
+	// Like "5 MINUTES", "1 HOUR" or "24 HOURS".
+	private static String period(long windowMillis) {
+		long minutes = windowMillis / 60000L;
+		if (minutes % 60 != 0) {
+			return minutes + " MINUTES";
+		}
+		return (minutes == 60) ? "1 HOUR" : (minutes / 60) + " HOURS";
+	}
+	
+	private static void summarize(List<RankedStory> stories, StringBuilder s, String title, long now) { 
+		s.append("\n\n").append(title).append(":\n\n");
+		
+		for (int rank = 0; rank < stories.size(); rank++) {
+			RankedStory story = stories.get(rank);
+			
+			// Story URLs are absolute, as in the feeds.
+			String url = story.storyURL;
+			String commentSuffix = "";
+			if (story.oldestCommentTimestamp != -1) {
+				long period = (long)Math.ceil((now - story.oldestCommentTimestamp) / (1000.0 * 60.0));
+				commentSuffix = " in last " + period + " minutes";
+			}
+			// An approximate count is a range.
+			String count = (story.error > 0) ? (story.count - story.error) + "-" + story.count : String.valueOf(story.count);
+			s.append(rank+1).append(". ").append(story.storyTitle).
+				append("\n\t").append(count).append(" comments").append(commentSuffix).
+				append("\n\t").append(url).append("\n\n");
+		}
+	}
+
 }
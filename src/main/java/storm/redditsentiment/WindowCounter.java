@@ -0,0 +1,351 @@
+package storm.redditsentiment;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Counts events in several sliding time windows at once, for example the last 5 minutes, 1 hour
+ * and 24 hours, from hierarchical rollups: a ring of minute buckets for windows of up to an hour,
+ * and a ring of hour buckets for longer ones. An event is added to its minute bucket and to its
+ * hour bucket, and each window keeps a running total, so one add feeds every window.
+ *
+ * Memory is fixed by the longest window of each resolution regardless of the number of events,
+ * adding an event is O(windows), and reading a window's count is O(1). Events age out of a window
+ * a whole bucket at a time: a minute at a time from minute windows, an hour at a time from hour
+ * windows. So a window of N buckets actually covers between (N - 1) and N bucket lengths.
+ */
+class WindowCounter {
+
+	static final long MINUTE_MILLIS = 60000L;
+	static final long HOUR_MILLIS = 3600000L;
+
+	private static final int MINUTES_PER_HOUR = 60;
+
+	/**
+	 * Window lengths and ring sizes, shared by all counters of a Summary.
+	 */
+	static class Windows {
+
+		// Shortest first.
+		final long[] windowMillis;
+		// Number of buckets of each window, minute or hour buckets.
+		final int[] windowBuckets;
+		final boolean[] hourly;
+
+		// Ring sizes, 0 if no window needs the ring.
+		final int minuteBuckets;
+		final int hourBuckets;
+
+		/**
+		 * Windows of up to 60 minutes are counted a minute at a time. Longer ones must be whole hours,
+		 * and are counted an hour at a time.
+		 */
+		Windows(int... windowMinutes) {
+			if (windowMinutes.length == 0) {
+				throw new IllegalArgumentException("No time windows");
+			}
+			int[] sorted = windowMinutes.clone();
+			Arrays.sort(sorted);
+
+			this.windowMillis = new long[sorted.length];
+			this.windowBuckets = new int[sorted.length];
+			this.hourly = new boolean[sorted.length];
+			int minuteBuckets = 0;
+			int hourBuckets = 0;
+			for (int w = 0; w < sorted.length; w++) {
+				int minutes = sorted[w];
+				if (minutes <= 0 || (w > 0 && minutes == sorted[w - 1])) {
+					throw new IllegalArgumentException("Bad time windows " + Arrays.toString(windowMinutes));
+				}
+				if (minutes > MINUTES_PER_HOUR && minutes % MINUTES_PER_HOUR != 0) {
+					throw new IllegalArgumentException("Time windows longer than an hour must be whole hours: " + minutes);
+				}
+				windowMillis[w] = minutes * MINUTE_MILLIS;
+				hourly[w] = minutes > MINUTES_PER_HOUR;
+				if (hourly[w]) {
+					windowBuckets[w] = minutes / MINUTES_PER_HOUR;
+					hourBuckets = Math.max(hourBuckets, windowBuckets[w]);
+				} else {
+					windowBuckets[w] = minutes;
+					minuteBuckets = Math.max(minuteBuckets, windowBuckets[w]);
+				}
+			}
+			this.minuteBuckets = minuteBuckets;
+			this.hourBuckets = hourBuckets;
+		}
+
+		int count() {
+			return windowMillis.length;
+		}
+
+		/**
+		 * The newest minute whose events have aged out of a window, as of the given minute.
+		 */
+		long lastAgedMinute(int window, long nowMinute) {
+			if (hourly[window]) {
+				return (nowMinute / MINUTES_PER_HOUR - windowBuckets[window]) * MINUTES_PER_HOUR
+						+ MINUTES_PER_HOUR - 1;
+			}
+			return nowMinute - windowBuckets[window];
+		}
+
+		/**
+		 * Rough heap size of a counter with compressed oops.
+		 */
+		int estimatedBytes() {
+			return 90 + 4 * (minuteBuckets + hourBuckets + windowMillis.length);
+		}
+	}
+
+	private final Windows windows;
+
+	private final int[] minutes;
+	private final int[] hours;
+
+	// Minute number (timestamp / MINUTE_MILLIS) of the newest minute bucket. Its hour is the newest hour bucket.
+	private long headMinute;
+
+	// Sum of the buckets in each window.
+	private final int[] totals;
+
+	public WindowCounter(Windows windows) {
+		this.windows = windows;
+		this.minutes = (windows.minuteBuckets > 0) ? new int[windows.minuteBuckets] : null;
+		this.hours = (windows.hourBuckets > 0) ? new int[windows.hourBuckets] : null;
+		this.totals = new int[windows.count()];
+	}
+
+	/**
+	 * Counts an event. Events older than all windows are ignored.
+	 */
+	public void add(long timestamp) {
+		add(timestamp, 1);
+	}
+
+	/**
+	 * Counts a number of events that happened at the same time.
+	 */
+	public void add(long timestamp, int events) {
+		long minute = timestamp / MINUTE_MILLIS;
+		if (minute > headMinute) {
+			advanceTo(minute);
+		}
+		long hour = minute / MINUTES_PER_HOUR;
+		long headHour = headMinute / MINUTES_PER_HOUR;
+
+		for (int w = 0; w < totals.length; w++) {
+			boolean inWindow = windows.hourly[w]
+					? hour > headHour - windows.windowBuckets[w]
+					: minute > headMinute - windows.windowBuckets[w];
+			if (inWindow) {
+				totals[w] += events;
+			}
+		}
+		if (minutes != null && minute > headMinute - minutes.length) {
+			minutes[index(minute, minutes)] += events;
+		}
+		if (hours != null && hour > headHour - hours.length) {
+			hours[index(hour, hours)] += events;
+		}
+	}
+
+	/**
+	 * Moves the windows forward to end at the given time, discarding counts of buckets
+	 * that fall outside them.
+	 */
+	public void advance(long now) {
+		long minute = now / MINUTE_MILLIS;
+		if (minute > headMinute) {
+			advanceTo(minute);
+		}
+	}
+
+	/**
+	 * Number of events in a window, by index in Windows, as of the latest add() or advance().
+	 */
+	public int count(int window) {
+		return totals[window];
+	}
+
+	/**
+	 * Start time of the oldest bucket of a window that has any events, or -1 if there are no events in it.
+	 */
+	public long oldestTimestamp(int window) {
+		if (totals[window] == 0) {
+			return -1;
+		}
+		int[] ring = windows.hourly[window] ? hours : minutes;
+		long bucketMillis = windows.hourly[window] ? HOUR_MILLIS : MINUTE_MILLIS;
+		long head = windows.hourly[window] ? headMinute / MINUTES_PER_HOUR : headMinute;
+		for (long bucket = head - windows.windowBuckets[window] + 1; bucket <= head; bucket++) {
+			if (bucket >= 0 && ring[index(bucket, ring)] > 0) {
+				return bucket * bucketMillis;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Start times of the buckets that have any events, oldest first: hour buckets that are partly or wholly 
+	 * older than the minute buckets, then the minute buckets.
+	 */
+	public long[] activeTimestamps() {
+		long[] timestamps = new long[nonZero(minutes) + nonZero(hours)];
+		int n = 0;
+		long oldestMinute = (minutes != null) ? headMinute - minutes.length + 1 : headMinute + 1;
+		if (hours != null) {
+			long headHour = headMinute / MINUTES_PER_HOUR;
+			for (long hour = headHour - hours.length + 1; hour <= headHour; hour++) {
+				if (hour >= 0 && hours[index(hour, hours)] > 0 && hour * MINUTES_PER_HOUR < oldestMinute) {
+					timestamps[n++] = hour * HOUR_MILLIS;
+				}
+			}
+		}
+		if (minutes != null) {
+			for (long minute = oldestMinute; minute <= headMinute; minute++) {
+				if (minute >= 0 && minutes[index(minute, minutes)] > 0) {
+					timestamps[n++] = minute * MINUTE_MILLIS;
+				}
+			}
+		}
+		return Arrays.copyOf(timestamps, n);
+	}
+
+	/**
+	 * Writes the head and the non-empty buckets, as 
+	 * [long head minute][short n][n * (short age, int count)] for minute buckets, then the same for hour 
+	 * buckets but without the head. Ages count back from the head.
+	 */
+	public void write(ByteBuffer out) {
+		out.putLong(headMinute);
+		write(out, minutes, headMinute);
+		write(out, hours, headMinute / MINUTES_PER_HOUR);
+	}
+
+	/**
+	 * Replaces the counts with ones written by write(), of a counter with the same Windows.
+	 */
+	public void read(ByteBuffer in) {
+		headMinute = in.getLong();
+		read(in, minutes, headMinute);
+		read(in, hours, headMinute / MINUTES_PER_HOUR);
+
+		long headHour = headMinute / MINUTES_PER_HOUR;
+		for (int w = 0; w < totals.length; w++) {
+			int[] ring = windows.hourly[w] ? hours : minutes;
+			long head = windows.hourly[w] ? headHour : headMinute;
+			totals[w] = 0;
+			for (long bucket = head - windows.windowBuckets[w] + 1; bucket <= head; bucket++) {
+				if (bucket >= 0) {
+					totals[w] += ring[index(bucket, ring)];
+				}
+			}
+		}
+	}
+
+	private static void write(ByteBuffer out, int[] ring, long head) {
+		// The number of buckets goes before them, once known.
+		int countPosition = out.position();
+		out.putShort((short) 0);
+		if (ring == null) {
+			return;
+		}
+		int buckets = 0;
+		for (int age = 0; age < ring.length && age <= head; age++) {
+			int count = ring[index(head - age, ring)];
+			if (count != 0) {
+				out.putShort((short) age);
+				out.putInt(count);
+				buckets++;
+			}
+		}
+		out.putShort(countPosition, (short) buckets);
+	}
+
+	private static void read(ByteBuffer in, int[] ring, long head) {
+		if (ring != null) {
+			Arrays.fill(ring, 0);
+		}
+		int buckets = in.getShort();
+		for (int i = 0; i < buckets; i++) {
+			int age = in.getShort();
+			int count = in.getInt();
+			if (ring == null || age >= ring.length) {
+				throw new IllegalArgumentException("Bucket out of range: " + age);
+			}
+			ring[index(head - age, ring)] = count;
+		}
+	}
+
+	private static int nonZero(int[] ring) {
+		int n = 0;
+		if (ring != null) {
+			for (int count : ring) {
+				if (count != 0) {
+					n++;
+				}
+			}
+		}
+		return n;
+	}
+
+	private void advanceTo(long minute) {
+		if (isEmpty()) {
+			// Nothing to expire, just jump.
+			headMinute = minute;
+			return;
+		}
+
+		long headHour = headMinute / MINUTES_PER_HOUR;
+		long hour = minute / MINUTES_PER_HOUR;
+		for (int w = 0; w < totals.length; w++) {
+			if (windows.hourly[w]) {
+				age(w, hours, headHour, hour);
+			} else {
+				age(w, minutes, headMinute, minute);
+			}
+		}
+		clear(minutes, headMinute, minute);
+		clear(hours, headHour, hour);
+		headMinute = minute;
+	}
+
+	// Takes the buckets that fall out of a window, when its head moves from oldHead to newHead, out of its total.
+	private void age(int window, int[] ring, long oldHead, long newHead) {
+		int buckets = windows.windowBuckets[window];
+		if (newHead - oldHead >= buckets) {
+			totals[window] = 0;
+			return;
+		}
+		for (long bucket = oldHead - buckets + 1; bucket <= newHead - buckets; bucket++) {
+			if (bucket >= 0) {
+				totals[window] -= ring[index(bucket, ring)];
+			}
+		}
+	}
+
+	// Empties the ring slots that buckets after oldHead up to newHead are going to reuse.
+	private static void clear(int[] ring, long oldHead, long newHead) {
+		if (ring == null) {
+			return;
+		}
+		long steps = Math.min(newHead - oldHead, ring.length);
+		for (long bucket = oldHead + 1; bucket <= oldHead + steps; bucket++) {
+			ring[index(bucket, ring)] = 0;
+		}
+	}
+
+	// Every bucket in a ring is in the longest window of its resolution, so all are empty if the totals are.
+	private boolean isEmpty() {
+		for (int total : totals) {
+			if (total != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int index(long bucket, int[] ring) {
+		return (int) (bucket % ring.length);
+	}
+}
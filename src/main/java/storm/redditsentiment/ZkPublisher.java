@@ -1,23 +1,38 @@
 package storm.redditsentiment;
 
 import java.io.IOException;
-import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.apache.storm.zookeeper.AsyncCallback;
 import org.apache.storm.zookeeper.CreateMode;
+import org.apache.storm.zookeeper.KeeperException;
 import org.apache.storm.zookeeper.WatchedEvent;
 import org.apache.storm.zookeeper.Watcher;
 import org.apache.storm.zookeeper.ZooDefs;
 import org.apache.storm.zookeeper.ZooKeeper;
+import org.apache.storm.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import backtype.storm.Config;
-import storm.redditsentiment.Summary.StoryData;
+import backtype.storm.metric.api.IMetric;
 
 /**
- * Publishes Summary data to "/reddit" znode as displayable text to be consumed by Viewer app.
+ * Publishes Rankings to "/reddit" znode, encoded as SummaryPayloads, to be consumed by Viewer app.
+ * Unchanged rankings are not written again.
+ * 
+ * Writes are asynchronous, so publishing never blocks the caller on a Zookeeper round trip.
+ * When the session expires, a new one is started on a separate thread, retried every RECONNECT_RETRY_SECS
+ * until it succeeds, and the first payload written with it is a full snapshot.
  *
  */
 public class ZkPublisher {
@@ -26,107 +41,253 @@ public class ZkPublisher {
 
 	public static final String ROOT_ZNODE = "/reddit";
 	
-	private ZooKeeper zkClient;
+	// Latest full snapshot, for viewers to apply the deltas published to ROOT_ZNODE to.
+	public static final String FULL_ZNODE = ROOT_ZNODE + "/full";
 	
+	// Every so many payloads is a full snapshot. That bounds the size of deltas, which grow
+	// as rankings drift away from the last full snapshot.
+	private static final int FULL_SNAPSHOT_INTERVAL = 10;
+	
+	private static final int RECONNECT_RETRY_SECS = 10;
+	
+	private String connectString;
+	
+	// Replaced on the reconnector's thread when the session expires.
+	private volatile ZooKeeper zkClient;
+	private ScheduledExecutorService reconnector;
+	private volatile boolean stopped;
+	
+	// Set when a new session starts, for the next write to start over with a full snapshot.
+	private final AtomicBoolean newSession = new AtomicBoolean();
+	
+	// Latest rankings not yet handed to Zookeeper, and whether a write is in flight.
+	private final AtomicReference<Rankings> pending = new AtomicReference<Rankings>();
+	private final AtomicBoolean writing = new AtomicBoolean();
+	
+	// Payload state. See SummaryPayload.
+	private long sequence;
+	private Rankings lastWritten;
+	private Rankings lastFull;
+	private long lastFullSequence;
+	private int deltasSinceFull;
+	
+	private final LatencyMetric publishLatency = new LatencyMetric();
+	private final AtomicLong droppedSnapshots = new AtomicLong();
 	
 	public void init(Map stormConf) throws IOException {
 		
-		List<String> zkServers = (List<String>) stormConf.get(Config.STORM_ZOOKEEPER_SERVERS);
-		int zkPort = ((Number) stormConf.get(Config.STORM_ZOOKEEPER_PORT)).intValue();
+		this.connectString = connectString(stormConf);
+		LOG.info("ZK connect string:{}", connectString);
 		
-		StringBuilder connectString = new StringBuilder();
-		for (int i = 0; i < zkServers.size(); i++) {
-			connectString.append(zkServers.get(i)).append(":").append(zkPort);
-			if (i < zkServers.size() - 1) {
-				connectString.append(",");
-			}
-		}
+		// Sequence numbers carry on from a previous run's, so viewers never mistake a new full snapshot
+		// for one they already have.
+		sequence = System.currentTimeMillis();
 		
-		LOG.info("ZK connect string:{}", connectString);
+		this.reconnector = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "zk-publisher-reconnector");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
 		
-		zkClient = new ZooKeeper(connectString.toString(), 5000, new Watcher() {
+		try {
+			connect();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	// Starts a new session, closing the expired one, and creates the znodes if missing.
+	private synchronized void connect() throws Exception {
+		closeClient();
+		zkClient = new ZooKeeper(connectString, 5000, new Watcher() {
 			public void process(WatchedEvent e) {
 				LOG.info("Publisher Watcher thread [~{}]: {}", Thread.currentThread().getId(), e.toString());
+				if (e.getState() == Event.KeeperState.Expired) {
+					// Writes with this session fail from now on. Not reconnected on the event thread,
+					// which the expired client owns.
+					reconnectLater(0);
+				}
 			}	
 		});
 		
+		if (zkClient.exists(ROOT_ZNODE, false) == null) {
+			
+			zkClient.create(ROOT_ZNODE, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+		}
+		if (zkClient.exists(FULL_ZNODE, false) == null) {
+			
+			zkClient.create(FULL_ZNODE, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+		}
+	}
+	
+	private void reconnectLater(long delaySecs) {
 		try {
-			if (zkClient.exists(ROOT_ZNODE, false) == null) {
-				
-				zkClient.create(ROOT_ZNODE, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
-			}
-
-		} catch (Exception e) {
-			throw new RuntimeException(e);		// The Znode hierarchy is:
+			reconnector.schedule(new Runnable() {
+				public void run() {
+					reconnect();
+				}
+			}, delaySecs, TimeUnit.SECONDS);
+		} catch (RejectedExecutionException e) {
+			// Stopped.
 		}
 	}
 	
-	public void publish(Summary summary) {
-		StringBuilder summaryText = new StringBuilder(); 
-		
-		summaryText.append("\n\n=================================================================================\n");
-		summaryText.append(new Date()).append("\n\n");
-		
-		List<StoryData> mostCommented = summary.getMostCommentedStoriesInWindow(5);
-		summarize(mostCommented, summaryText, "MOST COMMENTED STORIES IN LAST 1 HOUR", 0);
-		
-		List<StoryData> mostPositive = summary.getMostPositiveCommentedStoriesInWindow(5);
-		summarize(mostPositive, summaryText, "MOST POSITIVE COMMENT STORIES IN LAST 1 HOUR", 1);
-		
-		List<StoryData> mostNegative = summary.getMostNegativeCommentedStoriesInWindow(5);
-		summarize(mostNegative, summaryText, "MOST NEGATIVE COMMENT STORIES IN LAST 1 HOUR", 2);
-		
-		summaryText.append("\n\n=================================================================================\n");
-		
+	private synchronized void reconnect() {
+		if (stopped) {
+			return;
+		}
 		try {
-			zkClient.setData(ROOT_ZNODE, summaryText.toString().getBytes(), -1);
+			connect();
+			// Viewers may have missed anything written since the last full snapshot.
+			newSession.set(true);
+			LOG.info("Publishing with a new Zookeeper session");
+			
 		} catch (Exception e) {
-			throw new RuntimeException(e);
+			LOG.warn("Can't start a new Zookeeper session. Retrying in " + RECONNECT_RETRY_SECS + " secs", e);
+			reconnectLater(RECONNECT_RETRY_SECS);
 		}
 	}
 	
-	private void summarize(List<StoryData> stories, StringBuilder s, String title, int commentsType) { 
-		s.append("\n\n").append(title).append(":\n\n");
+	private synchronized void closeClient() {
+		if (zkClient != null) {
+			try {
+				zkClient.close();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * Builds the Zookeeper connect string of the cluster's own Zookeeper servers from Storm configuration.
+	 */
+	static String connectString(Map stormConf) {
+		List<String> zkServers = (List<String>) stormConf.get(Config.STORM_ZOOKEEPER_SERVERS);
+		int zkPort = ((Number) stormConf.get(Config.STORM_ZOOKEEPER_PORT)).intValue();
 		
-		for (int rank = 0; rank < stories.size(); rank++) {
-			StoryData story = stories.get(rank);
+		StringBuilder connectString = new StringBuilder();
+		for (int i = 0; i < zkServers.size(); i++) {
+			connectString.append(zkServers.get(i)).append(":").append(zkPort);
+			if (i < zkServers.size() - 1) {
+				connectString.append(",");
+			}
+		}
+		return connectString.toString();
+	}
+	
+	/**
+	 * Hands rankings over to be written to Zookeeper, without waiting for the write.
+	 * 
+	 * Only one write is in flight at a time. Rankings published while a write is in flight wait
+	 * in a single pending slot, and any rankings still waiting there are replaced (and counted as dropped)
+	 * by newer ones, so a slow Zookeeper never makes the caller wait or queues up stale rankings.
+	 */
+	public void publish(Rankings rankings) {
+		if (pending.getAndSet(rankings) != null) {
+			droppedSnapshots.incrementAndGet();
+		}
+		writeNext();
+	}
+	
+	// Starts writing the pending rankings, unless a write is already in flight or they're unchanged.
+	// Called from the publishing thread, and from Zookeeper's callback thread when a write completes.
+	// Whoever sets the writing flag owns the payload state below until the write completes.
+	private void writeNext() {
+		while (writing.compareAndSet(false, true)) {
+			if (newSession.getAndSet(false)) {
+				lastFull = null;
+				lastWritten = null;
+			}
 			
-			int commentsCount = 0;
-			long oldestCommentTimestamp = -1;
+			Rankings rankings = pending.getAndSet(null);
+			if (rankings != null && !SummaryPayload.sameRankings(rankings, lastWritten)) {
+				long start = System.nanoTime();
+				ZooKeeper zkClient = this.zkClient;
+				sequence++;
+				byte[] data;
+				if (lastFull == null || deltasSinceFull >= FULL_SNAPSHOT_INTERVAL) {
+					data = SummaryPayload.encodeFull(rankings, sequence);
+					lastFull = rankings;
+					lastFullSequence = sequence;
+					deltasSinceFull = 0;
+					
+					// Zookeeper applies a session's writes in order, so the full snapshot is in place before
+					// viewers are notified of the change to the root znode.
+					zkClient.setData(FULL_ZNODE, data, -1, fullWriteCallback, null);
+					
+				} else {
+					data = SummaryPayload.encodeDelta(rankings, lastFull, lastFullSequence, sequence);
+					deltasSinceFull++;
+				}
+				lastWritten = rankings;
+				zkClient.setData(ROOT_ZNODE, data, -1, writeCallback, start);
+				return;
+			}
 			
-			switch (commentsType) {
-				case 0:
-					commentsCount = story.commentCount();
-					oldestCommentTimestamp = story.oldestCommentTimestamp();
-					break;
-				case 1:
-					commentsCount = story.positiveCount();
-					oldestCommentTimestamp = story.oldestPositiveCommentTimestamp();
-					break;
-				case 2:
-					commentsCount = story.negativeCount();
-					oldestCommentTimestamp = story.oldestNegativeCommentTimestamp();
-					break;
+			if (rankings != null) {
+				LOG.debug("Rankings unchanged. Not publishing");
 			}
 			
-			String url = "https://www.reddit.com" + story.storyURL;
-			String commentSuffix = "";
-			if (oldestCommentTimestamp != -1) {
-				long period = (long)Math.ceil((System.currentTimeMillis() - oldestCommentTimestamp) / (1000.0 * 60.0));
-				commentSuffix = " in last " + period + " minutes";
+			writing.set(false);
+			// Rankings may have been published between emptying the slot and clearing the flag.
+			if (pending.get() == null) {
+				return;
 			}
-			s.append(rank+1).append(". ").append(story.storyTitle).
-				append("\n\t").append(commentsCount).append(" comments").append(commentSuffix).
-				append("\n\t").append(url).append("\n\n");
 		}
 	}
 	
-	public void stop() {
-		try {
-			zkClient.close();
-		} catch (InterruptedException ignore) {
-			;
+	private final AsyncCallback.StatCallback fullWriteCallback = new AsyncCallback.StatCallback() {
+		public void processResult(int rc, String path, Object ctx, Stat stat) {
+			KeeperException.Code code = KeeperException.Code.get(rc);
+			if (code != KeeperException.Code.OK) {
+				LOG.warn("Publishing full snapshot to {} failed: {}", path, code);
+				// Deltas against it would be useless to viewers. Start over with a full snapshot.
+				lastFull = null;
+			}
 		}
+	};
+	
+	private final AsyncCallback.StatCallback writeCallback = new AsyncCallback.StatCallback() {
+		public void processResult(int rc, String path, Object ctx, Stat stat) {
+			long latencyMillis = (System.nanoTime() - (Long) ctx) / 1000000L;
+			publishLatency.record(latencyMillis);
+			
+			KeeperException.Code code = KeeperException.Code.get(rc);
+			if (code != KeeperException.Code.OK) {
+				// Not retried, but the next rankings are written even if they're the same as these.
+				LOG.warn("Publishing to {} failed after {} ms: {}", path, latencyMillis, code);
+				lastWritten = null;
+			}
+			
+			writing.set(false);
+			writeNext();
+		}
+	};
+	
+	/**
+	 * Time taken by Zookeeper writes, in millis.
+	 */
+	public LatencyMetric getPublishLatencyMetric() {
+		return publishLatency;
+	}
+	
+	/**
+	 * Number of rankings replaced by newer ones before they could be written.
+	 */
+	public IMetric getDroppedSnapshotsMetric() {
+		return new IMetric() {
+			public Object getValueAndReset() {
+				return droppedSnapshots.getAndSet(0);
+			}
+		};
+	}
+	
+	public synchronized void stop() {
+		stopped = true;
+		reconnector.shutdownNow();
+		closeClient();
 	}
 	
 }
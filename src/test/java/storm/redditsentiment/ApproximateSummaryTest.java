@@ -0,0 +1,97 @@
+package storm.redditsentiment;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import storm.redditsentiment.Rankings.RankedStory;
+
+/**
+ * Tests the bounds of approximate mode counts against a brute force count of every story's comments.
+ */
+public class ApproximateSummaryTest extends TestCase {
+
+	private static final long BYTES = 2000000L;
+	private static final int STORIES = 20000;
+	private static final int COMMENTS = 100000;
+
+	private long now;
+	private Summary summary;
+
+	// Comments, positive and negative comments of every story.
+	private Map<String, int[]> trueCounts;
+
+	@Override
+	protected void setUp() {
+		now = System.currentTimeMillis();
+		summary = new Summary(BYTES, Summary.DEFAULT_WINDOW_MINUTES);
+		trueCounts = new HashMap<String, int[]>();
+
+		// All in the last 3 minutes, so in every window. A few stories get most comments.
+		Random random = new Random(3);
+		for (int i = 0; i < COMMENTS; i++) {
+			String storyId = "id" + (int) (Math.pow(random.nextDouble(), 4) * STORIES);
+			int score = random.nextInt(5) - 2;
+			summary.update("news", storyId, score, now - random.nextInt(180000));
+
+			int[] counts = trueCounts.get(storyId);
+			if (counts == null) {
+				counts = new int[StoryRanking.METRICS];
+				trueCounts.put(storyId, counts);
+			}
+			counts[StoryRanking.COMMENTS]++;
+			if (score > 0) {
+				counts[StoryRanking.POSITIVE]++;
+			} else if (score < 0) {
+				counts[StoryRanking.NEGATIVE]++;
+			}
+		}
+		assertTrue(summary.replacedCount() > 0);
+	}
+
+	public void testCountsBoundTrueCounts() {
+		Rankings rankings = summary.getRankings(summary.storyCount(), now);
+		int checked = 0;
+		for (int window = 0; window < rankings.windows(); window++) {
+			for (int metric = 0; metric < StoryRanking.METRICS; metric++) {
+				for (RankedStory story : rankings.get(window, metric)) {
+					int trueCount = trueCounts.get(story.storyId)[metric];
+					String message = story.storyId + " in window " + window + " metric " + metric;
+					assertTrue(message, story.error >= 0 && story.error <= story.count);
+					assertTrue(message, story.count - story.error <= trueCount);
+					if (metric == StoryRanking.COMMENTS) {
+						// A story replaced earlier takes over at least the comments it lost when it comes back.
+						// Its positive and negative counts may be lower though, as those don't pick the story to replace.
+						assertTrue(message, trueCount <= story.count);
+					}
+					checked++;
+				}
+			}
+		}
+		assertTrue(checked > 0);
+	}
+
+	public void testBusyStoriesTracked() {
+		int longest = Summary.DEFAULT_WINDOW_MINUTES.length - 1;
+		Rankings rankings = summary.getRankings(summary.storyCount(), now);
+		Map<String, Integer> tracked = new HashMap<String, Integer>();
+		int leastCount = Integer.MAX_VALUE;
+		for (RankedStory story : rankings.get(longest, StoryRanking.COMMENTS)) {
+			tracked.put(story.storyId, story.count);
+			leastCount = Math.min(leastCount, story.count);
+		}
+		assertEquals(summary.storyCount(), tracked.size());
+
+		for (Map.Entry<String, int[]> e : trueCounts.entrySet()) {
+			if (e.getValue()[StoryRanking.COMMENTS] > leastCount) {
+				assertTrue(e.getKey(), tracked.containsKey(e.getKey()));
+			}
+		}
+	}
+
+	public void testWithinBudget() {
+		assertTrue(summary.storyCount() < trueCounts.size());
+		assertTrue(summary.estimatedBytes() + " bytes", summary.estimatedBytes() <= BYTES);
+	}
+}
@@ -0,0 +1,125 @@
+package storm.redditsentiment;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that CommentEvents read back the same through the Kryo the topology's workers use.
+ */
+public class CommentEventSerializerTest extends TestCase {
+
+	private static final List<String> SUBREDDITS = Arrays.asList("news", "science", "worldnews");
+
+	private final long now = System.currentTimeMillis();
+
+	private Kryo kryo;
+
+	@Override
+	protected void setUp() {
+		Map<String, Object> conf = new HashMap<String, Object>();
+		conf.put(RedditSentimentTopology.SUBREDDITS, SUBREDDITS);
+		TopologyKryoFactory factory = new TopologyKryoFactory();
+		kryo = factory.getKryo(conf);
+		factory.preRegister(kryo, conf);
+		factory.postRegister(kryo, conf);
+		factory.postDecorate(kryo, conf);
+	}
+
+	public void testSubredditCodes() {
+		for (String subreddit : SUBREDDITS) {
+			assertRoundTrip(CommentEvent.unscored(subreddit, "4xyzab", "Some comment", now));
+		}
+		assertRoundTrip(CommentEvent.unscored("notlisted", "4xyzab", "Some comment", now));
+
+		// Listed subreddits take one byte, others their name.
+		int listed = write(CommentEvent.unscored("worldnews", "4xyzab", null, now)).length;
+		int notListed = write(CommentEvent.unscored("worldnewz", "4xyzab", null, now)).length;
+		assertTrue(notListed + " bytes vs " + listed, notListed >= listed + "worldnewz".length());
+	}
+
+	public void testStoryIds() {
+		String[] ids = {"0", "1", "z", "4xyzab", "zzzzzzzzzzzz"};
+		for (String id : ids) {
+			assertRoundTrip(event(id, 1));
+		}
+		// Written as they are, since decoding them would not give them back.
+		String[] others = {"", "00", "04xyzab", "4XYZAB", "4xyz-ab", "zzzzzzzzzzzzz", "été"};
+		for (String id : others) {
+			assertEquals(id, -1, CommentEventSerializer.decodeId(id));
+			assertRoundTrip(event(id, 1));
+		}
+		assertEquals(Long.parseLong("4xyzab", 36), CommentEventSerializer.decodeId("4xyzab"));
+		assertTrue(write(event("4xyzab", 1)).length < write(event("4xyz-b", 1)).length);
+	}
+
+	public void testScores() {
+		int[] scores = {0, 1, -1, 5, -5, 63, -64, 64, -65, 1000, -1000, Integer.MAX_VALUE, Integer.MIN_VALUE};
+		for (int score : scores) {
+			assertRoundTrip(event("4xyzab", score));
+		}
+		// Zigzag keeps small negative scores as short as small positive ones.
+		assertEquals(write(event("4xyzab", 3)).length, write(event("4xyzab", -3)).length);
+	}
+
+	public void testUnscoredAndScored() {
+		CommentEvent unscored = CommentEvent.unscored("science", "4xyzab", "I don't like it — at all.\n", now);
+		assertRoundTrip(unscored);
+		assertRoundTrip(CommentEvent.unscored("science", "4xyzab", "", now));
+		CommentEvent scored = unscored.scored(-2);
+		assertRoundTrip(scored);
+		assertTrue(write(scored).length < write(unscored).length);
+	}
+
+	public void testTimestamps() {
+		long[] timestamps = {0, 1, now, Long.MAX_VALUE};
+		for (long timestamp : timestamps) {
+			assertRoundTrip(new CommentEvent("news", "4xyzab", null, 1, timestamp));
+		}
+	}
+
+	// As tuples are written: with a class tag, so through the registration.
+	public void testSeveralInOneBuffer() {
+		CommentEvent[] events = {
+				CommentEvent.unscored("news", "4xyzab", "First", now),
+				event("4xyz-b", -7),
+				CommentEvent.unscored("other", "", null, now + 1)};
+		Output output = new Output(64, -1);
+		for (CommentEvent event : events) {
+			kryo.writeClassAndObject(output, event);
+		}
+		Input input = new Input(output.toBytes());
+		for (CommentEvent event : events) {
+			assertSameEvent(event, (CommentEvent) kryo.readClassAndObject(input));
+		}
+	}
+
+	private CommentEvent event(String storyId, int score) {
+		return new CommentEvent("news", storyId, null, score, now);
+	}
+
+	private byte[] write(CommentEvent event) {
+		Output output = new Output(64, -1);
+		kryo.writeObject(output, event);
+		return output.toBytes();
+	}
+
+	private void assertRoundTrip(CommentEvent event) {
+		assertSameEvent(event, kryo.readObject(new Input(write(event)), CommentEvent.class));
+	}
+
+	private static void assertSameEvent(CommentEvent expected, CommentEvent actual) {
+		assertEquals(expected.subreddit, actual.subreddit);
+		assertEquals(expected.storyId, actual.storyId);
+		assertEquals(expected.comment, actual.comment);
+		assertEquals(expected.sentimentScore, actual.sentimentScore);
+		assertEquals(expected.timestamp, actual.timestamp);
+	}
+}
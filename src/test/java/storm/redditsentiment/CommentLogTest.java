@@ -0,0 +1,292 @@
+package storm.redditsentiment;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that CommentLog files read back what was appended to them, including after a recording was cut short.
+ */
+public class CommentLogTest extends TestCase {
+
+	private File file;
+
+	@Override
+	protected void setUp() throws IOException {
+		file = File.createTempFile("comments", ".log");
+	}
+
+	@Override
+	protected void tearDown() {
+		file.delete();
+	}
+
+	public void testRoundTrip() throws IOException {
+		List<CommentLog.Entry> entries = new ArrayList<CommentLog.Entry>();
+		for (int i = 0; i < 100; i++) {
+			entries.add(entry(i, "Comment " + i + " — naïve ☃ " + new String(Character.toChars(0x1F600))));
+		}
+		CommentLog.Entry empty = new CommentLog.Entry();
+		empty.timestamp = -1;
+		entries.add(empty);
+		write(false, entries);
+
+		CommentLog.Reader reader = new CommentLog.Reader(file);
+		try {
+			assertFalse(reader.isHtml());
+			for (int i = 0; i < 100; i++) {
+				assertSameEntry(entries.get(i), reader.next());
+			}
+			// Nulls are read back empty.
+			CommentLog.Entry e = reader.next();
+			assertEquals(-1, e.timestamp);
+			assertEquals("", e.subreddit);
+			assertEquals("", e.comment);
+			assertNull(reader.next());
+			assertNull(reader.next());
+		} finally {
+			reader.close();
+		}
+	}
+
+	public void testHtmlFlag() throws IOException {
+		write(true, Arrays.asList(entry(1, "<p>Some <b>HTML</b></p>")));
+		CommentLog.Reader reader = new CommentLog.Reader(file);
+		try {
+			assertTrue(reader.isHtml());
+			assertEquals("<p>Some <b>HTML</b></p>", reader.next().comment);
+		} finally {
+			reader.close();
+		}
+	}
+
+	public void testLongStringsCutAtCharacterBoundary() throws IOException {
+		String twoByteChars = repeat("é", 40000);
+		String threeByteChars = repeat("€", 30000);
+		String fourByteChars = repeat(new String(Character.toChars(0x1F600)), 20000);
+		write(false, Arrays.asList(entry(1, twoByteChars), entry(2, threeByteChars), entry(3, fourByteChars),
+				entry(4, repeat("a", 65535)), entry(5, repeat("a", 65536))));
+
+		CommentLog.Reader reader = new CommentLog.Reader(file);
+		try {
+			assertEquals(repeat("é", 32767), reader.next().comment);
+			assertEquals(repeat("€", 21845), reader.next().comment);
+			assertEquals(fourByteChars.substring(0, 2 * 16383), reader.next().comment);
+			assertEquals(repeat("a", 65535), reader.next().comment);
+			CommentLog.Entry cut = reader.next();
+			assertEquals(repeat("a", 65535), cut.comment);
+			// The rest of the record is still in place.
+			assertEquals("https://www.reddit.com/r/news/comments/s5/story_5/", cut.storyURL);
+			assertNull(reader.next());
+		} finally {
+			reader.close();
+		}
+	}
+
+	public void testPartialRecordIgnoredAndCutOff() throws IOException {
+		write(false, Arrays.asList(entry(1, "First"), entry(2, "Second"), entry(3, "Third")));
+		long complete = file.length();
+		// As if the recording topology was killed halfway through a record.
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(complete - 3);
+		} finally {
+			raf.close();
+		}
+
+		assertEquals(Arrays.asList("First", "Second"), comments());
+
+		write(false, Arrays.asList(entry(4, "Fourth")));
+		assertEquals(Arrays.asList("First", "Second", "Fourth"), comments());
+	}
+
+	public void testBadLengthIgnored() throws IOException {
+		write(false, Arrays.asList(entry(1, "First")));
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true));
+		try {
+			out.writeInt(4);
+			out.writeLong(2);
+		} finally {
+			out.close();
+		}
+		assertEquals(Arrays.asList("First"), comments());
+	}
+
+	public void testReadsAcrossWindows() throws IOException {
+		// Records of about 60KB, so that some straddle the 64MB window boundary.
+		String comment = repeat("x", 60000);
+		int count = 1200;
+		CommentLog.Writer writer = new CommentLog.Writer(file, false);
+		try {
+			for (int i = 0; i < count; i++) {
+				writer.append(entry(i, i + comment));
+			}
+		} finally {
+			writer.close();
+		}
+		assertTrue(file.length() > 64L * 1024 * 1024);
+
+		CommentLog.Reader reader = new CommentLog.Reader(file);
+		try {
+			for (int i = 0; i < count; i++) {
+				CommentLog.Entry e = reader.next();
+				assertEquals(i, e.timestamp);
+				assertEquals("s" + i, e.storyId);
+				assertEquals(i + comment, e.comment);
+			}
+			assertNull(reader.next());
+		} finally {
+			reader.close();
+		}
+
+		// A Writer finds the end of the last record the same way.
+		write(false, Arrays.asList(entry(count, "Last")));
+		reader = new CommentLog.Reader(file);
+		try {
+			CommentLog.Entry e;
+			CommentLog.Entry last = null;
+			while ((e = reader.next()) != null) {
+				last = e;
+			}
+			assertEquals("Last", last.comment);
+		} finally {
+			reader.close();
+		}
+	}
+
+	public void testReadsFirstVersion() throws IOException {
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		try {
+			out.writeInt(0x52444331);
+			byte[][] strings = {"news".getBytes("UTF-8"), "s1".getBytes("UTF-8"), "c1".getBytes("UTF-8"),
+					"http://url".getBytes("UTF-8"), "Title".getBytes("UTF-8"), "Old comment".getBytes("UTF-8")};
+			int length = 8;
+			for (byte[] s : strings) {
+				length += 2 + s.length;
+			}
+			out.writeInt(length);
+			out.writeLong(42);
+			for (byte[] s : strings) {
+				out.writeShort(s.length);
+				out.write(s);
+			}
+		} finally {
+			out.close();
+		}
+
+		CommentLog.Reader reader = new CommentLog.Reader(file);
+		try {
+			assertFalse(reader.isHtml());
+			CommentLog.Entry e = reader.next();
+			assertEquals(42, e.timestamp);
+			assertEquals("news", e.subreddit);
+			assertEquals("Title", e.storyTitle);
+			assertEquals("Old comment", e.comment);
+			assertNull(reader.next());
+		} finally {
+			reader.close();
+		}
+
+		// Not appended to, as its records are of the old kind.
+		assertRefused(false);
+	}
+
+	public void testOtherKindRefused() throws IOException {
+		write(false, Arrays.asList(entry(1, "Text")));
+		assertRefused(true);
+
+		file.delete();
+		write(true, Arrays.asList(entry(1, "<p>HTML</p>")));
+		assertRefused(false);
+		assertEquals(Arrays.asList("<p>HTML</p>"), comments());
+	}
+
+	public void testOtherFilesRefused() throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write("Not a comment log".getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		try {
+			new CommentLog.Reader(file);
+			fail("Read");
+		} catch (IOException expected) {
+			;
+		}
+		assertRefused(false);
+	}
+
+	private void assertRefused(boolean html) throws IOException {
+		long length = file.length();
+		try {
+			new CommentLog.Writer(file, html).close();
+			fail("Appending allowed");
+		} catch (IOException expected) {
+			;
+		}
+		assertEquals(length, file.length());
+	}
+
+	private void write(boolean html, List<CommentLog.Entry> entries) throws IOException {
+		CommentLog.Writer writer = new CommentLog.Writer(file, html);
+		try {
+			for (CommentLog.Entry e : entries) {
+				writer.append(e);
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	private List<String> comments() throws IOException {
+		List<String> comments = new ArrayList<String>();
+		CommentLog.Reader reader = new CommentLog.Reader(file);
+		try {
+			CommentLog.Entry e;
+			while ((e = reader.next()) != null) {
+				comments.add(e.comment);
+			}
+		} finally {
+			reader.close();
+		}
+		return comments;
+	}
+
+	private static CommentLog.Entry entry(int i, String comment) {
+		CommentLog.Entry e = new CommentLog.Entry();
+		e.timestamp = i;
+		e.subreddit = "news";
+		e.storyId = "s" + i;
+		e.commentId = "c" + i;
+		e.storyURL = "https://www.reddit.com/r/news/comments/s" + i + "/story_" + i + "/";
+		e.storyTitle = "Story " + i;
+		e.comment = comment;
+		return e;
+	}
+
+	private static void assertSameEntry(CommentLog.Entry expected, CommentLog.Entry actual) {
+		assertEquals(expected.timestamp, actual.timestamp);
+		assertEquals(expected.subreddit, actual.subreddit);
+		assertEquals(expected.storyId, actual.storyId);
+		assertEquals(expected.commentId, actual.commentId);
+		assertEquals(expected.storyURL, actual.storyURL);
+		assertEquals(expected.storyTitle, actual.storyTitle);
+		assertEquals(expected.comment, actual.comment);
+	}
+
+	private static String repeat(String s, int times) {
+		StringBuilder b = new StringBuilder(s.length() * times);
+		for (int i = 0; i < times; i++) {
+			b.append(s);
+		}
+		return b.toString();
+	}
+}
@@ -0,0 +1,144 @@
+package storm.redditsentiment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests FeedFetcher against a local HTTP server serving a canned comments feed.
+ */
+public class FeedFetcherTest extends TestCase {
+
+	private static final String ETAG = "\"comments-v1\"";
+
+	private HttpServer server;
+	private URL feedURL;
+	private byte[] feed;
+
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicInteger notModified = new AtomicInteger();
+	private volatile int status = 200;
+
+	@Override
+	protected void setUp() throws Exception {
+		feed = readResource("/comments.xml");
+
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/r/news/comments.rss", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				requests.incrementAndGet();
+				if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+					notModified.incrementAndGet();
+					exchange.sendResponseHeaders(304, -1);
+
+				} else if (status != 200) {
+					exchange.sendResponseHeaders(status, -1);
+
+				} else {
+					exchange.getResponseHeaders().set("Content-Type", "application/atom+xml; charset=UTF-8");
+					exchange.getResponseHeaders().set("ETag", ETAG);
+					exchange.sendResponseHeaders(200, feed.length);
+					OutputStream out = exchange.getResponseBody();
+					out.write(feed);
+					out.close();
+				}
+				exchange.close();
+			}
+		});
+		server.start();
+
+		feedURL = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/r/news/comments.rss");
+	}
+
+	@Override
+	protected void tearDown() {
+		server.stop(0);
+	}
+
+	public void testFetchParsesEntries() throws Exception {
+		FeedFetcher fetcher = new FeedFetcher("news", feedURL, 30000);
+
+		FeedFetcher.Fetch fetch = fetcher.fetch();
+
+		assertNotNull(fetch);
+		assertEquals(3, fetch.entries.size());
+		assertEquals("t1_d6abc01", fetch.entries.get(0).getUri());
+	}
+
+	public void testUnchangedFeedIsNotFetchedAgain() throws Exception {
+		FeedFetcher fetcher = new FeedFetcher("news", feedURL, 30000);
+
+		assertNotNull(fetcher.fetch());
+		assertNull(fetcher.fetch());
+		assertNull(fetcher.fetch());
+
+		assertEquals(3, requests.get());
+		assertEquals(2, notModified.get());
+	}
+
+	public void testFailedFetchThrows() throws Exception {
+		status = 503;
+		FeedFetcher fetcher = new FeedFetcher("news", feedURL, 30000);
+
+		try {
+			fetcher.fetch();
+			fail("Expected an IOException");
+		} catch (IOException expected) {
+			;
+		}
+
+		// Once the server recovers, the feed is fetched in full.
+		status = 200;
+		assertNotNull(fetcher.fetch());
+	}
+
+	public void testPollsInBackground() throws Exception {
+		FeedFetcher fetcher = new FeedFetcher("news", feedURL, 50);
+		fetcher.start();
+		try {
+			FeedFetcher.Fetch fetch = null;
+			long deadline = System.currentTimeMillis() + 5000;
+			while (fetch == null && System.currentTimeMillis() < deadline) {
+				fetch = fetcher.poll();
+				Thread.sleep(10);
+			}
+			assertNotNull(fetch);
+			assertEquals(3, fetch.entries.size());
+
+			// Later polls get 304s and queue nothing.
+			while (notModified.get() < 3 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertTrue(notModified.get() >= 3);
+			assertNull(fetcher.poll());
+
+		} finally {
+			fetcher.stop();
+		}
+	}
+
+	private static byte[] readResource(String name) throws IOException {
+		InputStream in = FeedFetcherTest.class.getResourceAsStream(name);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			int n;
+			while ((n = in.read(buf)) != -1) {
+				out.write(buf, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
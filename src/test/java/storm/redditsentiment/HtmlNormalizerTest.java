@@ -0,0 +1,93 @@
+package storm.redditsentiment;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jsoup.Jsoup;
+import org.jsoup.parser.Parser;
+import org.jsoup.safety.Whitelist;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests HtmlNormalizer against the Jsoup cleanup it replaced, on real comment bodies as they arrive
+ * in feed entries.
+ */
+public class HtmlNormalizerTest extends TestCase {
+
+	private HtmlNormalizer normalizer = new HtmlNormalizer();
+
+	public void testMatchesJsoupOnCorpus() throws Exception {
+		List<String> comments = readLines("/html-comments.txt");
+		assertTrue(comments.size() > 0);
+		for (String html : comments) {
+			assertEquals(html, jsoupText(html), normalizer.normalize(html));
+		}
+	}
+
+	public void testDropsMarkup() {
+		assertEquals("this is exactly it", 
+				normalizer.normalize("<!-- SC_OFF --><div class=\"md\"><p>This is <strong>exactly</strong> it</p></div>"));
+		assertEquals("before after", normalizer.normalize("before <script>var x = '<p>';</script>after"));
+		assertEquals("link", normalizer.normalize("<a href=\"http://x.com/?a=1>2\">link</a>"));
+	}
+
+	public void testDecodesEntities() {
+		assertEquals("dont stop", normalizer.normalize("don&#39;t stop"));
+		assertEquals("tom jerry", normalizer.normalize("Tom &amp; Jerry"));
+		assertEquals("caf\u00e9 \u2014 na\u00efve", normalizer.normalize("caf&eacute;&nbsp;&mdash; na&iuml;ve"));
+		assertEquals("\ud83d\ude00", normalizer.normalize("&#x1F600;"));
+		assertEquals("unknown", normalizer.normalize("&unknown;"));
+	}
+
+	public void testStripsPunctuationAndCollapsesWhitespace() {
+		assertEquals("wow love it best thing ever", 
+				normalizer.normalize("  WOW!!!  Love\tit :-)\n\nBest. Thing. Ever.  "));
+		assertEquals("", normalizer.normalize("<p>...</p>"));
+	}
+
+	public void testReusesBufferAcrossComments() {
+		StringBuilder longComment = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			longComment.append("word ");
+		}
+		assertEquals(longComment.toString().trim(), normalizer.normalize(longComment.toString()));
+		assertEquals("short", normalizer.normalize("Short"));
+	}
+
+	/**
+	 * What SubredditCommentsSpout used to emit - Jsoup.clean() and stripping punctuation - with 
+	 * the entities Jsoup escapes in its output decoded first, so they're stripped as punctuation
+	 * rather than leaving "amp" or "lt" behind, and in HtmlNormalizer's whitespace and case.
+	 */
+	private static String jsoupText(String html) {
+		String text = Jsoup.clean(html, Whitelist.none());
+		text = Parser.unescapeEntities(text, false);
+		text = text.replaceAll("\\p{Punct}", "");
+		text = text.replaceAll("[\\s\u00a0]+", " ").trim();
+		StringBuilder lower = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			lower.append(Character.toLowerCase(text.charAt(i)));
+		}
+		return lower.toString();
+	}
+
+	private static List<String> readLines(String resource) throws Exception {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				HtmlNormalizerTest.class.getResourceAsStream(resource), "UTF-8"));
+		List<String> lines = new ArrayList<String>();
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.isEmpty()) {
+					lines.add(line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,115 @@
+package storm.redditsentiment;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests LexiconMatcher's matching rules, and that it scores ordinary text the same as looking up
+ * each whitespace separated token did.
+ */
+public class LexiconMatcherTest extends TestCase {
+
+	private LexiconMatcher matcher;
+
+	@Override
+	protected void setUp() {
+		matcher = LexiconMatcher.compile(
+				new String[] {"good", "bad", "hate", "not", "not good", "does not work", "cool", "cool stuff", "Wow"},
+				new int[] {3, -3, -3, -1, -2, -3, 1, 3, 4});
+	}
+
+	public void testWholeWordsOnly() {
+		assertEquals(9, matcher.size());
+		assertEquals(3, matcher.score("good"));
+		assertEquals(0, matcher.score("whatever"));
+		assertEquals(0, matcher.score("goodness badly"));
+		assertEquals(0, matcher.score("notgood"));
+		assertEquals(0, matcher.score("good!"));
+		assertEquals(0, matcher.score(""));
+		assertEquals(0, matcher.score(" \t\n"));
+	}
+
+	public void testCaseInsensitive() {
+		assertEquals(3, matcher.score("GOOD"));
+		assertEquals(4, matcher.score("wow"));
+		assertEquals(4, matcher.score("WoW"));
+	}
+
+	public void testLongestMatch() {
+		assertEquals(-2, matcher.score("not good"));
+		assertEquals(-3, matcher.score("does not work"));
+		assertEquals(3, matcher.score("cool stuff"));
+		assertEquals(1, matcher.score("cool stuffing"));
+		// "does not" is no entry, and "does" is no word of the lexicon, so "not" scores on its own.
+		assertEquals(-1, matcher.score("does not"));
+		assertEquals(-2, matcher.score("does not  good"));
+		// Scanning resumes after the longest match.
+		assertEquals(-2 + 3, matcher.score("not good good"));
+		assertEquals(-1 + 3, matcher.score("not goodbye good"));
+	}
+
+	public void testPhrasesAcrossWhitespaceRuns() {
+		assertEquals(-3, matcher.score("does \t not\n\n  work"));
+		assertEquals(-2, matcher.score("  Not\r\ngood  "));
+		assertEquals(3 + 3, matcher.score("cool\u000Bstuff\fgood"));
+	}
+
+	public void testPhraseEntriesNormalized() {
+		LexiconMatcher phrases = LexiconMatcher.compile(new String[] {"  Very   Bad ", ""}, new int[] {-4, 5});
+		assertEquals(1, phrases.size());
+		assertEquals(-4, phrases.score("very bad"));
+	}
+
+	public void testSameAsTokenLookupOnOrdinaryText() throws Exception {
+		Map<String, Integer> afinn = SentimentData.getSentimentData();
+		LexiconMatcher afinnMatcher = LexiconMatcher.compile(afinn);
+		assertEquals(afinn.size(), afinnMatcher.size());
+
+		// Single words that start no phrase, so that words next to each other never form one.
+		Set<String> phraseStarts = new HashSet<String>();
+		for (String entry : afinn.keySet()) {
+			if (entry.indexOf(' ') > 0) {
+				phraseStarts.add(entry.substring(0, entry.indexOf(' ')));
+			}
+		}
+		List<String> words = new ArrayList<String>();
+		for (String entry : afinn.keySet()) {
+			if (entry.indexOf(' ') < 0 && !phraseStarts.contains(entry) && entry.equals(entry.toLowerCase())) {
+				words.add(entry);
+			}
+		}
+		String[] fillers = {"the", "a", "story", "about", "it", "was", "reddit", "good,", "(bad)", "x-ray", "2015"};
+		String[] spaces = {" ", "  ", "\t", "\n", " \r\n"};
+
+		Random random = new Random(5);
+		for (int c = 0; c < 2000; c++) {
+			StringBuilder comment = new StringBuilder();
+			int length = random.nextInt(40);
+			for (int w = 0; w < length; w++) {
+				comment.append(spaces[random.nextInt(spaces.length)]);
+				comment.append(random.nextInt(3) == 0
+						? words.get(random.nextInt(words.size())) : fillers[random.nextInt(fillers.length)]);
+			}
+			String text = comment.toString();
+			assertEquals(text, tokenScore(afinn, text), afinnMatcher.score(text));
+		}
+	}
+
+	// How comments were scored before LexiconMatcher.
+	private static int tokenScore(Map<String, Integer> lexicon, String comment) {
+		int score = 0;
+		for (String token : comment.split("\\s+")) {
+			Integer value = lexicon.get(token);
+			if (value != null) {
+				score += value;
+			}
+		}
+		return score;
+	}
+}
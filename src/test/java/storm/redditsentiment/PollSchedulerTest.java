@@ -0,0 +1,186 @@
+package storm.redditsentiment;
+
+import java.net.URL;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests PollScheduler's intervals and stretching to the budget, with fetchers that only record the
+ * delays they're given.
+ */
+public class PollSchedulerTest extends TestCase {
+
+	private static final long INITIAL = PollScheduler.INITIAL_INTERVAL_MILLIS;
+
+	// Records the delays of the polls scheduled, without polling.
+	private static class RecordingFetcher extends FeedFetcher {
+		final BlockingQueue<Long> delays = new LinkedBlockingQueue<Long>();
+
+		RecordingFetcher(String name) throws Exception {
+			super(name, new URL("http://127.0.0.1:1/r/" + name + "/comments.rss"), INITIAL);
+		}
+
+		@Override
+		public void pollAfter(long delayMillis) {
+			delays.add(delayMillis);
+		}
+
+		long lastDelay() {
+			Long last = null;
+			for (Long delay : delays) {
+				last = delay;
+			}
+			return last;
+		}
+	}
+
+	private PollScheduler scheduler;
+
+	@Override
+	protected void setUp() {
+		scheduler = new PollScheduler(1000);
+	}
+
+	public void testFirstPollAfterInitialDelay() throws Exception {
+		RecordingFetcher news = add("news", 1234);
+		assertEquals(1234L, news.lastDelay());
+		assertEquals(INITIAL, scheduler.interval("news"));
+	}
+
+	public void testHalvedWhenAllNew() throws Exception {
+		RecordingFetcher news = add("news", 0);
+		scheduler.fetched("news", 25, 25);
+		assertEquals(INITIAL / 2, scheduler.interval("news"));
+		assertEquals(INITIAL / 2, news.lastDelay());
+	}
+
+	public void testBacksOffWhenNoneNew() throws Exception {
+		RecordingFetcher news = add("news", 0);
+		scheduler.fetched("news", 0, 25);
+		assertEquals(INITIAL * 3 / 2, scheduler.interval("news"));
+		assertEquals(INITIAL * 3 / 2, news.lastDelay());
+
+		scheduler.nothingNew("news");
+		assertEquals(INITIAL * 9 / 4, scheduler.interval("news"));
+
+		// An empty page tells as little.
+		scheduler.fetched("news", 0, 0);
+		assertEquals(INITIAL * 27 / 8, scheduler.interval("news"));
+	}
+
+	public void testAimsAtHalfNew() throws Exception {
+		add("news", 0);
+		add("science", 0);
+		add("pics", 0);
+		// The first fetch counts as a whole interval after the previous one.
+		scheduler.fetched("news", 12, 24);
+		assertEquals(INITIAL, scheduler.interval("news"));
+		scheduler.fetched("science", 20, 25);
+		assertEquals(INITIAL * 5 / 8, scheduler.interval("science"));
+		// Never more than doubled at once.
+		scheduler.fetched("pics", 1, 25);
+		assertEquals(INITIAL * 2, scheduler.interval("pics"));
+	}
+
+	public void testClamped() throws Exception {
+		RecordingFetcher hot = add("hot", 0);
+		RecordingFetcher quiet = add("quiet", 0);
+		for (int i = 0; i < 20; i++) {
+			scheduler.fetched("hot", 25, 25);
+			scheduler.nothingNew("quiet");
+		}
+		assertEquals(PollScheduler.MIN_INTERVAL_MILLIS, scheduler.interval("hot"));
+		assertEquals(PollScheduler.MIN_INTERVAL_MILLIS, hot.lastDelay());
+		assertEquals(PollScheduler.MAX_INTERVAL_MILLIS, scheduler.interval("quiet"));
+		assertEquals(PollScheduler.MAX_INTERVAL_MILLIS, quiet.lastDelay());
+	}
+
+	public void testStretchedToBudget() throws Exception {
+		// Three feeds at the initial interval poll 6 times a minute together.
+		scheduler = new PollScheduler(4);
+		RecordingFetcher news = add("news", 0);
+		RecordingFetcher science = add("science", 0);
+		add("pics", 0);
+
+		scheduler.fetched("news", 12, 24);
+		assertEquals(INITIAL, scheduler.interval("news"));
+		assertEquals(INITIAL * 6 / 4, news.lastDelay());
+
+		// Hot feeds are still polled more often than quiet ones.
+		scheduler.fetched("science", 25, 25);
+		assertEquals(INITIAL / 2, scheduler.interval("science"));
+		assertEquals(INITIAL / 2 * 8 / 4, science.lastDelay());
+		scheduler.nothingNew("news");
+		assertTrue(news.lastDelay() > science.lastDelay());
+
+		// Within budget again.
+		scheduler = new PollScheduler(100);
+		news = add("news", 0);
+		scheduler.fetched("news", 25, 25);
+		assertEquals(INITIAL / 2, news.lastDelay());
+	}
+
+	public void testRetryKeepsInterval() throws Exception {
+		RecordingFetcher news = add("news", 0);
+		scheduler.fetched("news", 25, 25);
+		for (int i = 0; i < 5; i++) {
+			scheduler.retry("news");
+			assertEquals(INITIAL / 2, scheduler.interval("news"));
+			assertEquals(INITIAL / 2, news.lastDelay());
+		}
+	}
+
+	// A poll skipped because the queue is full tells nothing about the feed, so it's retried without backing off.
+	public void testSkippedPollNotBackedOff() throws Exception {
+		BlockingQueue<FeedFetcher.Fetch> fetches = new ArrayBlockingQueue<FeedFetcher.Fetch>(1);
+		fetches.add(new FeedFetcher.Fetch("other", null, 0, 0));
+		BlockingQueue<Long> delays = new LinkedBlockingQueue<Long>();
+		FeedFetcher news = pollingOnce(fetches, delays);
+		try {
+			scheduler.add("news", news, 0);
+			assertEquals(Long.valueOf(0), delays.poll(5, TimeUnit.SECONDS));
+			assertEquals(Long.valueOf(INITIAL), delays.poll(5, TimeUnit.SECONDS));
+			assertEquals(INITIAL, scheduler.interval("news"));
+		} finally {
+			news.stop();
+		}
+	}
+
+	// Nor does one that failed to connect.
+	public void testFailedPollNotBackedOff() throws Exception {
+		BlockingQueue<Long> delays = new LinkedBlockingQueue<Long>();
+		FeedFetcher news = pollingOnce(new ArrayBlockingQueue<FeedFetcher.Fetch>(1), delays);
+		try {
+			scheduler.add("news", news, 0);
+			assertEquals(Long.valueOf(0), delays.poll(5, TimeUnit.SECONDS));
+			assertEquals(Long.valueOf(INITIAL), delays.poll(30, TimeUnit.SECONDS));
+			assertEquals(INITIAL, scheduler.interval("news"));
+		} finally {
+			news.stop();
+		}
+	}
+
+	// A fetcher of a port nothing listens on, which polls right away the first time only, and records the delays.
+	private FeedFetcher pollingOnce(BlockingQueue<FeedFetcher.Fetch> fetches, final BlockingQueue<Long> delays)
+			throws Exception {
+		return new FeedFetcher("news", new URL("http://127.0.0.1:1/r/news/comments.rss"), INITIAL, fetches, scheduler) {
+			@Override
+			public void pollAfter(long delayMillis) {
+				delays.add(delayMillis);
+				if (delays.size() == 1) {
+					super.pollAfter(0);
+				}
+			}
+		};
+	}
+
+	private RecordingFetcher add(String name, long initialDelayMillis) throws Exception {
+		RecordingFetcher fetcher = new RecordingFetcher(name);
+		scheduler.add(name, fetcher, initialDelayMillis);
+		return fetcher;
+	}
+}
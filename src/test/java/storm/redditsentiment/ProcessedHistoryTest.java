@@ -0,0 +1,110 @@
+package storm.redditsentiment;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests ProcessedHistory's comment id decoding, expiry, table growth and high water marks.
+ */
+public class ProcessedHistoryTest extends TestCase {
+
+	private static final long MINUTE_MILLIS = 60000L;
+
+	private final long start = 1400000000000L;
+
+	public void testDecodesBase36() {
+		assertEquals(Long.parseLong("d6abc01", 36), ProcessedHistory.decode("t1_d6abc01"));
+		assertEquals(Long.parseLong("d6abc01", 36), ProcessedHistory.decode("d6abc01"));
+		assertEquals(Long.parseLong("d6abc01", 36), ProcessedHistory.decode("t1_D6ABC01"));
+		assertEquals(Long.parseLong("zzzzzzzzzzzz", 36), ProcessedHistory.decode("t1_zzzzzzzzzzzz"));
+		assertTrue(ProcessedHistory.decode("t1_d6abc02") > ProcessedHistory.decode("t1_d6abc01"));
+	}
+
+	public void testHashesOtherIds() {
+		String[] others = {"t1_not-base36", "t1_", "", "t1_zzzzzzzzzzzzz", "t1_0", "t1_00", "t1_d6abc01!"};
+		for (String id : others) {
+			assertTrue(id, ProcessedHistory.decode(id) < 0);
+			assertEquals(id, ProcessedHistory.decode(id), ProcessedHistory.decode(new String(id)));
+		}
+		assertTrue(ProcessedHistory.decode("t1_not-base36") != ProcessedHistory.decode("t1_not-base37"));
+
+		ProcessedHistory history = new ProcessedHistory();
+		assertTrue(history.isNew("t1_not-base36", start));
+		assertFalse(history.isNew("t1_not-base36", start + 1000));
+		assertTrue(history.isNew("t1_not-base37", start + 1000));
+	}
+
+	public void testRemembersForAWindowAfterLastSeen() {
+		ProcessedHistory history = new ProcessedHistory(60 * MINUTE_MILLIS, 0);
+		assertTrue(history.isNew("t1_abc", start));
+		// Still on the feed page half an hour later, so remembered for another hour from then.
+		assertFalse(history.isNew("t1_abc", start + 30 * MINUTE_MILLIS));
+		assertFalse(history.isNew("t1_abc", start + 89 * MINUTE_MILLIS));
+		assertTrue(history.isNew("t1_abc", start + 150 * MINUTE_MILLIS));
+		assertFalse(history.isNew("t1_abc", start + 151 * MINUTE_MILLIS));
+	}
+
+	public void testGrowsAndDropsForgottenComments() {
+		ProcessedHistory history = new ProcessedHistory(60 * MINUTE_MILLIS, 0);
+		int comments = 10000;
+		for (int i = 0; i < comments; i++) {
+			assertTrue(history.isNew(commentId(i), start));
+		}
+		assertEquals(comments, history.size());
+		for (int i = 0; i < comments; i++) {
+			assertFalse(history.isNew(commentId(i), start + MINUTE_MILLIS));
+		}
+
+		// A window later, the first comments are forgotten and make way for new ones.
+		long later = start + 62 * MINUTE_MILLIS;
+		for (int i = comments; i < 3 * comments; i++) {
+			assertTrue(history.isNew(commentId(i), later));
+		}
+		assertTrue(history.size() + " remembered", history.size() < 3 * comments);
+		for (int i = comments; i < 3 * comments; i++) {
+			assertFalse(history.isNew(commentId(i), later + MINUTE_MILLIS));
+		}
+		for (int i = 0; i < comments; i += 100) {
+			assertTrue(history.isNew(commentId(i), later + MINUTE_MILLIS));
+		}
+	}
+
+	public void testRestoredHighWaterMark() {
+		ProcessedHistory history = new ProcessedHistory();
+		assertEquals(-1, history.highWaterMark());
+
+		long mark = ProcessedHistory.decode("t1_d6abc01");
+		history.restore(mark);
+		assertEquals(mark, history.highWaterMark());
+
+		assertFalse(history.isNew("t1_d6abc00", start));
+		assertFalse(history.isNew("t1_d6abc01", start));
+		assertTrue(history.isNew("t1_d6abc02", start));
+		assertFalse(history.isNew("t1_d6abc02", start));
+		// Hashed ids are never below the mark.
+		assertTrue(history.isNew("t1_not-base36", start));
+
+		assertEquals(ProcessedHistory.decode("t1_d6abc02"), history.highWaterMark());
+		history.restore(mark);
+		assertEquals(ProcessedHistory.decode("t1_d6abc02"), history.highWaterMark());
+	}
+
+	public void testApproximateMode() {
+		int comments = 10000;
+		ProcessedHistory history = new ProcessedHistory(60 * MINUTE_MILLIS, comments);
+		int takenForDuplicates = 0;
+		for (int i = 0; i < comments; i++) {
+			if (!history.isNew(commentId(i), start)) {
+				takenForDuplicates++;
+			}
+		}
+		assertTrue(takenForDuplicates + " taken for duplicates", takenForDuplicates < comments / 50);
+		for (int i = 0; i < comments; i++) {
+			assertFalse(history.isNew(commentId(i), start + MINUTE_MILLIS));
+		}
+		assertEquals(0, history.size());
+	}
+
+	private static String commentId(int i) {
+		return "t1_" + Long.toString(1000000000L + 7919L * i, 36);
+	}
+}
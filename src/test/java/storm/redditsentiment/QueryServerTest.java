@@ -0,0 +1,173 @@
+package storm.redditsentiment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+
+import junit.framework.TestCase;
+import storm.redditsentiment.Rankings.RankedStory;
+
+/**
+ * Tests StoryTable queries, and QueryServer answering them over HTTP on a local port, without Zookeeper.
+ */
+public class QueryServerTest extends TestCase {
+
+	private Summary summary;
+	private long now;
+
+	@Override
+	protected void setUp() {
+		summary = new Summary();
+		now = System.currentTimeMillis();
+		comments("science", "s1", 3, -1);
+		comments("science", "s2", 5, -1);
+		comments("science", "s3", 1, 1);
+		comments("science", "s4", 4, 1);
+		comments("news", "n1", 9, -1);
+		comments("news", "n2", 2, 1);
+		// Only in the longer windows.
+		summary.update("news", "n3", 1, 1, 0, now - 30 * WindowCounter.MINUTE_MILLIS);
+	}
+
+	public void testTopBySubredditAndMetric() {
+		StoryTable table = summary.getStoryTable(now);
+		assertEquals(7, table.size());
+		int window = table.window(5);
+
+		assertEquals("s2,s1", ids(table.top("science", window, StoryRanking.NEGATIVE, 10)));
+		assertEquals("s2,s1", ids(table.top("SCIENCE", window, StoryRanking.NEGATIVE, 10)));
+		assertEquals("n1,s2,s4", ids(table.top(null, window, StoryRanking.COMMENTS, 3)));
+		assertEquals("s4,n2,s3", ids(table.top(null, window, StoryRanking.POSITIVE, 5)));
+		assertEquals("", ids(table.top("nosuchsubreddit", window, StoryRanking.COMMENTS, 5)));
+		assertEquals("", ids(table.top(null, window, StoryRanking.COMMENTS, 0)));
+
+		assertEquals("n2,n3", ids(table.top("news", table.window(60), StoryRanking.POSITIVE, 5)));
+		assertEquals(-1, table.window(7));
+	}
+
+	public void testTopMatchesRankings() {
+		StoryTable table = summary.getStoryTable(now);
+		for (int window = 0; window < summary.windowMillis().length; window++) {
+			for (int metric = 0; metric < StoryRanking.METRICS; metric++) {
+				List<RankedStory> top = table.top(null, window, metric, 3);
+				List<RankedStory> ranked = summary.getRankings(3, now).get(window, metric);
+				for (int i = 0; i < top.size(); i++) {
+					assertEquals(ranked.get(i).count, top.get(i).count);
+				}
+			}
+		}
+	}
+
+	public void testTableIsACopy() {
+		StoryTable table = summary.getStoryTable(now);
+		comments("science", "s3", 20, -1);
+		assertEquals("s2,s1", ids(table.top("science", 0, StoryRanking.NEGATIVE, 10)));
+	}
+
+	public void testAnswersOverHttp() throws Exception {
+		QueryServer server = new QueryServer(0);
+		try {
+			String base = "http://localhost:" + server.port() + "/top";
+			assertEquals(503, status(base));
+
+			server.publish(summary.getStoryTable(now));
+			String answer = get(base + "?metric=negative&window=5&subreddit=science&n=20");
+			assertTrue(answer, answer.startsWith("{\"timestamp\":" + now
+					+ ",\"windowMinutes\":5,\"metric\":\"negative\",\"subreddit\":\"science\",\"stories\":["
+					+ "{\"subreddit\":\"science\",\"storyId\":\"s2\",\"count\":5,\"error\":0},"
+					+ "{\"subreddit\":\"science\",\"storyId\":\"s1\",\"count\":3,\"error\":0}]}"));
+
+			answer = get(base);
+			assertTrue(answer, answer.contains("\"metric\":\"comments\",\"stories\":[{\"subreddit\":\"news\","
+					+ "\"storyId\":\"n1\",\"count\":9"));
+
+			assertEquals(400, status(base + "?metric=angry"));
+			assertEquals(400, status(base + "?window=7"));
+			assertEquals(400, status(base + "?n=1000"));
+			assertEquals(400, status(base + "?n=x"));
+			assertEquals(400, status(base + "?subreddit=%zz"));
+			assertEquals(404, status(base + "/more"));
+
+		} finally {
+			server.stop();
+		}
+	}
+
+	public void testTableWantedOnlyWhenQueried() throws Exception {
+		QueryServer server = new QueryServer(0);
+		try {
+			String base = "http://localhost:" + server.port() + "/top";
+			assertFalse(server.wantsTable());
+			assertEquals(503, status(base));
+			assertTrue(server.wantsTable());
+			assertFalse(server.wantsTable());
+
+			// Answered from the latest table, however old, while a new one is wanted.
+			server.publish(summary.getStoryTable(now - 60000));
+			assertTrue(get(base).startsWith("{\"timestamp\":" + (now - 60000) + ","));
+			assertTrue(server.wantsTable());
+			assertFalse(server.wantsTable());
+
+		} finally {
+			server.stop();
+		}
+	}
+
+	public void testTakenPortFallsBack() throws Exception {
+		QueryServer first = new QueryServer(0);
+		QueryServer second = new QueryServer(first.port());
+		try {
+			assertTrue(second.port() > 0);
+			assertTrue(second.port() != first.port());
+
+			first.publish(summary.getStoryTable(now));
+			assertEquals(200, status("http://localhost:" + first.port() + "/top"));
+			assertEquals(503, status("http://localhost:" + second.port() + "/top"));
+
+		} finally {
+			second.stop();
+			first.stop();
+		}
+	}
+
+	private void comments(String subreddit, String storyId, int count, int sentimentScore) {
+		for (int i = 0; i < count; i++) {
+			summary.update(subreddit, storyId, sentimentScore, now);
+		}
+	}
+
+	private static String ids(List<RankedStory> stories) {
+		StringBuilder ids = new StringBuilder();
+		for (RankedStory story : stories) {
+			ids.append(ids.length() > 0 ? "," : "").append(story.storyId);
+		}
+		return ids.toString();
+	}
+
+	private static int status(String url) throws Exception {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		try {
+			return connection.getResponseCode();
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	private static String get(String url) throws Exception {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		try {
+			assertEquals(200, connection.getResponseCode());
+			InputStream in = connection.getInputStream();
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buf = new byte[4096];
+			for (int n; (n = in.read(buf)) > 0;) {
+				bytes.write(buf, 0, n);
+			}
+			return bytes.toString("UTF-8");
+		} finally {
+			connection.disconnect();
+		}
+	}
+}
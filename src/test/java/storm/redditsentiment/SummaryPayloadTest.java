@@ -0,0 +1,166 @@
+package storm.redditsentiment;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import storm.redditsentiment.Rankings.RankedStory;
+
+/**
+ * Tests that SummaryPayloads decode to the rankings encoded, as full snapshots and as deltas against them.
+ */
+public class SummaryPayloadTest extends TestCase {
+
+	private static final long MINUTE_MILLIS = 60000L;
+
+	private long now;
+	private Rankings rankings;
+
+	@Override
+	protected void setUp() {
+		now = System.currentTimeMillis();
+		rankings = new Rankings(new long[] {5 * MINUTE_MILLIS, 60 * MINUTE_MILLIS, 24 * 60 * MINUTE_MILLIS});
+		rankings.timestamp = now;
+		for (int window = 0; window < rankings.windows(); window++) {
+			for (int metric = 0; metric < StoryRanking.METRICS; metric++) {
+				List<RankedStory> ranking = rankings.get(window, metric);
+				for (int rank = 0; rank < 5; rank++) {
+					int story = (window + metric + rank) % 8;
+					ranking.add(story(story, 100 * (window + 1) - 10 * rank, rank == 4 ? 2 : 0));
+				}
+			}
+		}
+	}
+
+	public void testFullRoundTrip() {
+		SummaryPayload payload = SummaryPayload.decode(SummaryPayload.encodeFull(rankings, 7), null);
+		assertTrue(payload.isFull());
+		assertEquals(7, payload.sequence);
+		assertEquals(7, payload.baseSequence);
+		assertSameRankings(rankings, payload.rankings);
+	}
+
+	public void testDeltaRoundTrip() {
+		byte[] fullData = SummaryPayload.encodeFull(rankings, 7);
+		SummaryPayload full = SummaryPayload.decode(fullData, null);
+
+		Rankings changed = copy(rankings);
+		changed.timestamp = now + 10000;
+		// A new count, a story new to the rankings, and a shorter ranking.
+		changed.get(0, StoryRanking.COMMENTS).get(2).count++;
+		changed.get(1, StoryRanking.POSITIVE).set(0, story(42, 1000, 0));
+		changed.get(2, StoryRanking.NEGATIVE).remove(4);
+
+		byte[] deltaData = SummaryPayload.encodeDelta(changed, rankings, 7, 8);
+		assertTrue(deltaData.length < fullData.length / 4);
+
+		SummaryPayload delta = SummaryPayload.decode(deltaData, full);
+		assertFalse(delta.isFull());
+		assertEquals(8, delta.sequence);
+		assertEquals(7, delta.baseSequence);
+		assertSameRankings(changed, delta.rankings);
+	}
+
+	public void testUnchangedDeltaIsEmpty() {
+		SummaryPayload full = SummaryPayload.decode(SummaryPayload.encodeFull(rankings, 1), null);
+		SummaryPayload delta = SummaryPayload.decode(SummaryPayload.encodeDelta(rankings, rankings, 1, 2), full);
+		assertSameRankings(rankings, delta.rankings);
+		assertTrue(SummaryPayload.sameRankings(rankings, delta.rankings));
+	}
+
+	// What the viewer does when it doesn't have the full snapshot a delta is against: fetch it and decode again.
+	public void testDeltaNeedsItsFullSnapshot() {
+		byte[] fullData = SummaryPayload.encodeFull(rankings, 7);
+		Rankings changed = copy(rankings);
+		changed.get(0, StoryRanking.COMMENTS).set(0, story(42, 1000, 0));
+		byte[] deltaData = SummaryPayload.encodeDelta(changed, rankings, 7, 8);
+
+		assertRejected(deltaData, null);
+		SummaryPayload older = SummaryPayload.decode(SummaryPayload.encodeFull(rankings, 3), null);
+		assertRejected(deltaData, older);
+		SummaryPayload otherDelta = SummaryPayload.decode(SummaryPayload.encodeDelta(rankings, rankings, 7, 9),
+				SummaryPayload.decode(fullData, null));
+		assertRejected(deltaData, otherDelta);
+
+		SummaryPayload full = SummaryPayload.decode(fullData, null);
+		assertSameRankings(changed, SummaryPayload.decode(deltaData, full).rankings);
+	}
+
+	public void testOtherVersionsRejected() {
+		byte[] data = SummaryPayload.encodeFull(rankings, 1);
+
+		byte[] otherVersion = data.clone();
+		otherVersion[4] = (byte) (SummaryPayload.FORMAT_VERSION + 1);
+		assertRejected(otherVersion, null);
+
+		byte[] notPayload = data.clone();
+		notPayload[0] = 'X';
+		assertRejected(notPayload, null);
+
+		byte[] truncated = new byte[data.length - 3];
+		System.arraycopy(data, 0, truncated, 0, truncated.length);
+		assertRejected(truncated, null);
+	}
+
+	private static void assertRejected(byte[] data, SummaryPayload base) {
+		try {
+			SummaryPayload.decode(data, base);
+			fail("Decoded");
+		} catch (IllegalArgumentException expected) {
+			;
+		}
+	}
+
+	private RankedStory story(int story, int count, int error) {
+		RankedStory s = new RankedStory();
+		s.subreddit = (story % 2 == 0) ? "science" : "worldnews";
+		s.storyId = "id" + story;
+		s.storyURL = "https://www.reddit.com/r/" + s.subreddit + "/comments/id" + story + "/story";
+		s.storyTitle = "Story " + story + " — é";
+		s.count = count;
+		s.error = error;
+		// Payloads carry minutes.
+		s.oldestCommentTimestamp = (story == 3) ? -1 : (now / MINUTE_MILLIS - story) * MINUTE_MILLIS;
+		return s;
+	}
+
+	private static Rankings copy(Rankings rankings) {
+		Rankings copy = new Rankings(rankings.windowMillis);
+		copy.timestamp = rankings.timestamp;
+		for (int i = 0; i < rankings.rankings.size(); i++) {
+			for (RankedStory s : rankings.rankings.get(i)) {
+				RankedStory c = new RankedStory();
+				c.subreddit = s.subreddit;
+				c.storyId = s.storyId;
+				c.storyURL = s.storyURL;
+				c.storyTitle = s.storyTitle;
+				c.count = s.count;
+				c.error = s.error;
+				c.oldestCommentTimestamp = s.oldestCommentTimestamp;
+				copy.rankings.get(i).add(c);
+			}
+		}
+		return copy;
+	}
+
+	// Same stories with the same everything, including what only full snapshots carry.
+	private static void assertSameRankings(Rankings expected, Rankings actual) {
+		assertEquals(expected.timestamp, actual.timestamp);
+		assertTrue(Arrays.equals(expected.windowMillis, actual.windowMillis));
+		for (int i = 0; i < expected.rankings.size(); i++) {
+			List<RankedStory> e = expected.rankings.get(i);
+			List<RankedStory> a = actual.rankings.get(i);
+			assertEquals(e.size(), a.size());
+			for (int rank = 0; rank < e.size(); rank++) {
+				String message = "Ranking " + i + " rank " + rank;
+				assertEquals(message, e.get(rank).storyId, a.get(rank).storyId);
+				assertEquals(message, e.get(rank).subreddit, a.get(rank).subreddit);
+				assertEquals(message, e.get(rank).storyURL, a.get(rank).storyURL);
+				assertEquals(message, e.get(rank).storyTitle, a.get(rank).storyTitle);
+				assertEquals(message, e.get(rank).count, a.get(rank).count);
+				assertEquals(message, e.get(rank).error, a.get(rank).error);
+				assertEquals(message, e.get(rank).oldestCommentTimestamp, a.get(rank).oldestCommentTimestamp);
+			}
+		}
+	}
+}
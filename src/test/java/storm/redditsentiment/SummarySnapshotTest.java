@@ -0,0 +1,154 @@
+package storm.redditsentiment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import storm.redditsentiment.Rankings.RankedStory;
+
+/**
+ * Tests that Summary and StoryDirectory snapshots restore what was written, in both exact
+ * and approximate mode.
+ */
+public class SummarySnapshotTest extends TestCase {
+
+	private static final long HOUR_MILLIS = 3600000L;
+
+	private long now;
+
+	@Override
+	protected void setUp() {
+		now = System.currentTimeMillis();
+	}
+
+	public void testExactRoundTrip() {
+		Summary summary = populate(new Summary(), 2000);
+		Summary restored = new Summary();
+		assertEquals(summary.storyCount(), restored.restoreSnapshot(SummarySnapshots.encode(summary)));
+		assertSameStories(summary, restored);
+	}
+
+	public void testApproximateRoundTrip() {
+		long bytes = 500000L;
+		Summary summary = populate(new Summary(bytes, Summary.DEFAULT_WINDOW_MINUTES), 20000);
+		assertTrue(summary.replacedCount() > 0);
+
+		Summary restored = new Summary(bytes, Summary.DEFAULT_WINDOW_MINUTES);
+		assertEquals(summary.storyCount(), restored.restoreSnapshot(SummarySnapshots.encode(summary)));
+		assertSameStories(summary, restored);
+	}
+
+	public void testOtherWindowsRejected() {
+		Summary summary = populate(new Summary(), 100);
+		try {
+			new Summary(10, 120).restoreSnapshot(SummarySnapshots.encode(summary));
+			fail("Restored a snapshot of other windows");
+		} catch (IllegalArgumentException expected) {
+			;
+		}
+	}
+
+	public void testFileRoundTrip() throws Exception {
+		File dir = File.createTempFile("snapshots", "");
+		dir.delete();
+		dir.mkdirs();
+		try {
+			Summary summary = populate(new Summary(), 1000);
+			SummarySnapshots snapshots = new SummarySnapshots(dir, "summarizer-0-of-1", 0);
+			assertTrue(snapshots.restore(new Summary()));
+			snapshots.write(summary);
+			snapshots.close();
+
+			Summary restored = new Summary();
+			assertTrue(new SummarySnapshots(dir, "summarizer-0-of-1", 0).restore(restored));
+			assertSameStories(summary, restored);
+
+			File file = new File(dir, "summarizer-0-of-1.snapshot");
+			try (FileOutputStream out = new FileOutputStream(file)) {
+				out.write(new byte[] {1, 2, 3, 4, 5, 6});
+			}
+			assertFalse(new SummarySnapshots(dir, "summarizer-0-of-1", 0).restore(new Summary()));
+
+		} finally {
+			for (File file : dir.listFiles()) {
+				file.delete();
+			}
+			dir.delete();
+		}
+	}
+
+	public void testStoryDirectoryRoundTrip() {
+		StoryDirectory directory = new StoryDirectory();
+		directory.put("s1", "https://www.reddit.com/r/news/comments/s1/one", "One");
+		directory.put("s2", "https://www.reddit.com/r/news/comments/s2/two", "Two — café");
+
+		ByteBuffer snapshot = SummarySnapshots.encode(directory);
+		StoryDirectory restored = new StoryDirectory();
+		assertEquals(2, restored.restoreSnapshot(snapshot));
+
+		Rankings rankings = new Rankings(new long[] {HOUR_MILLIS});
+		RankedStory s2 = new RankedStory();
+		s2.subreddit = "news";
+		s2.storyId = "s2";
+		RankedStory s3 = new RankedStory();
+		s3.subreddit = "news";
+		s3.storyId = "s3";
+		rankings.get(0, StoryRanking.COMMENTS).add(s2);
+		rankings.get(0, StoryRanking.COMMENTS).add(s3);
+		restored.describe(rankings);
+
+		assertEquals("https://www.reddit.com/r/news/comments/s2/two", s2.storyURL);
+		assertEquals("Two — café", s2.storyTitle);
+		assertEquals("s3", s3.storyTitle);
+	}
+
+	// Comments on stories spread over the last 23 hours, a few stories getting most of them.
+	private Summary populate(Summary summary, int comments) {
+		Random random = new Random(42);
+		for (int i = 0; i < comments; i++) {
+			int story = (int) (Math.pow(random.nextDouble(), 3) * comments / 2);
+			long timestamp = now - (long) (random.nextDouble() * 23 * HOUR_MILLIS);
+			summary.update("sub" + (story % 7), "id" + story, random.nextInt(5) - 2, timestamp);
+		}
+		return summary;
+	}
+
+	// Same rankings, and the same counts and errors of every story in every window and metric.
+	private void assertSameStories(Summary expected, Summary actual) {
+		assertEquals(expected.storyCount(), actual.storyCount());
+
+		// Every story, ranked.
+		Rankings expectedRankings = expected.getRankings(expected.storyCount(), now);
+		Rankings actualRankings = actual.getRankings(actual.storyCount(), now);
+		for (int window = 0; window < expectedRankings.windows(); window++) {
+			for (int metric = 0; metric < StoryRanking.METRICS; metric++) {
+				List<RankedStory> expectedRanking = expectedRankings.get(window, metric);
+				List<RankedStory> actualRanking = actualRankings.get(window, metric);
+				// Stories of equal counts may be ranked in any order.
+				assertEquals(counts(expectedRanking), counts(actualRanking));
+				assertEquals(stories(expectedRanking), stories(actualRanking));
+			}
+		}
+	}
+
+	private static String counts(List<RankedStory> ranking) {
+		StringBuilder counts = new StringBuilder();
+		for (RankedStory story : ranking) {
+			counts.append(story.count).append(' ');
+		}
+		return counts.toString();
+	}
+
+	private static Map<String, String> stories(List<RankedStory> stories) {
+		Map<String, String> counts = new HashMap<String, String>();
+		for (RankedStory story : stories) {
+			counts.put(story.subreddit + "/" + story.storyId, story.count + "-" + story.error);
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,154 @@
+package storm.redditsentiment;
+
+import static storm.redditsentiment.WindowCounter.HOUR_MILLIS;
+import static storm.redditsentiment.WindowCounter.MINUTE_MILLIS;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that WindowCounter ages events out of minute and hour windows a bucket at a time,
+ * against a brute force count of every event.
+ */
+public class WindowCounterTest extends TestCase {
+
+	private static final WindowCounter.Windows WINDOWS = new WindowCounter.Windows(5, 60, 24 * 60);
+
+	private static final int FIVE_MINUTES = 0;
+	private static final int HOUR = 1;
+	private static final int DAY = 2;
+
+	// A whole hour, some day.
+	private static final long START = 400000L * HOUR_MILLIS;
+
+	public void testMinuteWindowAgesAMinuteAtATime() {
+		WindowCounter counter = new WindowCounter(WINDOWS);
+		counter.add(START + 30000);
+		counter.add(START + MINUTE_MILLIS, 2);
+
+		counter.advance(START + 5 * MINUTE_MILLIS - 1);
+		assertEquals(3, counter.count(FIVE_MINUTES));
+		counter.advance(START + 5 * MINUTE_MILLIS);
+		assertEquals(2, counter.count(FIVE_MINUTES));
+		counter.advance(START + 6 * MINUTE_MILLIS);
+		assertEquals(0, counter.count(FIVE_MINUTES));
+
+		assertEquals(3, counter.count(HOUR));
+		counter.advance(START + 60 * MINUTE_MILLIS);
+		assertEquals(2, counter.count(HOUR));
+		counter.advance(START + 61 * MINUTE_MILLIS);
+		assertEquals(0, counter.count(HOUR));
+		assertEquals(3, counter.count(DAY));
+	}
+
+	public void testHourWindowAgesAnHourAtATime() {
+		WindowCounter counter = new WindowCounter(WINDOWS);
+		counter.add(START + 30 * MINUTE_MILLIS);
+		counter.add(START + HOUR_MILLIS + 59 * MINUTE_MILLIS, 4);
+
+		counter.advance(START + 23 * HOUR_MILLIS + 59 * MINUTE_MILLIS);
+		assertEquals(5, counter.count(DAY));
+		// The first event's hour ages out whole, though the event is only 23.5 hours old.
+		counter.advance(START + 24 * HOUR_MILLIS);
+		assertEquals(4, counter.count(DAY));
+		counter.advance(START + 25 * HOUR_MILLIS);
+		assertEquals(0, counter.count(DAY));
+	}
+
+	public void testOldEventsIgnored() {
+		WindowCounter counter = new WindowCounter(WINDOWS);
+		counter.add(START + 30 * HOUR_MILLIS);
+		counter.add(START + 30 * HOUR_MILLIS - 10 * MINUTE_MILLIS);
+		counter.add(START + 30 * HOUR_MILLIS - 2 * HOUR_MILLIS);
+		counter.add(START);
+
+		assertEquals(1, counter.count(FIVE_MINUTES));
+		assertEquals(2, counter.count(HOUR));
+		assertEquals(3, counter.count(DAY));
+	}
+
+	public void testOldestTimestamp() {
+		WindowCounter counter = new WindowCounter(WINDOWS);
+		assertEquals(-1, counter.oldestTimestamp(DAY));
+
+		counter.add(START + 90 * MINUTE_MILLIS + 1234);
+		counter.add(START + 3 * HOUR_MILLIS + 10 * MINUTE_MILLIS);
+		counter.advance(START + 3 * HOUR_MILLIS + 16 * MINUTE_MILLIS);
+
+		assertEquals(-1, counter.oldestTimestamp(FIVE_MINUTES));
+		assertEquals(START + 3 * HOUR_MILLIS + 10 * MINUTE_MILLIS, counter.oldestTimestamp(HOUR));
+		assertEquals(START + HOUR_MILLIS, counter.oldestTimestamp(DAY));
+	}
+
+	public void testMatchesBruteForce() {
+		Random random = new Random(7);
+		WindowCounter counter = new WindowCounter(WINDOWS);
+		List<long[]> events = new ArrayList<long[]>();
+
+		long now = START;
+		// Of the latest add() or advance(), which the windows end at.
+		long latest = 0;
+		for (int i = 0; i < 20000; i++) {
+			now += random.nextInt((int) (10 * MINUTE_MILLIS));
+			if (random.nextInt(4) == 0) {
+				counter.advance(now);
+				latest = Math.max(latest, now);
+			} else {
+				// Mostly recent events, some late ones.
+				long timestamp = now - (long) (Math.pow(random.nextDouble(), 4) * 30 * HOUR_MILLIS);
+				int n = 1 + random.nextInt(3);
+				counter.add(timestamp, n);
+				events.add(new long[] {timestamp, n});
+				latest = Math.max(latest, timestamp);
+			}
+			for (int w = 0; w < WINDOWS.count(); w++) {
+				assertEquals("Window " + w + " at step " + i, bruteForceCount(events, w, latest), counter.count(w));
+			}
+		}
+	}
+
+	public void testWriteReadRoundTrip() {
+		Random random = new Random(11);
+		WindowCounter counter = new WindowCounter(WINDOWS);
+		long now = START;
+		for (int i = 0; i < 500; i++) {
+			now += random.nextInt((int) (5 * MINUTE_MILLIS));
+			counter.add(now - random.nextInt((int) (20 * HOUR_MILLIS)));
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		counter.write(buffer);
+		buffer.flip();
+		WindowCounter restored = new WindowCounter(WINDOWS);
+		restored.read(buffer);
+		assertFalse(buffer.hasRemaining());
+
+		for (long later = now; later < now + 26 * HOUR_MILLIS; later += 7 * MINUTE_MILLIS) {
+			counter.advance(later);
+			restored.advance(later);
+			for (int w = 0; w < WINDOWS.count(); w++) {
+				assertEquals(counter.count(w), restored.count(w));
+				assertEquals(counter.oldestTimestamp(w), restored.oldestTimestamp(w));
+			}
+		}
+	}
+
+	// Events whose minute, or hour for hour windows, is one of the window's buckets ending at now's.
+	private static int bruteForceCount(List<long[]> events, int window, long now) {
+		long head = now / MINUTE_MILLIS;
+		long bucketMinutes = WINDOWS.hourly[window] ? 60 : 1;
+		long headBucket = head / bucketMinutes;
+		int count = 0;
+		for (long[] event : events) {
+			long bucket = event[0] / MINUTE_MILLIS / bucketMinutes;
+			if (bucket > headBucket - WINDOWS.windowBuckets[window] && bucket <= headBucket) {
+				count += (int) event[1];
+			}
+		}
+		return count;
+	}
+}